@@ -0,0 +1,82 @@
+package dev.danvega.cg.model.processor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of the minifying streams on 1 MiB of commented, indented source, so the
+ * operations per second are MiB per second. The {@code copy} language writes the source to the
+ * same discarding stream unchanged, as the baseline of plain I/O. The source is written in
+ * 16 KiB chunks, as the content writer does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MinifyBenchmark {
+    private static final int SIZE = 1024 * 1024;
+    private static final int CHUNK = 16 * 1024;
+
+    @Param({"copy", "java", "kotlin", "python"})
+    private String language;
+
+    private LanguageProcessor processor;
+    private byte[] source;
+
+    @Setup
+    public void setUp() {
+        processor = switch (language) {
+            case "java" -> new JavaLanguageProcessor();
+            case "kotlin" -> new KotlinLanguageProcessor();
+            case "python" -> new PythonLanguageProcessor();
+            default -> null;
+        };
+        String unit = language.equals("python")
+                ? """
+                # Licensed under the Apache License, Version 2.0
+                def sample(value):  # returns the label
+                    \"\"\"Formats a value.\"\"\"
+
+                    label = "value: %s"  % value
+                    return label
+                """
+                : """
+                /*
+                 * Licensed under the Apache License, Version 2.0
+                 */
+                public class Sample {
+                    // the label of the value
+                    private final String label = "value: " + 42;   /* inline */
+
+                    public String label() {
+                        return label;
+                    }
+                }
+                """;
+        StringBuilder text = new StringBuilder(SIZE + unit.length());
+        while (text.length() < SIZE) {
+            text.append(unit);
+        }
+        source = text.substring(0, SIZE).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void minify() throws IOException {
+        OutputStream out = OutputStream.nullOutputStream();
+        try (OutputStream minified = processor != null ? processor.minify(out) : out) {
+            for (int offset = 0; offset < source.length; offset += CHUNK) {
+                minified.write(source, offset, Math.min(CHUNK, source.length - offset));
+            }
+        }
+    }
+}
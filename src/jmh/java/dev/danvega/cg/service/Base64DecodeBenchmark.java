@@ -0,0 +1,45 @@
+package dev.danvega.cg.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures decoding file content from the contents API the way {@link GitHubService} does,
+ * from GitHub's line-wrapped Base64 to the file text, for several file sizes.
+ * Run with {@code -prof gc} to see the bytes allocated per decoded file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class Base64DecodeBenchmark {
+
+    @Param({"1024", "65536", "1048576"})
+    private int size;
+
+    private String encoded;
+
+    @Setup
+    public void setUp() {
+        String line = "    private final String value = \"sample\"; // größe\n";
+        String text = line.repeat(size / line.length() + 1);
+        byte[] content = text.getBytes(StandardCharsets.UTF_8);
+        byte[] truncated = new byte[size];
+        System.arraycopy(content, 0, truncated, 0, size);
+        encoded = Base64.getMimeEncoder(60, new byte[]{'\n'}).encodeToString(truncated) + "\n";
+    }
+
+    @Benchmark
+    public String decodeContent() {
+        return new String(GitHubService.decodeContent(encoded), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,85 @@
+package dev.danvega.cg.service;
+
+import dev.danvega.cg.model.processor.JavaLanguageProcessor;
+import dev.danvega.cg.util.PathUtils;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures how many files per second the local directory processing reads and writes
+ * from a 20k file tree at several read parallelism levels. The tree is written once per
+ * trial, so after the first iteration the files are served from the page cache; point
+ * {@code java.io.tmpdir} at the filesystem of interest to measure it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LocalReadBenchmark {
+    private static final int DIRECTORY_COUNT = 200;
+    private static final int FILES_PER_DIRECTORY = 100;
+    private static final int FILE_COUNT = DIRECTORY_COUNT * FILES_PER_DIRECTORY;
+
+    @Param({"1", "2", "4", "8", "16", "32"})
+    private int parallelism;
+
+    private Path sourceDir;
+    private LocalFileService service;
+    private List<String> includePatterns;
+    private List<String> excludePatterns;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        sourceDir = Files.createTempDirectory("local-read-benchmark");
+        String body = "public class Sample {\n    private final String value = \"sample\";\n}\n".repeat(40);
+        for (int d = 0; d < DIRECTORY_COUNT; d++) {
+            Path directory = Files.createDirectories(sourceDir.resolve("src/main/java/pkg" + d));
+            for (int f = 0; f < FILES_PER_DIRECTORY; f++) {
+                Files.writeString(directory.resolve("Sample" + f + ".java"), body);
+            }
+        }
+
+        JavaLanguageProcessor processor = new JavaLanguageProcessor();
+        includePatterns = processor.getIncludePatterns();
+        excludePatterns = processor.getExcludePatterns();
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        service = new LocalFileService(new PathUtils(meterRegistry), parallelism, meterRegistry);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(sourceDir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILE_COUNT)
+    public LocalManifest processDirectory() throws IOException {
+        try (ContentWriter writer = new ContentWriter(OutputStream.nullOutputStream())) {
+            return service.processLocalDirectoryForLanguage(sourceDir.toString(), includePatterns, excludePatterns,
+                    writer, TokenBudget.unlimited(), SizeBudget.unlimited(), new GenerationProgress(),
+                    sourceDir.resolve("no-previous-output.txt"));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package dev.danvega.cg.service;
+
+import dev.danvega.cg.model.processor.JavaLanguageProcessor;
+import dev.danvega.cg.util.PathFilter;
+import dev.danvega.cg.util.PathUtils;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the local directory walk alone and the complete local processing, walk, read and
+ * write to a discarding writer, on synthetic trees of 1k, 10k and 100k files. A fifth of the
+ * files sit below {@code target/} and {@code build/} directories, which the walk prunes. Scores are
+ * milliseconds per tree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LocalWalkBenchmark {
+    private static final int FILES_PER_DIRECTORY = 100;
+
+    @Param({"1000", "10000", "100000"})
+    private int fileCount;
+
+    private Path sourceDir;
+    private LocalFileService service;
+    private PathFilter filter;
+    private List<String> includePatterns;
+    private List<String> excludePatterns;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        sourceDir = Files.createTempDirectory("local-walk-benchmark");
+        String body = "public class Sample {\n    private final String value = \"sample\";\n}\n";
+        for (int i = 0; i < fileCount; i++) {
+            int directory = i / FILES_PER_DIRECTORY;
+            String parent = switch (directory % 10) {
+                case 0 -> "module/target/classes/pkg" + directory;
+                case 5 -> "module/build/generated/pkg" + directory;
+                default -> "module/src/main/java/pkg" + directory;
+            };
+            Path dir = sourceDir.resolve(parent);
+            if (i % FILES_PER_DIRECTORY == 0) {
+                Files.createDirectories(dir);
+            }
+            Files.writeString(dir.resolve("Sample" + i + ".java"), body);
+        }
+
+        JavaLanguageProcessor processor = new JavaLanguageProcessor();
+        includePatterns = processor.getIncludePatterns();
+        excludePatterns = processor.getExcludePatterns();
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        PathUtils pathUtils = new PathUtils(meterRegistry);
+        filter = pathUtils.getPathFilter(includePatterns, excludePatterns);
+        service = new LocalFileService(pathUtils, 8, meterRegistry);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(sourceDir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public List<LocalFileService.IncludedFile> walk() throws IOException {
+        return service.findIncludedFiles(sourceDir, filter, new GenerationProgress());
+    }
+
+    @Benchmark
+    public LocalManifest process() throws IOException {
+        try (ContentWriter writer = new ContentWriter(OutputStream.nullOutputStream())) {
+            return service.processLocalDirectoryForLanguage(sourceDir.toString(), includePatterns, excludePatterns,
+                    writer, TokenBudget.unlimited(), SizeBudget.unlimited(), new GenerationProgress(),
+                    sourceDir.resolve("no-previous-output.txt"));
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package dev.danvega.cg.util;
+
+import dev.danvega.cg.model.processor.JavaLanguageProcessor;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the compiled {@link PathFilter} against the previous implementation, which
+ * compiled a glob matcher for every pattern on every call, using the Java processor's
+ * patterns on 100k synthetic repository paths. Both {@link PathUtils#shouldIncludeFile}
+ * overloads are measured as well: the string overload through the filter cache and the
+ * timed filter, and the path overload with matchers created once.
+ * Scores are path matches per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PathMatcherBenchmark {
+    private static final int PATH_COUNT = 100_000;
+
+    private static final String[] DIRECTORIES = {
+            "", "src/main/java/com/example", "src/main/resources", "src/test/java/com/example",
+            "docs", "target/classes", "build/generated", "module-a/src/main/java/org/app",
+            ".github/workflows", ".idea", "gradle/wrapper", "node_modules/lib"
+    };
+    private static final String[] FILE_NAMES = {
+            "Application.java", "Service.java", "pom.xml", "README.md", "application.yaml",
+            "build.gradle", "logo.png", "notes.txt", "mvnw", "Dockerfile", "index.js", "module-info.class"
+    };
+
+    private List<String> includePatterns;
+    private List<String> excludePatterns;
+    private PathFilter filter;
+    private String[] paths;
+    private PathUtils pathUtils;
+    private Path sourceDir;
+    private Path[] files;
+    private List<PathMatcher> includeMatchers;
+    private List<PathMatcher> excludeMatchers;
+
+    @Setup
+    public void setUp() {
+        JavaLanguageProcessor processor = new JavaLanguageProcessor();
+        includePatterns = processor.getIncludePatterns();
+        excludePatterns = processor.getExcludePatterns();
+        filter = PathFilter.compile(includePatterns, excludePatterns);
+
+        Random random = new Random(42);
+        paths = new String[PATH_COUNT];
+        for (int i = 0; i < PATH_COUNT; i++) {
+            String directory = DIRECTORIES[random.nextInt(DIRECTORIES.length)];
+            String name = FILE_NAMES[random.nextInt(FILE_NAMES.length)];
+            paths[i] = directory.isEmpty() ? name : directory + "/" + name;
+            if (filter.shouldInclude(paths[i]) != legacyShouldIncludeFile(paths[i], includePatterns, excludePatterns)) {
+                throw new IllegalStateException("Compiled filter disagrees with glob matching for: " + paths[i]);
+            }
+        }
+
+        pathUtils = new PathUtils(new SimpleMeterRegistry());
+        sourceDir = Paths.get("/repository");
+        files = new Path[PATH_COUNT];
+        for (int i = 0; i < PATH_COUNT; i++) {
+            files[i] = sourceDir.resolve(paths[i]);
+        }
+        includeMatchers = pathUtils.createPathMatchers(includePatterns);
+        excludeMatchers = pathUtils.createPathMatchers(excludePatterns);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PATH_COUNT)
+    public void legacyShouldIncludeFile(Blackhole blackhole) {
+        for (String path : paths) {
+            blackhole.consume(legacyShouldIncludeFile(path, includePatterns, excludePatterns));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PATH_COUNT)
+    public void compiledShouldInclude(Blackhole blackhole) {
+        for (String path : paths) {
+            blackhole.consume(filter.shouldInclude(path));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PATH_COUNT)
+    public void pathUtilsShouldIncludeString(Blackhole blackhole) {
+        for (String path : paths) {
+            blackhole.consume(pathUtils.shouldIncludeFile(path, includePatterns, excludePatterns));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PATH_COUNT)
+    public void pathUtilsShouldIncludePath(Blackhole blackhole) {
+        for (Path file : files) {
+            blackhole.consume(pathUtils.shouldIncludeFile(file, sourceDir, includeMatchers, excludeMatchers));
+        }
+    }
+
+    /**
+     * The matching code PathUtils used before patterns were compiled once per pattern set.
+     */
+    private static boolean legacyShouldIncludeFile(String filePath, List<String> includePatterns, List<String> excludePatterns) {
+        if (legacyMatchesAnyPattern(filePath, excludePatterns)) {
+            return false;
+        }
+        return includePatterns.isEmpty() || legacyMatchesAnyPattern(filePath, includePatterns);
+    }
+
+    private static boolean legacyMatchesAnyPattern(String path, List<String> patterns) {
+        if (patterns.isEmpty()) {
+            return false;
+        }
+        path = path.replace('\\', '/');
+        for (String pattern : patterns) {
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern.trim().replace('\\', '/'));
+            if (matcher.matches(Paths.get(path))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,12 +1,13 @@
 package dev.danvega.cg;
 
 import dev.danvega.cg.config.GitHubConfiguration;
+import dev.danvega.cg.config.SizeLimitConfiguration;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 
 @SpringBootApplication
-@EnableConfigurationProperties(GitHubConfiguration.class)
+@EnableConfigurationProperties({GitHubConfiguration.class, SizeLimitConfiguration.class})
 public class Application {
     public static void main(String[] args) {
         SpringApplication.run(Application.class, args);
@@ -1,12 +1,99 @@
 package dev.danvega.cg.config;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.stream.Collectors;
 
 @ConfigurationProperties(value = "github")
-public record GitHubConfiguration(String token) {
+public record GitHubConfiguration(
+        String token,
+        @DefaultValue("https://api.github.com") String apiUrl,
+        @DefaultValue("tree") FetchMode fetchMode,
+        @DefaultValue("50") int blobBatchSize,
+        @DefaultValue("8") int maxConcurrentRequests,
+        @DefaultValue("5") int maxRetries,
+        @DefaultValue("1s") Duration retryBackoff,
+        @DefaultValue BlobCacheSettings blobCache,
+        @DefaultValue EtagCacheSettings etagCache) {
+
+    /**
+     * Strategy used to discover and download repository files.
+     */
+    public enum FetchMode {
+        /**
+         * Walks the repository with one contents call per directory and one per file.
+         */
+        CONTENTS,
+        /**
+         * Resolves the file list with a single recursive git tree call and downloads blobs in batches.
+         */
+        TREE,
+        /**
+         * Streams the repository tarball and filters its entries while decompressing.
+         */
+        ARCHIVE;
+
+        /**
+         * Parses a fetch mode name case-insensitively.
+         *
+         * @param value The fetch mode name, or null or blank for the configured default
+         * @return The fetch mode, or null if no mode was given
+         * @throws IllegalArgumentException If the name is not a supported fetch mode
+         */
+        public static FetchMode parse(String value) {
+            if (value == null || value.isBlank()) {
+                return null;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unsupported fetch mode: " + value + ". Supported modes: "
+                        + Arrays.stream(values()).map(m -> m.name().toLowerCase(Locale.ROOT)).collect(Collectors.joining(", ")));
+            }
+        }
+    }
+
+    /**
+     * Limits of the blob cache that keeps downloaded file contents by git SHA.
+     *
+     * @param memorySize The maximum size of the in-memory tier
+     * @param diskEnabled Whether blobs are also stored under the output directory
+     * @param diskSize The maximum size of the on-disk tier
+     */
+    public record BlobCacheSettings(
+            @DefaultValue("64MB") DataSize memorySize,
+            @DefaultValue("false") boolean diskEnabled,
+            @DefaultValue("1GB") DataSize diskSize) {
+    }
+
+    /**
+     * Limits of the ETag cache that keeps API responses for conditional requests.
+     *
+     * @param enabled Whether responses are stored and revalidated with {@code If-None-Match}
+     * @param diskSize The maximum size of the stored responses under the output directory
+     */
+    public record EtagCacheSettings(
+            @DefaultValue("true") boolean enabled,
+            @DefaultValue("256MB") DataSize diskSize) {
+    }
+
     public GitHubConfiguration {
         if (token == null || token.isBlank()) {
             throw new IllegalArgumentException("GitHub token must not be null or blank");
         }
+        if (blobBatchSize < 1) {
+            throw new IllegalArgumentException("GitHub blob batch size must be at least 1");
+        }
+        if (maxConcurrentRequests < 1) {
+            throw new IllegalArgumentException("GitHub max concurrent requests must be at least 1");
+        }
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("GitHub max retries must not be negative");
+        }
     }
 }
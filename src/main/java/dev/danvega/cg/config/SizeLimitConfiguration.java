@@ -0,0 +1,69 @@
+package dev.danvega.cg.config;
+
+import dev.danvega.cg.model.processor.LanguageProcessorRegistry;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Limits on the size of the files included in a document, checked against the sizes GitHub
+ * lists and the local file system reports before any content is fetched. The defaults apply
+ * to every language unless the language overrides them.
+ *
+ * @param maxFileSize The largest file included
+ * @param maxTotalSize The largest total size of the files included in one document
+ * @param languages Overrides per language type, such as {@code java}
+ */
+@ConfigurationProperties(value = "app.size-limits")
+public record SizeLimitConfiguration(
+        @DefaultValue("1MB") DataSize maxFileSize,
+        @DefaultValue("100MB") DataSize maxTotalSize,
+        Map<String, LanguageLimits> languages) {
+
+    /**
+     * Limits overriding the defaults for one language. Unset limits fall back to the defaults.
+     *
+     * @param maxFileSize The largest file included, or null for the default
+     * @param maxTotalSize The largest total size of the included files, or null for the default
+     */
+    public record LanguageLimits(DataSize maxFileSize, DataSize maxTotalSize) {
+    }
+
+    public SizeLimitConfiguration {
+        languages = languages == null ? Map.of() : Map.copyOf(languages);
+    }
+
+    /**
+     * Returns the largest file included for a language type. Merged types such as
+     * {@code java+python} or {@code java,python} use the largest limit of their languages.
+     *
+     * @param languageType The language type
+     * @return the maximum file size in bytes
+     */
+    public long maxFileSize(String languageType) {
+        return limit(languageType, LanguageLimits::maxFileSize, maxFileSize);
+    }
+
+    /**
+     * Returns the largest total size of the files included for a language type. Merged types
+     * such as {@code java+python} or {@code java,python} use the largest limit of their languages.
+     *
+     * @param languageType The language type
+     * @return the maximum total size in bytes
+     */
+    public long maxTotalSize(String languageType) {
+        return limit(languageType, LanguageLimits::maxTotalSize, maxTotalSize);
+    }
+
+    private long limit(String languageType, Function<LanguageLimits, DataSize> override, DataSize defaultLimit) {
+        return LanguageProcessorRegistry.splitType(languageType).stream()
+                .map(languages::get)
+                .mapToLong(limits -> limits != null && override.apply(limits) != null
+                        ? override.apply(limits).toBytes() : defaultLimit.toBytes())
+                .max()
+                .orElse(defaultLimit.toBytes());
+    }
+}
@@ -0,0 +1,63 @@
+package dev.danvega.cg.controller;
+
+import dev.danvega.cg.model.BatchRequest;
+import dev.danvega.cg.model.GenerationRequest;
+import dev.danvega.cg.service.BatchGenerationService;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Generates documents for a list of repositories and local directories in one request,
+ * returned as a ZIP archive of per-repository documents or as one combined document.
+ */
+@RestController
+@RequestMapping("/api/batch")
+@RequiredArgsConstructor
+public class BatchController {
+    private static final Logger log = LoggerFactory.getLogger(BatchController.class);
+    private final BatchGenerationService batchService;
+
+    @PostMapping
+    public ResponseEntity<StreamingResponseBody> generateBatch(
+            @RequestBody BatchRequest batch,
+            @RequestParam(required = false, defaultValue = "zip") String format) {
+
+        List<GenerationRequest> requests;
+        BatchGenerationService.Format batchFormat;
+        try {
+            batchFormat = BatchGenerationService.Format.parse(format);
+            requests = batchService.validateBatch(batch);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                    .header("Content-Type", "text/plain; charset=UTF-8")
+                    .body(out -> out.write(e.getMessage().getBytes(StandardCharsets.UTF_8)));
+        }
+
+        StreamingResponseBody body = out -> {
+            try {
+                batchService.generateBatch(requests, batchFormat, out);
+            } catch (IOException | RuntimeException e) {
+                log.error("Error generating batch", e);
+                throw e;
+            }
+        };
+
+        boolean zip = batchFormat == BatchGenerationService.Format.ZIP;
+        return ResponseEntity.ok()
+                .header("Content-Disposition", "attachment; filename=" + (zip ? "repositories.zip" : "repositories.txt"))
+                .header("Content-Type", zip ? "application/zip" : "text/plain; charset=UTF-8")
+                .body(body);
+    }
+}
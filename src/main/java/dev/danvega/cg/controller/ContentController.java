@@ -1,18 +1,30 @@
 package dev.danvega.cg.controller;
 
-import dev.danvega.cg.model.processor.LanguageProcessor;
-import dev.danvega.cg.model.processor.LanguageProcessorRegistry;
+import dev.danvega.cg.config.GitHubConfiguration;
+import dev.danvega.cg.model.GenerationRequest;
+import dev.danvega.cg.model.OutputFormat;
 import dev.danvega.cg.service.ContentGeneratorService;
-import dev.danvega.cg.util.PathUtils;
+import dev.danvega.cg.service.GenerationCache;
+import dev.danvega.cg.service.GenerationProgress;
+import dev.danvega.cg.service.ShardWriter;
+import dev.danvega.cg.util.Compression;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 
 @RestController
 @RequestMapping("/api/content")
@@ -20,36 +32,139 @@ import org.springframework.web.bind.annotation.RestController;
 public class ContentController {
     private static final Logger log = LoggerFactory.getLogger(ContentController.class);
     private final ContentGeneratorService contentGeneratorService;
-    private final PathUtils pathUtils;
-    private final LanguageProcessorRegistry processorRegistry;
 
     @GetMapping("/generate")
-    public ResponseEntity<byte[]> downloadContent(
+    public ResponseEntity<StreamingResponseBody> downloadContent(
             @RequestParam(required = false) String url,
             @RequestParam(required = false) String localPath,
             @RequestParam(required = false, defaultValue = "java") String type,
-            @RequestParam(required = false, defaultValue = "false") boolean onlyLanguageFiles) {
+            @RequestParam(required = false, defaultValue = "false") boolean onlyLanguageFiles,
+            @RequestParam(required = false) String fetchMode,
+            @RequestParam(required = false) Long maxTokens,
+            @RequestParam(required = false) String format,
+            @RequestParam(required = false, defaultValue = "false") boolean minify,
+            @RequestParam(required = false, defaultValue = "false") boolean dedupe,
+            @RequestParam(required = false) Long shardBytes,
+            @RequestParam(required = false) Long shardTokens,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
 
         try {
-            if (processorRegistry.getProcessor(type).isEmpty()) {
-                return ResponseEntity.badRequest()
-                        .body(("Unsupported language type: " + type +
-                                ". Supported types: " + String.join(", ", processorRegistry.getSupportedLanguages()))
-                                .getBytes());
-            }
-
-            String content = contentGeneratorService.generateContent(url, localPath, type, onlyLanguageFiles);            String filename = pathUtils.determineFilename(url, localPath);
-            String outputExtension = processorRegistry.getProcessor(type)
-                    .map(LanguageProcessor::getOutputExtension)
-                    .orElse("txt");
-
-            return ResponseEntity.ok()
-                    .header("Content-Disposition", "attachment; filename=" + filename + "." + outputExtension)
-                    .header("Content-Type", "text/plain")
-                    .body(content.getBytes());
+            GenerationRequest request;
+            ShardWriter.Limits shardLimits;
+            try {
+                request = new GenerationRequest(url, localPath, type, onlyLanguageFiles,
+                        GitHubConfiguration.FetchMode.parse(fetchMode), maxTokens, OutputFormat.parse(format),
+                        minify, dedupe);
+                contentGeneratorService.validateRequest(request);
+                shardLimits = ShardWriter.Limits.of(shardBytes, shardTokens);
+                if (shardLimits != null && request.format() != OutputFormat.TEXT) {
+                    throw new IllegalArgumentException("Sharded output is only available in the text format");
+                }
+            } catch (IllegalArgumentException e) {
+                return badRequest(e.getMessage());
+            }
+
+            GenerationRequest resolved;
+            GenerationCache.Key cacheKey;
+            try {
+                resolved = contentGeneratorService.resolveLanguage(request);
+                cacheKey = contentGeneratorService.resolveCacheKey(resolved);
+            } catch (HttpClientErrorException.NotFound e) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .header("Content-Type", "text/plain; charset=UTF-8")
+                        .body(out -> out.write(("Repository not found: " + url).getBytes(StandardCharsets.UTF_8)));
+            } catch (IllegalArgumentException e) {
+                return badRequest(e.getMessage());
+            }
+            if (shardLimits != null) {
+                return shards(resolved, cacheKey, shardLimits, ifNoneMatch);
+            }
+
+            Compression compression = Compression.negotiate(acceptEncoding);
+            String etag = compression.etag(cacheKey != null ? cacheKey.etag() : null);
+            if (etag != null && matchesEtag(ifNoneMatch, etag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                        .eTag(etag)
+                        .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                        .build();
+            }
+
+            StreamingResponseBody body = out -> {
+                try (OutputStream encoded = compression.compress(out)) {
+                    contentGeneratorService.generateContent(resolved, cacheKey, new GenerationProgress(), encoded);
+                } catch (IOException | RuntimeException e) {
+                    log.error("Error generating content", e);
+                    throw e;
+                }
+            };
+
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                    .eTag(etag)
+                    .header("Content-Disposition", "attachment; filename=" + contentGeneratorService.getOutputFilename(resolved))
+                    .header("Content-Type", resolved.format().contentType())
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            if (compression != Compression.NONE) {
+                response.header(HttpHeaders.CONTENT_ENCODING, compression.encoding());
+            }
+            return response.body(body);
         } catch (Exception e) {
             log.error("Error generating content", e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
+
+    /**
+     * Streams the document as a ZIP archive of shards with an index. The archive is already
+     * compressed, so it is never sent with a content coding.
+     */
+    private ResponseEntity<StreamingResponseBody> shards(GenerationRequest request, GenerationCache.Key cacheKey,
+                                                         ShardWriter.Limits limits, String ifNoneMatch) {
+        String etag = limits.etag(cacheKey != null ? cacheKey.etag() : null);
+        if (etag != null && matchesEtag(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+
+        StreamingResponseBody body = out -> {
+            try {
+                contentGeneratorService.generateShards(request, cacheKey, new GenerationProgress(), limits, out);
+            } catch (IOException | RuntimeException e) {
+                log.error("Error generating content", e);
+                throw e;
+            }
+        };
+
+        String filename = contentGeneratorService.getOutputFilename(request);
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .header("Content-Disposition", "attachment; filename=" + filename.substring(0, filename.lastIndexOf('.'))
+                        + "-shards.zip")
+                .header("Content-Type", "application/zip")
+                .body(body);
+    }
+
+    /**
+     * Checks an If-None-Match header against the entity tag of the requested document.
+     */
+    private static boolean matchesEtag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ResponseEntity<StreamingResponseBody> badRequest(String message) {
+        return ResponseEntity.badRequest()
+                .header("Content-Type", "text/plain; charset=UTF-8")
+                .body(out -> out.write(message.getBytes(StandardCharsets.UTF_8)));
+    }
 }
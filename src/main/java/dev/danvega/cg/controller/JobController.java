@@ -0,0 +1,120 @@
+package dev.danvega.cg.controller;
+
+import dev.danvega.cg.config.GitHubConfiguration;
+import dev.danvega.cg.model.GenerationRequest;
+import dev.danvega.cg.model.OutputFormat;
+import dev.danvega.cg.service.GenerationJob;
+import dev.danvega.cg.service.GenerationJobService;
+import dev.danvega.cg.util.Compression;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Background generation jobs for repositories too large to generate within one request.
+ * A job is submitted with the same parameters as {@code /api/content/generate}, polled for
+ * progress, and its document downloaded once it has completed. The document is sent gzip
+ * encoded when the client accepts it; a result file already stored in the negotiated encoding
+ * is sent as it is.
+ */
+@RestController
+@RequestMapping("/api/jobs")
+@RequiredArgsConstructor
+public class JobController {
+    private final GenerationJobService jobService;
+
+    @PostMapping
+    public ResponseEntity<?> submitJob(
+            @RequestParam(required = false) String url,
+            @RequestParam(required = false) String localPath,
+            @RequestParam(required = false, defaultValue = "java") String type,
+            @RequestParam(required = false, defaultValue = "false") boolean onlyLanguageFiles,
+            @RequestParam(required = false) String fetchMode,
+            @RequestParam(required = false) Long maxTokens,
+            @RequestParam(required = false) String format,
+            @RequestParam(required = false, defaultValue = "false") boolean minify,
+            @RequestParam(required = false, defaultValue = "false") boolean dedupe) {
+
+        GenerationJob job;
+        try {
+            job = jobService.submit(new GenerationRequest(url, localPath, type, onlyLanguageFiles,
+                    GitHubConfiguration.FetchMode.parse(fetchMode), maxTokens, OutputFormat.parse(format), minify,
+                    dedupe));
+        } catch (IllegalArgumentException e) {
+            return message(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (RejectedExecutionException e) {
+            return message(HttpStatus.SERVICE_UNAVAILABLE, "Too many jobs are queued, try again later");
+        }
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/jobs/" + job.getId()))
+                .body(job.snapshot());
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<GenerationJob.Snapshot> getJob(@PathVariable String id) {
+        return ResponseEntity.of(jobService.getJob(id).map(GenerationJob::snapshot));
+    }
+
+    @GetMapping("/{id}/result")
+    public ResponseEntity<StreamingResponseBody> getResult(
+            @PathVariable String id,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding)
+            throws IOException {
+        Optional<GenerationJob> job = jobService.getJob(id);
+        if (job.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (job.get().getState() != GenerationJob.State.COMPLETED) {
+            String message = "Job is " + job.get().getState().name().toLowerCase(Locale.ROOT);
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .header("Content-Type", "text/plain; charset=UTF-8")
+                    .body(out -> out.write(message.getBytes(StandardCharsets.UTF_8)));
+        }
+        Path resultFile = job.get().getResultFile();
+        Compression stored = Compression.of(resultFile);
+        Compression compression = Compression.negotiate(acceptEncoding);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .header("Content-Disposition", "attachment; filename=" + job.get().getFilename())
+                .header("Content-Type", job.get().getRequest().format().contentType())
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (compression != Compression.NONE) {
+            response.header(HttpHeaders.CONTENT_ENCODING, compression.encoding());
+        }
+        if (compression == stored) {
+            return response.contentLength(Files.size(resultFile)).body(out -> Files.copy(resultFile, out));
+        }
+        StreamingResponseBody body = out -> {
+            try (InputStream in = stored.decompress(Files.newInputStream(resultFile));
+                 OutputStream encoded = compression.compress(out)) {
+                in.transferTo(encoded);
+            }
+        };
+        return response.body(body);
+    }
+
+    private ResponseEntity<String> message(HttpStatus status, String message) {
+        return ResponseEntity.status(status)
+                .header("Content-Type", "text/plain; charset=UTF-8")
+                .body(message);
+    }
+}
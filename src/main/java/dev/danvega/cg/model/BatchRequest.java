@@ -0,0 +1,49 @@
+package dev.danvega.cg.model;
+
+import dev.danvega.cg.config.GitHubConfiguration;
+
+import java.util.List;
+
+/**
+ * A batch of document generations submitted together, one per repository or local directory.
+ *
+ * @param repositories The repositories to generate documents for, in output order
+ */
+public record BatchRequest(List<Repository> repositories) {
+
+    /**
+     * One entry of a batch, with the same parameters as a single generation request.
+     *
+     * @param url The GitHub repository URL, or null when processing a local path
+     * @param localPath The local directory path, or null when processing a GitHub repository
+     * @param type The language processor to use, or null for java
+     * @param onlyLanguageFiles Whether to include only source files of the language, or null for false
+     * @param fetchMode The GitHub fetch strategy, or null for the configured default
+     * @param maxTokens The maximum estimated number of tokens in the document, or null for no limit
+     * @param minify Whether source files are minified, or null for false
+     * @param dedupe Whether duplicate files are written as references, or null for false
+     */
+    public record Repository(
+            String url,
+            String localPath,
+            String type,
+            Boolean onlyLanguageFiles,
+            String fetchMode,
+            Long maxTokens,
+            Boolean minify,
+            Boolean dedupe) {
+
+        /**
+         * Converts the entry to the request generating its document. Batch documents are always
+         * written in the text format, which the combined output of a batch is made of.
+         *
+         * @return The generation request
+         * @throws IllegalArgumentException If the fetch mode is not supported
+         */
+        public GenerationRequest toGenerationRequest() {
+            return new GenerationRequest(url, localPath, type != null ? type : "java",
+                    Boolean.TRUE.equals(onlyLanguageFiles), GitHubConfiguration.FetchMode.parse(fetchMode), maxTokens,
+                    OutputFormat.TEXT, Boolean.TRUE.equals(minify), Boolean.TRUE.equals(dedupe));
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package dev.danvega.cg.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import dev.danvega.cg.config.GitHubConfiguration;
+
+/**
+ * The parameters of a document generation. Two requests are equal when they would
+ * generate the same document.
+ *
+ * @param url The GitHub repository URL, or null when processing a local path
+ * @param localPath The local directory path, or null when processing a GitHub repository
+ * @param type The language processor to use, several joined with {@code +}, or {@code auto} to detect them
+ * @param onlyLanguageFiles Whether to include only source files of the language
+ * @param fetchMode The GitHub fetch strategy, or null for the configured default
+ * @param maxTokens The maximum estimated number of tokens in the document, or null for no limit
+ * @param format The layout of the document, the text format if null
+ * @param minify Whether source files are minified, without comments and redundant whitespace
+ * @param dedupe Whether files with the same content as an earlier file are written as a reference to it
+ */
+public record GenerationRequest(
+        String url,
+        String localPath,
+        String type,
+        boolean onlyLanguageFiles,
+        GitHubConfiguration.FetchMode fetchMode,
+        Long maxTokens,
+        OutputFormat format,
+        boolean minify,
+        boolean dedupe) {
+
+    public GenerationRequest {
+        if (format == null) {
+            format = OutputFormat.TEXT;
+        }
+    }
+
+    /**
+     * Returns whether the request is for a GitHub repository rather than a local directory.
+     *
+     * @return true if a GitHub URL was given
+     */
+    @JsonIgnore
+    public boolean isGitHub() {
+        return url != null && !url.isBlank();
+    }
+
+    /**
+     * Returns a copy of this request using another language type.
+     *
+     * @param languageType The language type to use
+     * @return the request with the given type
+     */
+    public GenerationRequest withType(String languageType) {
+        return new GenerationRequest(url, localPath, languageType, onlyLanguageFiles, fetchMode, maxTokens, format,
+                minify, dedupe);
+    }
+}
@@ -0,0 +1,10 @@
+package dev.danvega.cg.model;
+
+import java.util.List;
+
+public record GitHubTree(
+        String sha,
+        String url,
+        List<GitHubTreeEntry> tree,
+        boolean truncated) {
+}
@@ -0,0 +1,10 @@
+package dev.danvega.cg.model;
+
+public record GitHubTreeEntry(
+        String path,
+        String mode,
+        String type,
+        String sha,
+        Long size,
+        String url) {
+}
@@ -0,0 +1,71 @@
+package dev.danvega.cg.model;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * The layout of a generated document. Besides the plain text layout, documents can be written
+ * as structured entries carrying the path, size, git blob SHA and language of every file next
+ * to its content, so that consumers can read them incrementally without parsing file headers.
+ */
+public enum OutputFormat {
+    /**
+     * Each file as a {@code File: path} header followed by its content.
+     */
+    TEXT(null, "text/plain; charset=UTF-8"),
+    /**
+     * One JSON object per line and file, with the content as the last member.
+     */
+    JSONL("jsonl", "application/x-ndjson"),
+    /**
+     * An XML document with one {@code file} element per file, the metadata as attributes and
+     * the content as escaped text.
+     */
+    XML("xml", "application/xml; charset=UTF-8");
+
+    private final String extension;
+    private final String contentType;
+
+    OutputFormat(String extension, String contentType) {
+        this.extension = extension;
+        this.contentType = contentType;
+    }
+
+    /**
+     * Returns the extension of files written in the format.
+     *
+     * @return the file name extension without the dot, or null for the language processor's own extension
+     */
+    public String extension() {
+        return extension;
+    }
+
+    /**
+     * Returns the media type of documents written in the format.
+     *
+     * @return the {@code Content-Type} header value
+     */
+    public String contentType() {
+        return contentType;
+    }
+
+    /**
+     * Parses a format name case-insensitively.
+     *
+     * @param value The format name, or null or blank for the text format
+     * @return the format
+     * @throws IllegalArgumentException If the name is not a supported format
+     */
+    public static OutputFormat parse(String value) {
+        if (value == null || value.isBlank()) {
+            return TEXT;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unsupported format: " + value + ". Supported formats: "
+                    + Arrays.stream(values()).map(f -> f.name().toLowerCase(Locale.ROOT)).collect(Collectors.joining(", ")));
+        }
+    }
+}
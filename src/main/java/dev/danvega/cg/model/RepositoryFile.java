@@ -0,0 +1,12 @@
+package dev.danvega.cg.model;
+
+/**
+ * A file selected for the generated document.
+ *
+ * @param path The path of the file relative to the repository root
+ * @param content The text content of the file
+ * @param sha The git blob SHA of the file, or null if the fetch did not report it
+ * @param size The size the file was selected with, as listed, or 0 for a duplicate selected without content
+ */
+public record RepositoryFile(String path, String content, String sha, long size) {
+}
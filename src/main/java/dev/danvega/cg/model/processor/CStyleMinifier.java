@@ -0,0 +1,314 @@
+package dev.danvega.cg.model.processor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Minifier for languages with C-style comments, {@code //} to the end of the line and
+ * {@code /* ... *}{@code /} blocks, double quoted strings, single quoted character literals and
+ * triple quoted multi-line strings. Java and Kotlin differ only in the details: Kotlin block
+ * comments nest, Kotlin raw strings have no escapes and end at the last of a run of quotes, and
+ * Kotlin strings hold {@code ${...}} templates, whose expressions are lexed as code, strings of
+ * their own included, up to the brace closing the template.
+ * <p>
+ * Comments, license headers included, are removed, so is indentation, since neither language
+ * depends on it. Line breaks between code are kept, as Kotlin statements may end at them.
+ */
+final class CStyleMinifier extends SourceMinifier {
+    private enum State {
+        CODE, SLASH, LINE_COMMENT, BLOCK_COMMENT, BLOCK_STAR, BLOCK_SLASH,
+        QUOTE, EMPTY_STRING, STRING, STRING_ESCAPE, STRING_DOLLAR, CHARACTER, CHARACTER_ESCAPE, TEXT_BLOCK,
+        TEXT_BLOCK_ESCAPE, TEXT_BLOCK_DOLLAR
+    }
+
+    private final boolean nestedComments;
+    private final boolean rawStrings;
+    private final boolean templates;
+    private State state = State.CODE;
+    private int commentDepth;
+    private boolean multilineComment;
+    private int quotes;
+    /** The open braces of each template being lexed, innermost last, and the string each returns to. */
+    private int[] templateBraces = new int[8];
+    private State[] templateStrings = new State[8];
+    private int templateDepth;
+
+    private CStyleMinifier(OutputStream out, boolean nestedComments, boolean rawStrings, boolean templates) {
+        super(out, false);
+        this.nestedComments = nestedComments;
+        this.rawStrings = rawStrings;
+        this.templates = templates;
+    }
+
+    /**
+     * Creates a minifier for Java source.
+     *
+     * @param out The stream receiving the minified source
+     * @return the minifier
+     */
+    static CStyleMinifier java(OutputStream out) {
+        return new CStyleMinifier(out, false, false, false);
+    }
+
+    /**
+     * Creates a minifier for Kotlin source.
+     *
+     * @param out The stream receiving the minified source
+     * @return the minifier
+     */
+    static CStyleMinifier kotlin(OutputStream out) {
+        return new CStyleMinifier(out, true, true, true);
+    }
+
+    @Override
+    protected int scan(byte[] bytes, int offset, int end) throws IOException {
+        int i = offset;
+        switch (state) {
+            case CODE -> {
+                int spaces = whitespace(bytes, offset, end);
+                if (spaces > 0) {
+                    return spaces;
+                }
+                while (i < end && !isSpecial(bytes[i])) {
+                    i++;
+                }
+                code(bytes, offset, i - offset);
+            }
+            case STRING -> {
+                while (i < end && bytes[i] != '"' && bytes[i] != '\\' && bytes[i] != '\n'
+                        && (bytes[i] != '$' || !templates)) {
+                    i++;
+                }
+                code(bytes, offset, i - offset);
+            }
+            case CHARACTER -> {
+                while (i < end && bytes[i] != '\'' && bytes[i] != '\\' && bytes[i] != '\n') {
+                    i++;
+                }
+                code(bytes, offset, i - offset);
+            }
+            case TEXT_BLOCK -> {
+                if (quotes == 0) {
+                    while (i < end && bytes[i] != '"' && bytes[i] != '\\' && (bytes[i] != '$' || !templates)) {
+                        i++;
+                    }
+                    code(bytes, offset, i - offset);
+                }
+            }
+            case LINE_COMMENT -> {
+                while (i < end && bytes[i] != '\n') {
+                    i++;
+                }
+            }
+            case BLOCK_COMMENT -> {
+                while (i < end && bytes[i] != '*' && bytes[i] != '/' && bytes[i] != '\n') {
+                    i++;
+                }
+            }
+            default -> {
+            }
+        }
+        return i - offset;
+    }
+
+    private boolean isSpecial(byte b) {
+        return b == '/' || b == '"' || b == '\'' || isWhitespace(b) || (templateDepth > 0 && (b == '{' || b == '}'));
+    }
+
+    @Override
+    protected void process(int b) throws IOException {
+        switch (state) {
+            case CODE -> {
+                if (b == '/') {
+                    state = State.SLASH;
+                } else if (b == '"') {
+                    code(b);
+                    state = State.QUOTE;
+                } else if (b == '\'') {
+                    code(b);
+                    state = State.CHARACTER;
+                } else if (isWhitespace(b)) {
+                    whitespace(b);
+                } else if (templateDepth > 0 && (b == '{' || b == '}')) {
+                    processTemplateBrace(b);
+                } else {
+                    code(b);
+                }
+            }
+            case SLASH -> {
+                if (b == '/') {
+                    state = State.LINE_COMMENT;
+                } else if (b == '*') {
+                    state = State.BLOCK_COMMENT;
+                    commentDepth = 1;
+                    multilineComment = false;
+                } else {
+                    code('/');
+                    state = State.CODE;
+                    process(b);
+                }
+            }
+            case LINE_COMMENT -> {
+                if (b == '\n') {
+                    whitespace(b);
+                    state = State.CODE;
+                }
+            }
+            case BLOCK_COMMENT, BLOCK_STAR, BLOCK_SLASH -> processBlockComment(b);
+            case QUOTE -> {
+                if (b == '"') {
+                    code(b);
+                    state = State.EMPTY_STRING;
+                } else {
+                    state = State.STRING;
+                    process(b);
+                }
+            }
+            case EMPTY_STRING -> {
+                if (b == '"') {
+                    code(b);
+                    state = State.TEXT_BLOCK;
+                    quotes = 0;
+                } else {
+                    state = State.CODE;
+                    process(b);
+                }
+            }
+            case STRING -> {
+                if (b == '\n') {
+                    state = State.CODE;
+                    process(b);
+                    return;
+                }
+                code(b);
+                if (b == '\\') {
+                    state = State.STRING_ESCAPE;
+                } else if (b == '"') {
+                    state = State.CODE;
+                } else if (b == '$' && templates) {
+                    state = State.STRING_DOLLAR;
+                }
+            }
+            case STRING_ESCAPE -> {
+                code(b);
+                state = State.STRING;
+            }
+            case STRING_DOLLAR, TEXT_BLOCK_DOLLAR -> {
+                State string = state == State.STRING_DOLLAR ? State.STRING : State.TEXT_BLOCK;
+                if (b == '{') {
+                    code(b);
+                    openTemplate(string);
+                } else {
+                    state = string;
+                    process(b);
+                }
+            }
+            case CHARACTER -> {
+                if (b == '\n') {
+                    state = State.CODE;
+                    process(b);
+                    return;
+                }
+                code(b);
+                if (b == '\\') {
+                    state = State.CHARACTER_ESCAPE;
+                } else if (b == '\'') {
+                    state = State.CODE;
+                }
+            }
+            case CHARACTER_ESCAPE -> {
+                code(b);
+                state = State.CHARACTER;
+            }
+            case TEXT_BLOCK -> processTextBlock(b);
+            case TEXT_BLOCK_ESCAPE -> {
+                code(b);
+                state = State.TEXT_BLOCK;
+            }
+        }
+    }
+
+    private void processBlockComment(int b) {
+        if (b == '\n') {
+            multilineComment = true;
+        }
+        if (state == State.BLOCK_STAR && b == '/') {
+            commentDepth--;
+            state = State.BLOCK_COMMENT;
+            if (commentDepth == 0) {
+                separator(multilineComment);
+                state = State.CODE;
+            }
+        } else if (state == State.BLOCK_SLASH && b == '*' && nestedComments) {
+            commentDepth++;
+            state = State.BLOCK_COMMENT;
+        } else {
+            state = b == '*' ? State.BLOCK_STAR : b == '/' ? State.BLOCK_SLASH : State.BLOCK_COMMENT;
+        }
+    }
+
+    /**
+     * A Java text block ends at the first three unescaped quotes; a Kotlin raw string ends at the
+     * last three of a run, so the run is only known to be over at the next byte.
+     */
+    private void processTextBlock(int b) throws IOException {
+        if (rawStrings && quotes >= 3 && b != '"') {
+            state = State.CODE;
+            process(b);
+            return;
+        }
+        code(b);
+        if (b == '"') {
+            quotes++;
+            if (!rawStrings && quotes == 3) {
+                state = State.CODE;
+            }
+        } else {
+            quotes = 0;
+            if (b == '\\' && !rawStrings) {
+                state = State.TEXT_BLOCK_ESCAPE;
+            } else if (b == '$' && templates) {
+                state = State.TEXT_BLOCK_DOLLAR;
+            }
+        }
+    }
+
+    /**
+     * Starts lexing the expression of a template as code, remembering the string it returns to.
+     */
+    private void openTemplate(State string) {
+        if (templateDepth == templateBraces.length) {
+            templateBraces = Arrays.copyOf(templateBraces, templateDepth * 2);
+            templateStrings = Arrays.copyOf(templateStrings, templateDepth * 2);
+        }
+        templateBraces[templateDepth] = 0;
+        templateStrings[templateDepth] = string;
+        templateDepth++;
+        state = State.CODE;
+    }
+
+    /**
+     * Counts the braces in the expression of a template, returning to the string at the brace closing
+     * the template.
+     */
+    private void processTemplateBrace(int b) throws IOException {
+        code(b);
+        if (b == '{') {
+            templateBraces[templateDepth - 1]++;
+        } else if (templateBraces[templateDepth - 1] > 0) {
+            templateBraces[templateDepth - 1]--;
+        } else {
+            templateDepth--;
+            state = templateStrings[templateDepth];
+            quotes = 0;
+        }
+    }
+
+    @Override
+    protected void end() throws IOException {
+        if (state == State.SLASH) {
+            code('/');
+        }
+    }
+}
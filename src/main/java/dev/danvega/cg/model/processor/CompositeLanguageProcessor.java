@@ -0,0 +1,76 @@
+package dev.danvega.cg.model.processor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Processor for polyglot repositories that merges several language processors. A file is
+ * included when any of the languages includes it, and the excludes of all languages apply,
+ * so build output and tooling directories of every language are left out.
+ */
+final class CompositeLanguageProcessor implements LanguageProcessor {
+    private final List<LanguageProcessor> processors;
+    private final String languageType;
+    private final List<String> includePatterns;
+    private final List<String> excludePatterns;
+    private final List<String> languageExtensionPatterns;
+
+    /**
+     * Creates a processor merging the given processors.
+     *
+     * @param processors The processors to merge, at least two
+     */
+    CompositeLanguageProcessor(List<LanguageProcessor> processors) {
+        this.processors = List.copyOf(processors);
+        this.languageType = processors.stream()
+                .map(LanguageProcessor::getLanguageType)
+                .collect(Collectors.joining(LanguageProcessorRegistry.TYPE_SEPARATOR));
+        this.includePatterns = merge(processors.stream().map(LanguageProcessor::getIncludePatterns).toList());
+        this.excludePatterns = merge(processors.stream().map(LanguageProcessor::getExcludePatterns).toList());
+        this.languageExtensionPatterns = merge(processors.stream().map(LanguageProcessor::getLanguageExtensionPatterns).toList());
+    }
+
+    private static List<String> merge(List<List<String>> patternLists) {
+        Set<String> merged = new LinkedHashSet<>();
+        patternLists.forEach(merged::addAll);
+        return List.copyOf(merged);
+    }
+
+    @Override
+    public String getLanguageType() {
+        return languageType;
+    }
+
+    /**
+     * Returns the extension pattern of the first merged language.
+     *
+     * @return the first language's file extension pattern
+     */
+    @Override
+    public String getLanguageExtensionPattern() {
+        return processors.getFirst().getLanguageExtensionPattern();
+    }
+
+    @Override
+    public List<String> getLanguageExtensionPatterns() {
+        return languageExtensionPatterns;
+    }
+
+    @Override
+    public List<String> getIncludePatterns() {
+        return new ArrayList<>(includePatterns);
+    }
+
+    @Override
+    public List<String> getExcludePatterns() {
+        return new ArrayList<>(excludePatterns);
+    }
+
+    @Override
+    public String getOutputExtension() {
+        return "txt";
+    }
+}
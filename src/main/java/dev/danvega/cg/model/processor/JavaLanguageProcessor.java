@@ -2,6 +2,7 @@ package dev.danvega.cg.model.processor;
 
 import org.springframework.stereotype.Component;
 
+import java.io.OutputStream;
 import java.util.List;
 
 @Component
@@ -41,4 +42,9 @@ public class JavaLanguageProcessor extends AbstractLanguageProcessor {
                 "gradlew.bat"
         );
     }
-}
\ No newline at end of file
+
+    @Override
+    public OutputStream minify(OutputStream out) {
+        return CStyleMinifier.java(out);
+    }
+}
@@ -2,6 +2,7 @@ package dev.danvega.cg.model.processor;
 
 import org.springframework.stereotype.Component;
 
+import java.io.OutputStream;
 import java.util.List;
 
 @Component
@@ -37,4 +38,9 @@ public class KotlinLanguageProcessor extends AbstractLanguageProcessor {
                 "gradlew.bat"
         );
     }
-}
\ No newline at end of file
+
+    @Override
+    public OutputStream minify(OutputStream out) {
+        return CStyleMinifier.kotlin(out);
+    }
+}
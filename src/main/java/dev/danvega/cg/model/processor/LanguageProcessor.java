@@ -1,5 +1,6 @@
 package dev.danvega.cg.model.processor;
 
+import java.io.OutputStream;
 import java.util.List;
 
 /**
@@ -21,6 +22,16 @@ public interface LanguageProcessor {
      */
     String getLanguageExtensionPattern();
 
+    /**
+     * Returns the file extension patterns of all languages this processor handles.
+     * Processors merging several languages return one pattern per language.
+     *
+     * @return the file extension patterns
+     */
+    default List<String> getLanguageExtensionPatterns() {
+        return List.of(getLanguageExtensionPattern());
+    }
+
     /**
      * Returns the list of file patterns to include in processing.
      *
@@ -41,4 +52,17 @@ public interface LanguageProcessor {
      * @return the output file extension
      */
     String getOutputExtension();
+
+    /**
+     * Wraps a stream so that the source of a file in this language written to it reaches the given
+     * stream minified, without comments, blank lines and redundant whitespace. A new stream is
+     * wrapped for every file, the source may be written in chunks of any size, and closing the
+     * returned stream writes what is still pending and closes the given stream.
+     *
+     * @param out the stream receiving the minified source
+     * @return the minifying stream, or the given stream if the language is not minified
+     */
+    default OutputStream minify(OutputStream out) {
+        return out;
+    }
 }
\ No newline at end of file
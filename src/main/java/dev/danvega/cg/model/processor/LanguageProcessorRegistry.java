@@ -1,21 +1,47 @@
 package dev.danvega.cg.model.processor;
 
+import dev.danvega.cg.util.PathUtils;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
 /**
  * Registry for language processors, providing methods to access processors
  * by language type.
+ * <p>
+ * Several types joined with {@code +}, such as {@code java+python}, name a processor merging
+ * those languages. A comma or whitespace also separates types, since an unescaped {@code +} in a
+ * query string arrives as a space. The type {@code auto} asks for the languages to be detected from a
+ * histogram of the file extensions in the repository, see {@link #detectLanguageType(Map)}.
  */
 @Component
 public class LanguageProcessorRegistry {
+    /**
+     * The language type requesting detection of the languages of a repository.
+     */
+    public static final String AUTO_TYPE = "auto";
+
+    static final String TYPE_SEPARATOR = "+";
+    private static final Pattern TYPE_SEPARATORS = Pattern.compile("[+,\\s]+");
+
+    /**
+     * The share of a language's source files among all recognised source files above which
+     * the language is included in a detected type.
+     */
+    private static final double MIN_LANGUAGE_SHARE = 0.1;
 
     private final Map<String, LanguageProcessor> processors;
+    private final Map<String, LanguageProcessor> processorsByExtension;
+    private final Map<String, LanguageProcessor> compositeProcessors = new ConcurrentHashMap<>();
 
     /**
      * Creates a new registry from the provided list of language processors.
@@ -24,17 +50,37 @@ public class LanguageProcessorRegistry {
      */
     public LanguageProcessorRegistry(List<LanguageProcessor> languageProcessors) {
         Map<String, LanguageProcessor> processorMap = new HashMap<>();
+        Map<String, LanguageProcessor> extensionMap = new HashMap<>();
 
         for (LanguageProcessor processor : languageProcessors) {
             String languageType = processor.getLanguageType().toLowerCase();
             processorMap.put(languageType, processor);
+            String pattern = processor.getLanguageExtensionPattern();
+            int extensionStart = pattern.lastIndexOf("*.");
+            if (extensionStart >= 0) {
+                extensionMap.put(pattern.substring(extensionStart + 2).toLowerCase(Locale.ROOT), processor);
+            }
         }
 
         this.processors = Collections.unmodifiableMap(processorMap);
+        this.processorsByExtension = Collections.unmodifiableMap(extensionMap);
+    }
+
+    /**
+     * Splits a language type into the lower-case types of its languages.
+     *
+     * @param type the language type, several joined with {@code +}, a comma or whitespace
+     * @return the language types, a single one for a type naming one language
+     */
+    public static List<String> splitType(String type) {
+        return TYPE_SEPARATORS.splitAsStream(type.trim().toLowerCase(Locale.ROOT))
+                .filter(part -> !part.isEmpty())
+                .toList();
     }
 
     /**
-     * Gets a processor for the specified language type.
+     * Gets a processor for the specified language type. Types joined with {@code +}, a comma
+     * or whitespace return a processor merging the named languages.
      *
      * @param type the language type
      * @return an Optional containing the language processor, or empty if not found
@@ -43,7 +89,98 @@ public class LanguageProcessorRegistry {
         if (type == null || type.isBlank()) {
             return Optional.empty();
         }
-        return Optional.ofNullable(processors.get(type.toLowerCase()));
+        List<String> languageTypes = splitType(type);
+        if (languageTypes.size() == 1) {
+            return Optional.ofNullable(processors.get(languageTypes.getFirst()));
+        }
+        List<LanguageProcessor> merged = new ArrayList<>();
+        for (String part : languageTypes) {
+            LanguageProcessor processor = processors.get(part);
+            if (processor == null) {
+                return Optional.empty();
+            }
+            if (!merged.contains(processor)) {
+                merged.add(processor);
+            }
+        }
+        if (merged.size() == 1) {
+            return Optional.of(merged.getFirst());
+        }
+        return Optional.of(compositeProcessors.computeIfAbsent(String.join(TYPE_SEPARATOR, languageTypes),
+                t -> new CompositeLanguageProcessor(merged)));
+    }
+
+    /**
+     * Gets all registered processors, ordered by language type.
+     *
+     * @return the registered processors
+     */
+    public List<LanguageProcessor> getProcessors() {
+        return getSupportedLanguages().stream().map(processors::get).toList();
+    }
+
+    /**
+     * Checks whether a language type asks for the languages to be detected.
+     *
+     * @param type the language type
+     * @return true for {@code auto}
+     */
+    public boolean isAuto(String type) {
+        return type != null && AUTO_TYPE.equalsIgnoreCase(type.trim());
+    }
+
+    /**
+     * Chooses the language type for a repository from the number of files per extension.
+     * Every language whose source files make up at least a tenth of the recognised source
+     * files is selected; a single language yields its own type, several yield a merged type
+     * such as {@code java+python}.
+     *
+     * @param extensionCounts the number of files per lower-case extension, without the dot
+     * @return the detected language type
+     * @throws IllegalArgumentException if no source files of a supported language were found
+     */
+    public String detectLanguageType(Map<String, Long> extensionCounts) {
+        Map<LanguageProcessor, Long> counts = new HashMap<>();
+        long total = 0;
+        for (Map.Entry<String, Long> entry : extensionCounts.entrySet()) {
+            LanguageProcessor processor = processorsByExtension.get(entry.getKey());
+            if (processor != null) {
+                counts.merge(processor, entry.getValue(), Long::sum);
+                total += entry.getValue();
+            }
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("Could not detect the language: no source files of a supported type ("
+                    + String.join(", ", getSupportedLanguages()) + ") were found");
+        }
+
+        long threshold = (long) Math.ceil(total * MIN_LANGUAGE_SHARE);
+        return String.join(TYPE_SEPARATOR, counts.entrySet().stream()
+                .filter(entry -> entry.getValue() >= threshold)
+                .map(entry -> entry.getKey().getLanguageType().toLowerCase())
+                .sorted(Comparator.naturalOrder())
+                .toList());
+    }
+
+    /**
+     * Determines the language of a single file from its extension.
+     *
+     * @param path the path of the file
+     * @return the language type whose source files have the file's extension, or null if none has
+     */
+    public String getLanguage(String path) {
+        return getProcessorForFile(path).map(processor -> processor.getLanguageType().toLowerCase()).orElse(null);
+    }
+
+    /**
+     * Gets the processor of the language a single file is written in, from its extension.
+     *
+     * @param path the path of the file
+     * @return an Optional containing the processor whose source files have the file's extension,
+     *         or empty if none has
+     */
+    public Optional<LanguageProcessor> getProcessorForFile(String path) {
+        return Optional.ofNullable(processorsByExtension.get(PathUtils.getExtension(path)));
     }
 
     /**
@@ -2,6 +2,7 @@ package dev.danvega.cg.model.processor;
 
 import org.springframework.stereotype.Component;
 
+import java.io.OutputStream;
 import java.util.List;
 
 @Component
@@ -35,4 +36,9 @@ public class PythonLanguageProcessor extends AbstractLanguageProcessor {
                 "**/tests/**"
         );
     }
-}
\ No newline at end of file
+
+    @Override
+    public OutputStream minify(OutputStream out) {
+        return new PythonMinifier(out);
+    }
+}
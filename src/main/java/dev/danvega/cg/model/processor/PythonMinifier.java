@@ -0,0 +1,147 @@
+package dev.danvega.cg.model.processor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Minifier for Python source. {@code #} comments, license headers included, are removed along with
+ * the lines they leave empty, while the indentation of every line with code is kept, as it
+ * delimits blocks. Strings in single, double and triple quotes, with or without prefixes, are
+ * copied unchanged; docstrings are strings too and are kept, since a body may consist of nothing
+ * else.
+ */
+final class PythonMinifier extends SourceMinifier {
+    private enum State {
+        CODE, COMMENT, QUOTE, EMPTY_STRING, STRING, STRING_ESCAPE, TRIPLE_STRING, TRIPLE_STRING_ESCAPE
+    }
+
+    private State state = State.CODE;
+    private int quote;
+    private int quotes;
+
+    /**
+     * Creates a minifier for Python source.
+     *
+     * @param out The stream receiving the minified source
+     */
+    PythonMinifier(OutputStream out) {
+        super(out, true);
+    }
+
+    @Override
+    protected int scan(byte[] bytes, int offset, int end) throws IOException {
+        int i = offset;
+        switch (state) {
+            case CODE -> {
+                int spaces = whitespace(bytes, offset, end);
+                if (spaces > 0) {
+                    return spaces;
+                }
+                while (i < end && bytes[i] != '#' && bytes[i] != '"' && bytes[i] != '\'' && !isWhitespace(bytes[i])) {
+                    i++;
+                }
+                code(bytes, offset, i - offset);
+            }
+            case COMMENT -> {
+                while (i < end && bytes[i] != '\n') {
+                    i++;
+                }
+            }
+            case STRING -> {
+                while (i < end && bytes[i] != quote && bytes[i] != '\\' && bytes[i] != '\n') {
+                    i++;
+                }
+                code(bytes, offset, i - offset);
+            }
+            case TRIPLE_STRING -> {
+                if (quotes == 0) {
+                    while (i < end && bytes[i] != quote && bytes[i] != '\\') {
+                        i++;
+                    }
+                    code(bytes, offset, i - offset);
+                }
+            }
+            default -> {
+            }
+        }
+        return i - offset;
+    }
+
+    @Override
+    protected void process(int b) throws IOException {
+        switch (state) {
+            case CODE -> {
+                if (b == '#') {
+                    state = State.COMMENT;
+                } else if (b == '"' || b == '\'') {
+                    code(b);
+                    quote = b;
+                    state = State.QUOTE;
+                } else if (isWhitespace(b)) {
+                    whitespace(b);
+                } else {
+                    code(b);
+                }
+            }
+            case COMMENT -> {
+                if (b == '\n') {
+                    whitespace(b);
+                    state = State.CODE;
+                }
+            }
+            case QUOTE -> {
+                if (b == quote) {
+                    code(b);
+                    state = State.EMPTY_STRING;
+                } else {
+                    state = State.STRING;
+                    process(b);
+                }
+            }
+            case EMPTY_STRING -> {
+                if (b == quote) {
+                    code(b);
+                    state = State.TRIPLE_STRING;
+                    quotes = 0;
+                } else {
+                    state = State.CODE;
+                    process(b);
+                }
+            }
+            case STRING -> {
+                if (b == '\n') {
+                    state = State.CODE;
+                    process(b);
+                    return;
+                }
+                code(b);
+                if (b == '\\') {
+                    state = State.STRING_ESCAPE;
+                } else if (b == quote) {
+                    state = State.CODE;
+                }
+            }
+            case STRING_ESCAPE -> {
+                code(b);
+                state = State.STRING;
+            }
+            case TRIPLE_STRING -> {
+                code(b);
+                if (b == quote) {
+                    if (++quotes == 3) {
+                        state = State.CODE;
+                    }
+                } else {
+                    quotes = 0;
+                    if (b == '\\') {
+                        state = State.TRIPLE_STRING_ESCAPE;
+                    }
+                }
+            }
+            case TRIPLE_STRING_ESCAPE -> {
+                code(b);
+                state = State.TRIPLE_STRING;
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package dev.danvega.cg.model.processor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Base of the minifying streams returned by {@link LanguageProcessor#minify}. A subclass is a
+ * lexer that sees the UTF-8 encoded source one byte at a time, so the source can arrive in
+ * chunks of any size, and decides for each byte whether it is code, whitespace or part of a
+ * comment. Runs of bytes that cannot change the lexer's state, such as identifiers or the body
+ * of a comment, are scanned in a tight loop and copied or skipped as a whole. Comments are never
+ * passed on, and this class collapses the whitespace around the code: blank lines and trailing
+ * whitespace are dropped, and every other run of whitespace within a line becomes a single space.
+ * Indentation is dropped too, unless the language needs it.
+ * <p>
+ * Bytes of string literals are passed on as code, so literals are copied unchanged. Nothing is
+ * ever built beyond a small output buffer.
+ */
+abstract class SourceMinifier extends OutputStream {
+    private final OutputStream out;
+    private final boolean keepIndentation;
+    private final byte[] buffer = new byte[8 * 1024];
+    private int buffered;
+    private byte[] indentation = new byte[64];
+    private int indentationLength;
+    private boolean lineHasCode;
+    private boolean pendingSpace;
+    private boolean pendingNewline;
+    private boolean closed;
+
+    /**
+     * Creates a minifier writing to the given stream.
+     *
+     * @param out The stream receiving the minified source
+     * @param keepIndentation Whether the leading whitespace of lines with code is significant
+     */
+    SourceMinifier(OutputStream out, boolean keepIndentation) {
+        this.out = out;
+        this.keepIndentation = keepIndentation;
+    }
+
+    /**
+     * Processes the next byte of the source.
+     *
+     * @param b The byte, from 0 to 255
+     * @throws IOException If output cannot be written
+     */
+    protected abstract void process(int b) throws IOException;
+
+    /**
+     * Consumes the run of bytes at the start of a chunk that cannot change the lexer's state,
+     * passing it on as code or skipping it.
+     *
+     * @param bytes The chunk
+     * @param offset The position of the first byte not processed yet
+     * @param end The end of the chunk
+     * @return the number of bytes consumed, 0 if the next byte has to go through {@link #process(int)}
+     * @throws IOException If output cannot be written
+     */
+    protected abstract int scan(byte[] bytes, int offset, int end) throws IOException;
+
+    /**
+     * Called once the whole source has been processed, to pass on bytes held back by the lexer,
+     * such as a slash that might have started a comment.
+     *
+     * @throws IOException If output cannot be written
+     */
+    protected void end() throws IOException {
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        process(b & 0xFF);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            int scanned = scan(bytes, i, end);
+            if (scanned > 0) {
+                i += scanned;
+            } else {
+                process(bytes[i++] & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * Passes on a byte of code, or of a literal, preceded by the whitespace it needs.
+     *
+     * @param b The byte
+     * @throws IOException If output cannot be written
+     */
+    protected void code(int b) throws IOException {
+        if (!lineHasCode) {
+            if (pendingNewline) {
+                emit('\n');
+                pendingNewline = false;
+            }
+            for (int i = 0; i < indentationLength; i++) {
+                emit(indentation[i]);
+            }
+            indentationLength = 0;
+            lineHasCode = true;
+        } else if (pendingSpace) {
+            emit(' ');
+        }
+        pendingSpace = false;
+        emit(b);
+    }
+
+    /**
+     * Passes on a run of code, or of a literal, preceded by the whitespace it needs.
+     *
+     * @param bytes The buffer holding the run
+     * @param offset The start of the run
+     * @param length The length of the run
+     * @throws IOException If output cannot be written
+     */
+    protected void code(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return;
+        }
+        code(bytes[offset] & 0xFF);
+        int copied = 1;
+        while (copied < length) {
+            if (buffered == buffer.length) {
+                out.write(buffer, 0, buffered);
+                buffered = 0;
+            }
+            int count = Math.min(length - copied, buffer.length - buffered);
+            System.arraycopy(bytes, offset + copied, buffer, buffered, count);
+            buffered += count;
+            copied += count;
+        }
+    }
+
+    /**
+     * Records a byte of whitespace outside of literals and comments.
+     *
+     * @param b The whitespace byte
+     */
+    protected void whitespace(int b) {
+        if (b == '\n') {
+            if (lineHasCode) {
+                pendingNewline = true;
+                lineHasCode = false;
+            }
+            pendingSpace = false;
+            indentationLength = 0;
+        } else if (lineHasCode) {
+            pendingSpace = true;
+        } else if (keepIndentation && b != '\r') {
+            if (indentationLength == indentation.length) {
+                indentation = Arrays.copyOf(indentation, indentationLength * 2);
+            }
+            indentation[indentationLength++] = (byte) b;
+        }
+    }
+
+    /**
+     * Records a run of spaces and tabs outside of literals and comments.
+     *
+     * @param bytes The chunk
+     * @param offset The position of the first byte not processed yet
+     * @param end The end of the chunk
+     * @return the number of spaces and tabs at the offset
+     */
+    protected int whitespace(byte[] bytes, int offset, int end) {
+        int i = offset;
+        while (i < end && (bytes[i] == ' ' || bytes[i] == '\t')) {
+            i++;
+        }
+        if (i == offset) {
+            return 0;
+        }
+        if (lineHasCode) {
+            pendingSpace = true;
+        } else if (keepIndentation) {
+            if (indentationLength + i - offset > indentation.length) {
+                indentation = Arrays.copyOf(indentation,
+                        Math.max(indentationLength + i - offset, indentation.length * 2));
+            }
+            System.arraycopy(bytes, offset, indentation, indentationLength, i - offset);
+            indentationLength += i - offset;
+        }
+        return i - offset;
+    }
+
+    /**
+     * Records that a comment was removed, so that the code around it stays separated.
+     *
+     * @param multiline Whether the comment spanned several lines
+     */
+    protected void separator(boolean multiline) {
+        whitespace(multiline ? '\n' : ' ');
+    }
+
+    /**
+     * Checks whether a byte is whitespace between tokens.
+     *
+     * @param b The byte
+     * @return true for spaces, tabs, line breaks and form feeds
+     */
+    protected static boolean isWhitespace(int b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f' || b == 0x0B;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.write(buffer, 0, buffered);
+        buffered = 0;
+        out.flush();
+    }
+
+    /**
+     * Passes on what the lexer still holds, ends the last line of code with a line break, and
+     * closes the underlying stream.
+     *
+     * @throws IOException If output cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        end();
+        if (lineHasCode || pendingNewline) {
+            emit('\n');
+        }
+        out.write(buffer, 0, buffered);
+        buffered = 0;
+        out.close();
+    }
+
+    private void emit(int b) throws IOException {
+        if (buffered == buffer.length) {
+            out.write(buffer, 0, buffered);
+            buffered = 0;
+        }
+        buffer[buffered++] = (byte) b;
+    }
+}
@@ -0,0 +1,351 @@
+package dev.danvega.cg.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.danvega.cg.model.BatchRequest;
+import dev.danvega.cg.model.GenerationRequest;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates documents for many repositories and local directories in one request.
+ * <p>
+ * Generations from all batches run on one shared scheduler that admits a bounded number of
+ * repositories at a time in submission order, so concurrent batches take turns instead of
+ * one batch starving the others. Within that, the GitHub API calls of every repository go
+ * through the shared {@link GitHubRequestExecutor}, so the repositories in flight share the
+ * connection and rate-limit budget over the single HTTP client of {@link GitHubService}. Each
+ * repository is limited to its share of the request permits, so that a large repository
+ * cannot queue its file downloads ahead of every call of the smaller ones.
+ * <p>
+ * Each document is generated into a temporary file and written to the output in the order
+ * of the batch as soon as it and the documents before it are complete. A repository that
+ * fails is reported in the output without failing the rest of the batch.
+ */
+@Service
+public class BatchGenerationService {
+    private static final Logger log = LoggerFactory.getLogger(BatchGenerationService.class);
+    private static final String MANIFEST_ENTRY = "manifest.json";
+
+    private final ContentGeneratorService contentGeneratorService;
+    private final GitHubRequestExecutor requestExecutor;
+    private final ObjectMapper objectMapper;
+    private final Path batchDirectory;
+    private final int maxConcurrent;
+    private final int maxRepositories;
+    private final Semaphore repositoryPermits;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * How the documents of a batch are returned.
+     */
+    public enum Format {
+        /**
+         * A ZIP archive with one document per repository and a manifest describing them.
+         */
+        ZIP,
+        /**
+         * A single text document combining the documents of all repositories.
+         */
+        TEXT;
+
+        /**
+         * Parses a format name case-insensitively.
+         *
+         * @param value The format name, or null or blank for ZIP
+         * @return The format
+         * @throws IllegalArgumentException If the name is not a supported format
+         */
+        public static Format parse(String value) {
+            if (value == null || value.isBlank()) {
+                return ZIP;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unsupported batch format: " + value + ". Supported formats: "
+                        + Arrays.stream(values()).map(f -> f.name().toLowerCase(Locale.ROOT)).collect(Collectors.joining(", ")));
+            }
+        }
+    }
+
+    /**
+     * Outcome of one repository of a batch, as listed in the archive manifest.
+     *
+     * @param source The GitHub URL or local path of the repository
+     * @param type The language processor used
+     * @param entry The name of the document within the archive, or null if generation failed
+     * @param commitSha The commit the document was generated from, or null for local directories
+     * @param files The number of files in the document
+     * @param bytes The size of the document in bytes
+     * @param error The failure message, or null if the document was generated
+     */
+    public record Result(String source, String type, String entry, String commitSha, long files, long bytes,
+                         String error) {
+    }
+
+    /**
+     * A generated or failed repository, with the temporary file holding its document.
+     */
+    private record Generated(Result result, Path file) {
+    }
+
+    /**
+     * Creates the service and removes temporary documents left over from a previous run.
+     *
+     * @param contentGeneratorService The service generating the documents
+     * @param requestExecutor The executor whose request permits the repositories share
+     * @param objectMapper The mapper writing the archive manifest
+     * @param outputDirectory The output directory the temporary documents are stored under
+     * @param maxConcurrent The maximum number of repositories generated at the same time across all batches
+     * @param maxRepositories The maximum number of repositories in one batch
+     */
+    public BatchGenerationService(ContentGeneratorService contentGeneratorService,
+                                  GitHubRequestExecutor requestExecutor,
+                                  ObjectMapper objectMapper,
+                                  @Value("${app.output.directory}") String outputDirectory,
+                                  @Value("${app.batch.max-concurrent:4}") int maxConcurrent,
+                                  @Value("${app.batch.max-repositories:100}") int maxRepositories) {
+        if (maxConcurrent < 1 || maxRepositories < 1) {
+            throw new IllegalArgumentException("app.batch.max-concurrent and app.batch.max-repositories must be at least 1");
+        }
+        this.contentGeneratorService = contentGeneratorService;
+        this.requestExecutor = requestExecutor;
+        this.objectMapper = objectMapper;
+        this.batchDirectory = Paths.get(outputDirectory, ".batch");
+        this.maxConcurrent = maxConcurrent;
+        this.maxRepositories = maxRepositories;
+        this.repositoryPermits = new Semaphore(maxConcurrent, true);
+        deleteTemporaryFiles();
+    }
+
+    /**
+     * Converts and checks the entries of a batch, so that an invalid batch is rejected
+     * before any output is streamed.
+     *
+     * @param batch The batch request
+     * @return The generation requests of the batch, in order
+     * @throws IllegalArgumentException If the batch is empty, too large, or has an invalid entry
+     */
+    public List<GenerationRequest> validateBatch(BatchRequest batch) {
+        if (batch == null || batch.repositories() == null || batch.repositories().isEmpty()) {
+            throw new IllegalArgumentException("At least one repository must be provided");
+        }
+        if (batch.repositories().size() > maxRepositories) {
+            throw new IllegalArgumentException("A batch may contain at most " + maxRepositories + " repositories");
+        }
+        List<GenerationRequest> requests = new ArrayList<>(batch.repositories().size());
+        for (int i = 0; i < batch.repositories().size(); i++) {
+            try {
+                GenerationRequest request = batch.repositories().get(i).toGenerationRequest();
+                contentGeneratorService.validateRequest(request);
+                requests.add(request);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Repository " + (i + 1) + ": " + e.getMessage(), e);
+            }
+        }
+        return requests;
+    }
+
+    /**
+     * Generates the documents of a batch and writes them to the given output in batch order.
+     *
+     * @param requests The validated generation requests
+     * @param format How the documents are combined
+     * @param out The stream receiving the archive or combined document
+     * @throws IOException If the output cannot be written
+     */
+    public void generateBatch(List<GenerationRequest> requests, Format format, OutputStream out) throws IOException {
+        log.info("Generating batch of {} repositories as {}", requests.size(), format);
+        List<Future<Generated>> pending = new ArrayList<>(requests.size());
+        for (GenerationRequest request : requests) {
+            pending.add(executor.submit(() -> generate(request)));
+        }
+
+        boolean written = false;
+        try {
+            if (format == Format.ZIP) {
+                writeArchive(pending, out);
+            } else {
+                writeCombined(pending, out);
+            }
+            written = true;
+        } finally {
+            if (!written) {
+                pending.forEach(BatchGenerationService::discard);
+            }
+        }
+    }
+
+    private void writeArchive(List<Future<Generated>> pending, OutputStream out) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(out);
+        Set<String> entries = new HashSet<>();
+        List<Result> results = new ArrayList<>(pending.size());
+        for (Future<Generated> future : pending) {
+            Generated generated = await(future);
+            Result result = generated.result();
+            if (generated.file() != null) {
+                String entry = uniqueEntryName(result.entry(), entries);
+                result = new Result(result.source(), result.type(), entry, result.commitSha(), result.files(),
+                        result.bytes(), null);
+                try {
+                    zip.putNextEntry(new ZipEntry(entry));
+                    Files.copy(generated.file(), zip);
+                    zip.closeEntry();
+                } finally {
+                    deleteQuietly(generated.file());
+                }
+                zip.flush();
+            }
+            results.add(result);
+        }
+        zip.putNextEntry(new ZipEntry(MANIFEST_ENTRY));
+        zip.write(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(results));
+        zip.closeEntry();
+        zip.finish();
+        zip.flush();
+    }
+
+    private void writeCombined(List<Future<Generated>> pending, OutputStream out) throws IOException {
+        for (Future<Generated> future : pending) {
+            Generated generated = await(future);
+            Result result = generated.result();
+            out.write(("Repository: " + result.source() + "\n\n").getBytes(StandardCharsets.UTF_8));
+            if (generated.file() != null) {
+                try {
+                    Files.copy(generated.file(), out);
+                } finally {
+                    deleteQuietly(generated.file());
+                }
+            } else {
+                out.write(("Generation failed: " + result.error() + "\n\n").getBytes(StandardCharsets.UTF_8));
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Generates one document into a temporary file once the shared scheduler admits it, limited to
+     * the share of the GitHub request permits of one of the repositories admitted at the same time.
+     */
+    private Generated generate(GenerationRequest request) throws InterruptedException, IOException {
+        String source = request.isGitHub() ? request.url() : request.localPath();
+        repositoryPermits.acquire();
+        try (GitHubRequestExecutor.RepositoryLimit limit = requestExecutor.limitRepository(maxConcurrent)) {
+            Files.createDirectories(batchDirectory);
+            Path file = Files.createTempFile(batchDirectory, "batch-", ".tmp");
+            try {
+                GenerationRequest resolved = contentGeneratorService.resolveLanguage(request);
+                GenerationCache.Key cacheKey = contentGeneratorService.resolveCacheKey(resolved);
+                GenerationProgress progress = new GenerationProgress();
+                try (OutputStream out = Files.newOutputStream(file)) {
+                    contentGeneratorService.generateContent(resolved, cacheKey, progress, out);
+                }
+                GenerationProgress.Snapshot snapshot = progress.snapshot();
+                return new Generated(new Result(source, resolved.type(), contentGeneratorService.getOutputFilename(resolved),
+                        cacheKey != null ? cacheKey.commitSha() : null, snapshot.filesWritten(),
+                        snapshot.bytesWritten(), null), file);
+            } catch (IOException | RuntimeException e) {
+                log.error("Batch generation failed for {}", source, e);
+                deleteQuietly(file);
+                String error = e instanceof HttpClientErrorException.NotFound ? "Repository not found: " + source
+                        : e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+                return new Generated(new Result(source, request.type(), null, null, 0, 0, error), null);
+            }
+        } finally {
+            repositoryPermits.release();
+        }
+    }
+
+    private static String uniqueEntryName(String name, Set<String> entries) {
+        String candidate = name;
+        int dot = name.lastIndexOf('.');
+        for (int i = 2; !entries.add(candidate) || candidate.equals(MANIFEST_ENTRY); i++) {
+            candidate = dot < 0 ? name + "-" + i : name.substring(0, dot) + "-" + i + name.substring(dot);
+        }
+        return candidate;
+    }
+
+    /**
+     * Waits for the generation of a repository, rethrowing unexpected failures.
+     */
+    private static Generated await(Future<Generated> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Batch generation failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for batch generation", e);
+        }
+    }
+
+    /**
+     * Cancels a generation whose document will not be written, or deletes its document if it already finished.
+     */
+    private static void discard(Future<Generated> future) {
+        if (future.cancel(true) || future.state() != Future.State.SUCCESS) {
+            return;
+        }
+        Path file = future.resultNow().file();
+        if (file != null) {
+            deleteQuietly(file);
+        }
+    }
+
+    private void deleteTemporaryFiles() {
+        if (!Files.isDirectory(batchDirectory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(batchDirectory)) {
+            files.forEach(BatchGenerationService::deleteQuietly);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not clean batch directory " + batchDirectory, e);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Could not delete batch document {}", file, e);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
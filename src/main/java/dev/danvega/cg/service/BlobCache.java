@@ -0,0 +1,149 @@
+package dev.danvega.cg.service;
+
+import dev.danvega.cg.config.GitHubConfiguration;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Content-addressed cache of GitHub blob contents keyed by git SHA.
+ * Blobs are kept in a size-bounded in-memory LRU tier, backed by an optional on-disk
+ * LRU tier under the output directory that survives restarts. Since a SHA always
+ * identifies the same content, entries never need to be invalidated, only evicted.
+ */
+@Component
+public class BlobCache {
+    private static final Pattern SHA_PATTERN = Pattern.compile("[0-9a-f]{40}|[0-9a-f]{64}");
+
+    private final long maxMemoryBytes;
+    private final DiskLruStore disk;
+
+    private final LinkedHashMap<String, String> memory = new LinkedHashMap<>(256, 0.75f, true);
+    private long memoryBytes;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Snapshot of the cache counters.
+     *
+     * @param memoryHits Lookups served from memory
+     * @param diskHits Lookups served from disk
+     * @param misses Lookups not found in either tier
+     * @param memoryBytes Bytes currently held in memory
+     * @param diskBytes Bytes currently held on disk
+     */
+    public record Stats(long memoryHits, long diskHits, long misses, long memoryBytes, long diskBytes) {
+    }
+
+    /**
+     * Creates the cache, loading the index of the on-disk tier when it is enabled.
+     *
+     * @param config The GitHub configuration holding the cache limits
+     * @param outputDirectory The output directory the on-disk tier is stored under
+     */
+    public BlobCache(GitHubConfiguration config, @Value("${app.output.directory}") String outputDirectory) {
+        GitHubConfiguration.BlobCacheSettings cacheConfig = config.blobCache();
+        this.maxMemoryBytes = cacheConfig.memorySize().toBytes();
+        this.disk = new DiskLruStore(Paths.get(outputDirectory, ".blob-cache"),
+                cacheConfig.diskEnabled() ? cacheConfig.diskSize().toBytes() : 0, SHA_PATTERN, "blob");
+    }
+
+    /**
+     * Checks whether a blob is cached in either tier without loading it.
+     *
+     * @param sha The git SHA of the blob
+     * @return true if the blob is cached
+     */
+    public synchronized boolean contains(String sha) {
+        return sha != null && (memory.containsKey(sha) || disk.contains(sha));
+    }
+
+    /**
+     * Looks up the content of a blob, promoting disk hits into memory.
+     *
+     * @param sha The git SHA of the blob
+     * @return The blob content, or null if it is not cached
+     */
+    public String get(String sha) {
+        if (sha == null) {
+            return null;
+        }
+        synchronized (this) {
+            String content = memory.get(sha);
+            if (content != null) {
+                memoryHits.incrementAndGet();
+                return content;
+            }
+        }
+
+        byte[] stored = disk.read(sha);
+        if (stored == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        String content = new String(stored, StandardCharsets.UTF_8);
+        diskHits.incrementAndGet();
+        synchronized (this) {
+            putInMemory(sha, content);
+        }
+        return content;
+    }
+
+    /**
+     * Stores the content of a blob in both tiers.
+     *
+     * @param sha The git SHA of the blob
+     * @param content The blob content
+     */
+    public void put(String sha, String content) {
+        if (sha == null || content == null || !SHA_PATTERN.matcher(sha).matches()) {
+            return;
+        }
+        boolean writeToDisk;
+        synchronized (this) {
+            putInMemory(sha, content);
+            writeToDisk = disk.isEnabled() && !disk.contains(sha);
+        }
+        if (writeToDisk) {
+            disk.write(sha, content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Returns a snapshot of the hit and miss counters and the current tier sizes.
+     *
+     * @return the cache statistics
+     */
+    public synchronized Stats getStats() {
+        return new Stats(memoryHits.get(), diskHits.get(), misses.get(), memoryBytes, disk.size());
+    }
+
+    private void putInMemory(String sha, String content) {
+        long size = sizeOf(content);
+        if (size > maxMemoryBytes) {
+            return;
+        }
+        String previous = memory.put(sha, content);
+        if (previous == null) {
+            memoryBytes += size;
+        }
+        Iterator<Map.Entry<String, String>> eldest = memory.entrySet().iterator();
+        while (memoryBytes > maxMemoryBytes && eldest.hasNext()) {
+            memoryBytes -= sizeOf(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    private static long sizeOf(String content) {
+        return 2L * content.length();
+    }
+}
@@ -1,17 +1,34 @@
 package dev.danvega.cg.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.danvega.cg.config.SizeLimitConfiguration;
+import dev.danvega.cg.model.GenerationRequest;
 import dev.danvega.cg.model.processor.LanguageProcessor;
 import dev.danvega.cg.model.processor.LanguageProcessorRegistry;
+import dev.danvega.cg.util.Compression;
+import dev.danvega.cg.util.PathFilter;
 import dev.danvega.cg.util.PathUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
 
 @Service
 @RequiredArgsConstructor
@@ -21,57 +38,354 @@ public class ContentGeneratorService {
     private final GitHubService ghService;
     private final LocalFileService localFileService;
     private final LanguageProcessorRegistry processorRegistry;
+    private final GenerationCache generationCache;
+    private final SizeLimitConfiguration sizeLimits;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
 
     @Value("${app.output.directory}")
     private String outputDirectory;
 
-    public String generateContent(String githubUrl, String localPath, String languageType, boolean onlyLanguageFiles) throws Exception {
-        LanguageProcessor processor = processorRegistry.getProcessor(languageType)
-                .orElseThrow(() -> new IllegalArgumentException("Unsupported language type: " + languageType +
-                        ". Supported types: " + String.join(", ", processorRegistry.getSupportedLanguages())));
-
-        log.info("Processing with language type: {}", languageType);
+    @Value("${app.output.compression:none}")
+    private Compression outputCompression;
 
-        String outputName = pathUtils.determineFilename(githubUrl, localPath);
-        String outputFilename = outputName + "." + processor.getOutputExtension();
+    /**
+     * Checks that a request can be processed, so that invalid requests can be rejected
+     * before any output is streamed or any job is started.
+     *
+     * @param request The generation request
+     * @throws IllegalArgumentException If the language type is unsupported, the token limit is not
+     *                                  positive, or the source is missing or invalid
+     */
+    public void validateRequest(GenerationRequest request) {
+        if (!processorRegistry.isAuto(request.type()) && processorRegistry.getProcessor(request.type()).isEmpty()) {
+            throw new IllegalArgumentException("Unsupported language type: " + request.type() +
+                    ". Supported types: " + String.join(", ", processorRegistry.getSupportedLanguages()) + ", "
+                    + LanguageProcessorRegistry.AUTO_TYPE);
+        }
+        if (request.maxTokens() != null && request.maxTokens() < 1) {
+            throw new IllegalArgumentException("maxTokens must be at least 1");
+        }
+        validateSource(request.url(), request.localPath());
+    }
 
-        List<String> includePatterns;
-        if (onlyLanguageFiles) {
-            includePatterns = List.of(processor.getLanguageExtensionPattern());
+    /**
+     * Checks that exactly one usable source was provided, so that invalid requests can be
+     * rejected before any output is streamed.
+     *
+     * @param githubUrl The GitHub repository URL
+     * @param localPath The local directory path
+     * @throws IllegalArgumentException If no source was provided or the local path is not a directory
+     */
+    public void validateSource(String githubUrl, String localPath) {
+        if (githubUrl != null && !githubUrl.isBlank()) {
+            if (githubUrl.split("/").length < 2) {
+                throw new IllegalArgumentException("Invalid GitHub URL: " + githubUrl);
+            }
+        } else if (localPath != null && !localPath.isBlank()) {
+            if (!Files.isDirectory(Paths.get(localPath))) {
+                throw new IllegalArgumentException("Invalid directory path: " + localPath);
+            }
         } else {
-            includePatterns = processor.getIncludePatterns();
+            throw new IllegalArgumentException("Either GitHub URL or local path must be provided");
         }
-        List<String> excludePatterns = processor.getExcludePatterns();
+    }
 
-        if (githubUrl != null && !githubUrl.isBlank()) {
-            log.info("Processing GitHub URL: {}", githubUrl);
-            String[] parts = githubUrl.split("/");
+    /**
+     * Returns the file name a generated document is offered under.
+     *
+     * @param request The generation request
+     * @return The file name including the extension of the output format, or the processor's
+     *         output extension for the text format, marked {@code .min} for minified documents and
+     *         {@code .dedup} for deduplicated ones
+     */
+    public String getOutputFilename(GenerationRequest request) {
+        String outputExtension = request.format().extension() != null ? request.format().extension()
+                : processorRegistry.getProcessor(request.type())
+                        .map(LanguageProcessor::getOutputExtension)
+                        .orElse("txt");
+        return pathUtils.determineFilename(request.url(), request.localPath()) + (request.minify() ? ".min" : "")
+                + (request.dedupe() ? ".dedup" : "") + "." + outputExtension;
+    }
+
+    /**
+     * Replaces the {@code auto} language type of a request with the languages detected in its
+     * source. The files are counted per extension without reading any of them: GitHub repositories
+     * from one recursive tree listing of the head commit, local directories from a walk of their
+     * directory entries. Directories that every language excludes, and hidden directories, are
+     * not counted.
+     *
+     * @param request The generation request
+     * @return The request with a concrete language type, or the request itself if it already has one
+     * @throws IllegalArgumentException If no files of a supported language were found
+     * @throws IOException If a local directory cannot be listed
+     */
+    public GenerationRequest resolveLanguage(GenerationRequest request) throws IOException {
+        if (!processorRegistry.isAuto(request.type())) {
+            return request;
+        }
+        List<PathFilter> filters = processorRegistry.getProcessors().stream()
+                .map(processor -> pathUtils.getPathFilter(processor.getIncludePatterns(), processor.getExcludePatterns()))
+                .toList();
+        Predicate<String> skipDirectory = directory -> {
+            String name = directory.substring(directory.lastIndexOf('/') + 1);
+            return name.startsWith(".") || filters.stream().allMatch(filter -> filter.isExcludedDirectory(directory));
+        };
+
+        Map<String, Long> histogram;
+        if (request.isGitHub()) {
+            String[] parts = request.url().split("/");
             String owner = parts[parts.length - 2];
             String repo = parts[parts.length - 1];
+            histogram = ghService.getExtensionHistogram(owner, repo, ghService.resolveHeadCommit(owner, repo), skipDirectory);
+        } else {
+            histogram = localFileService.getExtensionHistogram(request.localPath(), skipDirectory);
+        }
+        String languageType = processorRegistry.detectLanguageType(histogram);
+        log.info("Detected language type {} for {}", languageType, request.isGitHub() ? request.url() : request.localPath());
+        return request.withType(languageType);
+    }
 
-            ghService.downloadRepositoryContentsForLanguage(
-                    owner,
-                    repo,
-                    includePatterns,
-                    excludePatterns,
-                    outputFilename
-            );
+    /**
+     * Resolves the key identifying the document a request generates. Only GitHub repositories
+     * are cached: their head commit is resolved with a single API call, and the document is then
+     * generated from exactly that commit.
+     *
+     * @param request The generation request
+     * @return The cache key, or null for local directories
+     */
+    public GenerationCache.Key resolveCacheKey(GenerationRequest request) {
+        if (!request.isGitHub()) {
+            return null;
+        }
+        LanguageProcessor processor = getProcessor(request.type());
+        String[] parts = request.url().split("/");
+        String owner = parts[parts.length - 2];
+        String repo = parts[parts.length - 1];
+        String commitSha = ghService.resolveHeadCommit(owner, repo);
+        return GenerationCache.Key.of(owner, repo, commitSha, ghService.resolveFetchMode(request.fetchMode()),
+                getIncludePatterns(processor, request), processor.getExcludePatterns(), request.maxTokens(),
+                sizeLimits.maxFileSize(request.type()), sizeLimits.maxTotalSize(request.type()), request.format(),
+                request.minify(), request.dedupe());
+    }
 
-            return new String(Files.readAllBytes(Paths.get(outputDirectory, outputFilename)));
-        } else if (localPath != null && !localPath.isBlank()) {
-            log.info("Processing local path: {}", localPath);
+    /**
+     * Generates the document for a GitHub repository or local directory and streams it to the
+     * given output, detecting the language of {@code auto} requests and resolving the cache key
+     * of GitHub repositories first.
+     *
+     * @param request The generation request
+     * @param progress The progress counters updated while the document is generated
+     * @param out The stream receiving the generated document
+     * @throws IOException If the document cannot be read or written
+     * @see #generateContent(GenerationRequest, GenerationCache.Key, GenerationProgress, OutputStream)
+     */
+    public void generateContent(GenerationRequest request, GenerationProgress progress, OutputStream out)
+            throws IOException {
+        GenerationRequest resolved = resolveLanguage(request);
+        generateContent(resolved, resolveCacheKey(resolved), progress, out);
+    }
 
-            localFileService.processLocalDirectoryForLanguage(
-                    localPath,
-                    outputName,
-                    includePatterns,
-                    excludePatterns,
-                    processor.getOutputExtension()
-            );
+    /**
+     * Generates the document for a GitHub repository or local directory and streams it to the
+     * given output, in the request's format, as each file is read. A copy of the document is written to the output
+     * directory at the same time, compressed when {@code app.output.compression} asks for it, and
+     * replaces the previous copy once it is complete. For local
+     * directories a manifest is kept next to the copy so that the next run only reads changed files.
+     * GitHub documents are served from the generation cache when it holds the key, and are
+     * otherwise generated from the key's commit and added to the cache.
+     * <p>
+     * Each generation is timed, and the files it selected and excluded are counted per language.
+     *
+     * @param request The generation request
+     * @param cacheKey The key from {@link #resolveCacheKey}, or null for local directories
+     * @param progress The progress counters updated while the document is generated
+     * @param out The stream receiving the generated document
+     * @throws IOException If the document cannot be read or written
+     */
+    public void generateContent(GenerationRequest request, GenerationCache.Key cacheKey, GenerationProgress progress,
+                                OutputStream out) throws IOException {
+        generate(request, cacheKey, progress, out, null);
+    }
 
-            return new String(Files.readAllBytes(Paths.get(outputDirectory, outputFilename)));
-        } else {
-            throw new IllegalArgumentException("Either GitHub URL or local path must be provided");
+    /**
+     * Generates the document for a GitHub repository or local directory like
+     * {@link #generateContent(GenerationRequest, GenerationCache.Key, GenerationProgress, OutputStream)},
+     * but streams it as a ZIP archive of shards of limited size, cut at file boundaries as the files
+     * are written, followed by an index mapping every file to its shards. The copy in the output
+     * directory and the generation cache still hold the complete document. Shards are cut from
+     * the text format, whose files can be continued in the next shard.
+     *
+     * @param request The generation request
+     * @param cacheKey The key from {@link #resolveCacheKey}, or null for local directories
+     * @param progress The progress counters updated while the document is generated
+     * @param limits The limits on the size of each shard
+     * @param out The stream receiving the ZIP archive
+     * @throws IOException If the document cannot be read or written
+     */
+    public void generateShards(GenerationRequest request, GenerationCache.Key cacheKey, GenerationProgress progress,
+                               ShardWriter.Limits limits, OutputStream out) throws IOException {
+        ShardWriter shards = new ShardWriter(out, objectMapper, getOutputFilename(request), limits);
+        generate(request, cacheKey, progress, shards, shards);
+    }
+
+    private void generate(GenerationRequest request, GenerationCache.Key cacheKey, GenerationProgress progress,
+                          OutputStream out, ContentWriter.FileListener fileListener) throws IOException {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+        try {
+            writeDocument(request, cacheKey, progress, out, fileListener);
+            outcome = "success";
+        } finally {
+            sample.stop(Timer.builder("cg.generation")
+                    .description("Time spent generating a document")
+                    .tag("language", request.type())
+                    .tag("source", request.isGitHub() ? "github" : "local")
+                    .tag("outcome", outcome)
+                    .register(meterRegistry));
+            GenerationProgress.Snapshot snapshot = progress.snapshot();
+            fileCounter(request.type(), "included").increment(snapshot.filesDiscovered());
+            fileCounter(request.type(), "excluded").increment(snapshot.filesExcluded());
+        }
+    }
+
+    private Counter fileCounter(String languageType, String result) {
+        return Counter.builder("cg.generation.files")
+                .description("Files selected for or excluded from generated documents by the language patterns")
+                .tag("language", languageType)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private void writeDocument(GenerationRequest request, GenerationCache.Key cacheKey, GenerationProgress progress,
+                               OutputStream out, ContentWriter.FileListener fileListener) throws IOException {
+        String languageType = request.type();
+        LanguageProcessor processor = getProcessor(languageType);
+
+        log.info("Processing with language type: {}", languageType);
+
+        String outputFilename = getOutputFilename(request);
+
+        List<String> includePatterns = getIncludePatterns(processor, request);
+        List<String> excludePatterns = processor.getExcludePatterns();
+
+        validateSource(request.url(), request.localPath());
+        TokenBudget budget = TokenBudget.of(request.maxTokens());
+        SizeBudget sizeBudget = new SizeBudget(sizeLimits.maxFileSize(languageType), sizeLimits.maxTotalSize(languageType));
+
+        Path outputDir = Paths.get(outputDirectory);
+        Files.createDirectories(outputDir);
+        Path outputFile = outputDir.resolve(outputFilename + outputCompression.extension());
+        Path tempFile = Files.createTempFile(outputDir, outputFilename + ".", ".tmp");
+
+        LocalManifest manifest = null;
+        GenerationCache.Document cached = cacheKey != null ? generationCache.get(cacheKey) : null;
+        long[] fileOffsets;
+        long documentSize;
+        try (ContentWriter writer = openWriter(out, tempFile)) {
+            writer.setFormat(request.format(), processorRegistry::getLanguage);
+            budget.setFrameTokens(writer::frameTokens);
+            if (request.minify()) {
+                writer.setMinifier((path, content) -> processorRegistry.getProcessorForFile(path)
+                        .map(fileProcessor -> fileProcessor.minify(content))
+                        .orElse(content));
+            }
+            writer.setDeduplicate(request.dedupe());
+            writer.setFileListener(fileListener);
+            progress.attach(writer);
+            if (cached != null) {
+                log.info("Serving cached document for {} at {}", cacheKey.repository(), cacheKey.commitSha());
+                writer.writeDocument(cached.content(), cached.fileOffsets());
+            } else if (request.isGitHub()) {
+                String githubUrl = request.url();
+                log.info("Processing GitHub URL: {}", githubUrl);
+                String[] parts = githubUrl.split("/");
+                String owner = parts[parts.length - 2];
+                String repo = parts[parts.length - 1];
+
+                ghService.downloadRepositoryContentsForLanguage(
+                        owner,
+                        repo,
+                        cacheKey != null ? cacheKey.commitSha() : null,
+                        includePatterns,
+                        excludePatterns,
+                        request.fetchMode(),
+                        budget,
+                        sizeBudget,
+                        progress,
+                        writer
+                );
+            } else {
+                log.info("Processing local path: {}", request.localPath());
+
+                manifest = localFileService.processLocalDirectoryForLanguage(
+                        request.localPath(),
+                        includePatterns,
+                        excludePatterns,
+                        writer,
+                        budget,
+                        sizeBudget,
+                        progress,
+                        outputFile
+                );
+            }
+            writer.finish();
+            fileOffsets = writer.getFileOffsets();
+            documentSize = writer.getPosition();
+            log.info("Wrote {} files, copy saved to: {}", fileOffsets.length, outputFile.toAbsolutePath());
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+
+        if (cacheKey != null && cached == null && generationCache.accepts(documentSize)) {
+            try (InputStream document = outputCompression.decompress(Files.newInputStream(tempFile))) {
+                generationCache.put(cacheKey, new GenerationCache.Document(document.readAllBytes(), fileOffsets));
+            }
+        }
+
+        LocalManifest.delete(outputFile);
+        Files.move(tempFile, outputFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (manifest != null) {
+            manifest.save(outputFile);
+        }
+        for (Compression compression : Compression.values()) {
+            if (compression != outputCompression) {
+                Path staleFile = outputDir.resolve(outputFilename + compression.extension());
+                LocalManifest.delete(staleFile);
+                Files.deleteIfExists(staleFile);
+            }
+        }
+    }
+
+    /**
+     * Opens the writer producing a document, copying it to the temporary file as it is written.
+     * An uncompressed copy is written through the file channel so that content already in a file
+     * can be transferred into it directly; a compressed copy is compressed on the way.
+     */
+    private ContentWriter openWriter(OutputStream out, Path tempFile) throws IOException {
+        if (outputCompression == Compression.NONE) {
+            return new ContentWriter(out, FileChannel.open(tempFile, StandardOpenOption.WRITE));
+        }
+        OutputStream copy = Files.newOutputStream(tempFile);
+        try {
+            return new ContentWriter(out, outputCompression.compress(copy));
+        } catch (IOException e) {
+            copy.close();
+            throw e;
+        }
+    }
+
+    private LanguageProcessor getProcessor(String languageType) {
+        return processorRegistry.getProcessor(languageType)
+                .orElseThrow(() -> new IllegalArgumentException("Unsupported language type: " + languageType +
+                        ". Supported types: " + String.join(", ", processorRegistry.getSupportedLanguages())));
+    }
+
+    private static List<String> getIncludePatterns(LanguageProcessor processor, GenerationRequest request) {
+        if (request.onlyLanguageFiles()) {
+            return processor.getLanguageExtensionPatterns();
         }
+        return processor.getIncludePatterns();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,847 @@
+package dev.danvega.cg.service;
+
+import dev.danvega.cg.model.OutputFormat;
+import dev.danvega.cg.model.RepositoryFile;
+import dev.danvega.cg.util.BlobHash;
+import dev.danvega.cg.util.TokenCounter;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Writes the generated document to an output stream one file at a time.
+ * Each file is flushed as soon as it has been written, so consumers receive
+ * output while the rest of the repository is still being read.
+ * <p>
+ * The document can also be copied to a file channel. Content that is already in a file is
+ * then transferred with {@link FileChannel#transferTo}, which lets the operating system copy
+ * it into the copy without passing through the heap, and reaches the output stream through a
+ * small fixed buffer. The copy can also be written to a stream, such as a compressing one, in
+ * which case offsets still refer to the uncompressed document.
+ * <p>
+ * The offsets at which the files start are recorded, so that a document replayed from the
+ * generation cache can still be split into its files, and a {@link FileListener} can be told
+ * about each file as it starts and once it has been written.
+ * <p>
+ * Files are laid out in an {@link OutputFormat}. The text format writes a {@code File: path} header
+ * before each file, while the structured formats write the path, size, git blob SHA and language
+ * of each file before its content and escape the content as it streams through, so a file is
+ * never held in memory just to be encoded. The span of a file always covers its content as
+ * written, escaped or not.
+ * <p>
+ * Content read from a source can also pass through a minifier on its way to the document. Content
+ * copied from a previous document was minified when that document was written, and is copied as is.
+ * <p>
+ * A deduplicating writer remembers the git blob SHA of every file it has written. A later file with
+ * the same SHA is written as a reference to the first path instead of a second copy of its content:
+ * a {@code File: path (duplicate of first)} header in the text format, and a {@code duplicateOf}
+ * field in place of the content in the structured formats. Callers check {@link #isDuplicate} first,
+ * so that the content of a duplicate does not even have to be fetched.
+ * <p>
+ * A writer is used by one thread at a time, but its counters can be read from any thread.
+ */
+public class ContentWriter implements Closeable {
+    private static final byte[] HEADER_PREFIX = "File: ".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SEPARATOR = "\n\n".getBytes(StandardCharsets.UTF_8);
+    private static final String DUPLICATE_MARKER = " (duplicate of ";
+    private static final byte[] JSONL_FILE_END = "\"}\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] XML_START = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<repository>\n"
+            .getBytes(StandardCharsets.UTF_8);
+    private static final byte[] XML_FILE_END = "</file>\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] XML_END = "</repository>\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[][] JSON_ESCAPES = jsonEscapes();
+    private static final byte[][] XML_ESCAPES = xmlEscapes();
+    private static final byte[] REPLACEMENT = "\uFFFD".getBytes(StandardCharsets.UTF_8);
+    private static final int BUFFER_SIZE = 16 * 1024;
+    /** A size and git blob SHA of typical length, standing in for those of a file not yet read. */
+    private static final long TYPICAL_SIZE = 1_000_000;
+    private static final String TYPICAL_SHA = "da39a3ee5e6b4b0d3255bfef95601890afd80709";
+
+    private final OutputStream out;
+    private final WritableByteChannel outChannel;
+    private final WritableByteChannel copy;
+    private final OutputStream copyOut;
+    private FileListener fileListener;
+    private OutputFormat format = OutputFormat.TEXT;
+    private Function<String, String> languages = path -> null;
+    private BiFunction<String, OutputStream, OutputStream> minifier;
+    private Map<String, Original> originals;
+    private final OutputStream contentOut = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            writeContent(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            writeContent(bytes, offset, length);
+        }
+    };
+    private final byte[] sequence = new byte[4];
+    private int sequenceLength;
+    private int sequenceNeeded;
+    private int sequenceLower;
+    private int sequenceUpper;
+    private boolean started;
+    private boolean finished;
+    private long[] fileOffsets = new long[64];
+    private volatile long position;
+    private volatile long filesWritten;
+
+    /**
+     * Receives each file of the document as it starts and once it has been written.
+     */
+    public interface FileListener {
+        /**
+         * Called before anything is written for a file.
+         *
+         * @param path The path of the file
+         * @throws IOException If the listener cannot process the file
+         */
+        default void fileStarted(String path) throws IOException {
+        }
+
+        /**
+         * Called after everything written for a file has been flushed to the output stream.
+         *
+         * @param path The path of the file
+         * @throws IOException If the listener cannot process the file
+         */
+        void fileWritten(String path) throws IOException;
+    }
+
+    /**
+     * Location of a file's content within the written document.
+     *
+     * @param offset The byte offset of the content from the start of the document
+     * @param length The length of the content in bytes
+     */
+    public record Span(long offset, long length) {
+    }
+
+    /**
+     * The first file written with some content, which later files with the same content refer to.
+     */
+    private record Original(String path, long size) {
+    }
+
+    /**
+     * Creates a writer encoding the document as UTF-8 to the given stream.
+     *
+     * @param out The stream to write the document to
+     */
+    public ContentWriter(OutputStream out) {
+        this(out, (FileChannel) null);
+    }
+
+    /**
+     * Creates a writer encoding the document as UTF-8 to the given stream and copying it to a file.
+     *
+     * @param out The stream to write the document to
+     * @param copy The channel receiving a copy of the document, or null for no copy
+     */
+    public ContentWriter(OutputStream out, FileChannel copy) {
+        this(out, copy != null ? new BufferedOutputStream(Channels.newOutputStream(copy)) : null, copy);
+    }
+
+    /**
+     * Creates a writer encoding the document as UTF-8 to the given stream and copying it to
+     * another stream, such as a compressing stream over a file. Content already in a file is
+     * copied through a small fixed buffer.
+     *
+     * @param out The stream to write the document to
+     * @param copy The stream receiving a copy of the document
+     */
+    public ContentWriter(OutputStream out, OutputStream copy) {
+        this(out, new BufferedOutputStream(copy), null);
+    }
+
+    private ContentWriter(OutputStream out, BufferedOutputStream copyOut, WritableByteChannel copy) {
+        this.out = new BufferedOutputStream(out);
+        this.outChannel = Channels.newChannel(out);
+        this.copyOut = copyOut;
+        this.copy = copy != null || copyOut == null ? copy : Channels.newChannel(copyOut);
+    }
+
+    /**
+     * Writes a file header followed by the file content.
+     *
+     * @param file The file to write
+     * @return The location of the file content within the document
+     * @throws IOException If the document cannot be written
+     */
+    public Span write(RepositoryFile file) throws IOException {
+        return write(file.path(), file.sha(), file.content().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes a file header followed by content that is already UTF-8 encoded.
+     *
+     * @param path The path of the file
+     * @param content The UTF-8 encoded file content
+     * @return The location of the file content within the document
+     * @throws IOException If the document cannot be written
+     */
+    public Span write(String path, byte[] content) throws IOException {
+        return write(path, null, content);
+    }
+
+    /**
+     * Writes a file header followed by content that is already UTF-8 encoded.
+     *
+     * @param path The path of the file
+     * @param sha The git blob SHA of the content, or null to compute it when the format or deduplication
+     *            needs it
+     * @param content The UTF-8 encoded file content
+     * @return The location of the file content within the document
+     * @throws IOException If the document cannot be written
+     */
+    public Span write(String path, String sha, byte[] content) throws IOException {
+        if (sha == null && (format != OutputFormat.TEXT || originals != null)) {
+            sha = BlobHash.of(content);
+        }
+        startFile(path);
+        writeHeader(path, content.length, sha);
+        long offset = position;
+        try (OutputStream contentStream = openContent(path)) {
+            contentStream.write(content);
+        }
+        endContent();
+        long length = position - offset;
+        writeBytes(fileEnd());
+        flush();
+        endFile(path, content.length, sha);
+        return new Span(offset, length);
+    }
+
+    /**
+     * Writes a file header followed by UTF-8 encoded content read from a region of a file. In the
+     * text format without a minifier the content is transferred without loading it onto the heap;
+     * otherwise it is minified and escaped through a small fixed buffer.
+     *
+     * @param path The path of the file
+     * @param sha The git blob SHA of the content, or null to compute it when the format or deduplication
+     *            needs it
+     * @param source The channel holding the content
+     * @param offset The position of the content within the channel
+     * @param length The length of the content in bytes
+     * @return The location of the file content within the document
+     * @throws IOException If the content cannot be transferred or the document cannot be written
+     */
+    public Span write(String path, String sha, FileChannel source, long offset, long length) throws IOException {
+        if (sha == null && (format != OutputFormat.TEXT || originals != null)) {
+            sha = hash(source, offset, length);
+        }
+        if (format == OutputFormat.TEXT && minifier == null) {
+            return copy(path, length, sha, source, offset, length);
+        }
+        startFile(path);
+        writeHeader(path, length, sha);
+        long contentOffset = position;
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, BUFFER_SIZE));
+        try (OutputStream contentStream = openContent(path)) {
+            long read = 0;
+            while (read < length) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), length - read));
+                int count = source.read(buffer, offset + read);
+                if (count < 0) {
+                    throw new IOException("Source ended after " + read + " of " + length + " bytes");
+                }
+                contentStream.write(buffer.array(), 0, count);
+                read += count;
+            }
+        }
+        endContent();
+        long contentLength = position - contentOffset;
+        writeBytes(fileEnd());
+        flush();
+        endFile(path, length, sha);
+        return new Span(contentOffset, contentLength);
+    }
+
+    /**
+     * Writes a file header followed by content copied unchanged from a region of a file, such as
+     * the content of the file in a previous document of the same format. The content is transferred
+     * without loading it onto the heap.
+     *
+     * @param path The path of the file
+     * @param size The size of the file in bytes
+     * @param sha The git blob SHA of the file, or null in the text format without deduplication
+     * @param source The channel holding the content as written to a document
+     * @param offset The position of the content within the channel
+     * @param length The length of the content in bytes
+     * @return The location of the file content within the document
+     * @throws IOException If the content cannot be transferred or the document cannot be written
+     */
+    public Span copy(String path, long size, String sha, FileChannel source, long offset, long length)
+            throws IOException {
+        startFile(path);
+        writeHeader(path, size, sha);
+        flush();
+        long contentOffset = position;
+        if (copy != null) {
+            transfer(source, offset, length, copy);
+        }
+        transfer(source, offset, length, outChannel);
+        position += length;
+        writeBytes(fileEnd());
+        flush();
+        endFile(path, size, sha);
+        return new Span(contentOffset, length);
+    }
+
+    /**
+     * Writes a file header followed by content copied unchanged from a stream, such as a region
+     * of a compressed previous document of the same format.
+     *
+     * @param path The path of the file
+     * @param size The size of the file in bytes
+     * @param sha The git blob SHA of the file, or null in the text format without deduplication
+     * @param source The stream positioned at the start of the content as written to a document
+     * @param length The length of the content in bytes
+     * @return The location of the file content within the document
+     * @throws IOException If the content cannot be read or the document cannot be written
+     */
+    public Span copy(String path, long size, String sha, InputStream source, long length) throws IOException {
+        startFile(path);
+        writeHeader(path, size, sha);
+        long contentOffset = position;
+        byte[] buffer = new byte[(int) Math.min(length, BUFFER_SIZE)];
+        long remaining = length;
+        while (remaining > 0) {
+            int read = source.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                throw new IOException("Source ended after " + (length - remaining) + " of " + length + " bytes");
+            }
+            writeBytes(buffer, 0, read);
+            remaining -= read;
+        }
+        writeBytes(fileEnd());
+        flush();
+        endFile(path, size, sha);
+        return new Span(contentOffset, length);
+    }
+
+    /**
+     * Checks whether a file with the given content has already been written by this deduplicating
+     * writer, so that the file can be written with {@link #writeDuplicate} without its content.
+     *
+     * @param sha The git blob SHA of the content, or null if it is not known
+     * @return true if the writer deduplicates and has written a file with the SHA
+     */
+    public boolean isDuplicate(String sha) {
+        return originals != null && sha != null && originals.containsKey(sha);
+    }
+
+    /**
+     * Writes a file as a reference to the first file written with the same content.
+     *
+     * @param path The path of the file
+     * @param sha The git blob SHA of the content
+     * @return true if the reference was written, false if no file with the SHA has been written, in
+     *         which case nothing is written
+     * @throws IOException If the document cannot be written
+     */
+    public boolean writeDuplicate(String path, String sha) throws IOException {
+        Original original = originals != null && sha != null ? originals.get(sha) : null;
+        if (original == null) {
+            return false;
+        }
+        startFile(path);
+        String reference = switch (format) {
+            case TEXT -> "File: " + path + DUPLICATE_MARKER + original.path() + ")\n\n";
+            case JSONL -> jsonFields(path, original.size(), sha)
+                    + ",\"duplicateOf\":\"" + escape(original.path(), JSON_ESCAPES) + "\"}\n";
+            case XML -> xmlElement(path, original.size(), sha)
+                    + " duplicateOf=\"" + escape(original.path(), XML_ESCAPES) + "\"/>\n";
+        };
+        writeBytes(reference.getBytes(StandardCharsets.UTF_8));
+        flush();
+        endFile(path);
+        return true;
+    }
+
+    /**
+     * Completes the document with what the format requires after the last file, such as the
+     * closing root element of an XML document. Nothing is written for a document replayed with
+     * {@link #writeDocument}, which is already complete.
+     *
+     * @throws IOException If the document cannot be written
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        start();
+        finished = true;
+        if (format == OutputFormat.XML) {
+            writeBytes(XML_END);
+        }
+        flush();
+    }
+
+    /**
+     * Writes a complete document generated earlier, as served from the generation cache. With a
+     * file listener the document is written file by file, so that the listener sees every file.
+     *
+     * @param document The UTF-8 encoded document, in the format of this writer
+     * @param fileOffsets The offsets at which the files of the document start
+     * @throws IOException If the document cannot be written
+     */
+    public void writeDocument(byte[] document, long[] fileOffsets) throws IOException {
+        started = true;
+        finished = true;
+        if (fileListener == null || fileOffsets.length == 0) {
+            writeBytes(document);
+            flush();
+            filesWritten += fileOffsets.length;
+            return;
+        }
+        writeBytes(document, 0, (int) fileOffsets[0]);
+        for (int i = 0; i < fileOffsets.length; i++) {
+            int start = (int) fileOffsets[i];
+            int end = i + 1 < fileOffsets.length ? (int) fileOffsets[i + 1] : document.length;
+            String path = pathAt(document, start);
+            startFile(path);
+            writeBytes(document, start, end - start);
+            flush();
+            endFile(path);
+        }
+    }
+
+    /**
+     * Sets the layout of the document. Must be called before anything is written.
+     *
+     * @param format The format of the document
+     * @param languages Maps a file path to the language reported for the file, or to null if it has none
+     */
+    public void setFormat(OutputFormat format, Function<String, String> languages) {
+        this.format = format;
+        this.languages = languages;
+    }
+
+    /**
+     * Estimates the tokens of the text written around the content of a file in the format of the
+     * document, so that they can be counted before the file is read. The header and the end of the
+     * file are estimated apart, as the content separates them, and the file's size and SHA are
+     * assumed to be of typical length.
+     *
+     * @param path The path of the file
+     * @return the estimated tokens of the header and the end of the file
+     */
+    public long frameTokens(String path) {
+        String header = switch (format) {
+            case TEXT -> "File: " + path + "\n\n";
+            case JSONL -> jsonFields(path, TYPICAL_SIZE, TYPICAL_SHA) + ",\"content\":\"";
+            case XML -> xmlElement(path, TYPICAL_SIZE, TYPICAL_SHA) + ">";
+        };
+        return TokenCounter.estimate(header) + TokenCounter.estimate(fileEnd());
+    }
+
+    /**
+     * Sets the minifier applied to the content read from sources. Must be called before anything is
+     * written.
+     *
+     * @param minifier Maps the path of a file and the stream receiving its content to the stream the
+     *                 content is written to, or null to write content unchanged
+     */
+    public void setMinifier(BiFunction<String, OutputStream, OutputStream> minifier) {
+        this.minifier = minifier;
+    }
+
+    /**
+     * Sets whether files with the same content as a file written earlier are written as references.
+     * Must be called before anything is written.
+     *
+     * @param deduplicate Whether to remember the content of written files
+     */
+    public void setDeduplicate(boolean deduplicate) {
+        this.originals = deduplicate ? new HashMap<>() : null;
+    }
+
+    /**
+     * Returns whether the writer writes duplicate files as references.
+     *
+     * @return true if the writer remembers the content of written files
+     */
+    public boolean isDeduplicating() {
+        return originals != null;
+    }
+
+    /**
+     * Sets the listener told about each file once it has been written.
+     *
+     * @param fileListener The listener, or null for none
+     */
+    public void setFileListener(FileListener fileListener) {
+        this.fileListener = fileListener;
+    }
+
+    /**
+     * Returns the offsets at which the files written so far start.
+     *
+     * @return the offset of each file's header, in document order
+     */
+    public long[] getFileOffsets() {
+        return Arrays.copyOf(fileOffsets, (int) filesWritten);
+    }
+
+    /**
+     * Returns the number of files written so far.
+     *
+     * @return the number of files written
+     */
+    public long getFilesWritten() {
+        return filesWritten;
+    }
+
+    /**
+     * Returns the number of bytes written so far.
+     *
+     * @return the size of the document written so far
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    private void startFile(String path) throws IOException {
+        if (fileListener != null) {
+            fileListener.fileStarted(path);
+        }
+        start();
+        int index = (int) filesWritten;
+        if (index == fileOffsets.length) {
+            fileOffsets = Arrays.copyOf(fileOffsets, index * 2);
+        }
+        fileOffsets[index] = position;
+    }
+
+    /**
+     * Completes a file written with its content, remembering it as the original of later duplicates.
+     */
+    private void endFile(String path, long size, String sha) throws IOException {
+        if (originals != null && sha != null) {
+            originals.putIfAbsent(sha, new Original(path, size));
+        }
+        endFile(path);
+    }
+
+    private void endFile(String path) throws IOException {
+        filesWritten++;
+        if (fileListener != null) {
+            fileListener.fileWritten(path);
+        }
+    }
+
+    /**
+     * Reads the path from the file header starting at the given offset of a document, leaving out
+     * the original named by the header of a duplicate.
+     */
+    private String pathAt(byte[] document, int offset) {
+        int start = offset + HEADER_PREFIX.length;
+        int end = start;
+        while (end + 1 < document.length && !(document[end] == '\n' && document[end + 1] == '\n')) {
+            end++;
+        }
+        String header = new String(document, start, end - start, StandardCharsets.UTF_8);
+        int marker = originals != null ? header.indexOf(DUPLICATE_MARKER) : -1;
+        return marker >= 0 ? header.substring(0, marker) : header;
+    }
+
+    /**
+     * Writes what the format requires before the first file, once.
+     */
+    private void start() throws IOException {
+        if (!started) {
+            started = true;
+            if (format == OutputFormat.XML) {
+                writeBytes(XML_START);
+            }
+        }
+    }
+
+    private void writeHeader(String path, long size, String sha) throws IOException {
+        String header = switch (format) {
+            case TEXT -> null;
+            case JSONL -> jsonFields(path, size, sha) + ",\"content\":\"";
+            case XML -> xmlElement(path, size, sha) + ">";
+        };
+        if (header == null) {
+            writeBytes(HEADER_PREFIX);
+            writeBytes(path.getBytes(StandardCharsets.UTF_8));
+            writeBytes(SEPARATOR);
+        } else {
+            writeBytes(header.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Returns the opening of a JSON Lines record up to the last field before the content.
+     */
+    private String jsonFields(String path, long size, String sha) {
+        String language = languages.apply(path);
+        return "{\"path\":\"" + escape(path, JSON_ESCAPES) + "\",\"size\":" + size
+                + ",\"sha\":" + (sha != null ? "\"" + sha + "\"" : "null")
+                + ",\"language\":" + (language != null ? "\"" + escape(language, JSON_ESCAPES) + "\"" : "null");
+    }
+
+    /**
+     * Returns the start tag of an XML file element up to its last attribute.
+     */
+    private String xmlElement(String path, long size, String sha) {
+        String language = languages.apply(path);
+        return "<file path=\"" + escape(path, XML_ESCAPES) + "\" size=\"" + size + "\""
+                + (sha != null ? " sha=\"" + sha + "\"" : "")
+                + (language != null ? " language=\"" + escape(language, XML_ESCAPES) + "\"" : "");
+    }
+
+    /**
+     * Opens the stream receiving the content of a file read from its source. Closing it completes the
+     * content, but leaves the document open.
+     */
+    private OutputStream openContent(String path) {
+        return minifier != null ? minifier.apply(path, contentOut) : contentOut;
+    }
+
+    private byte[] fileEnd() {
+        return switch (format) {
+            case TEXT -> SEPARATOR;
+            case JSONL -> JSONL_FILE_END;
+            case XML -> XML_FILE_END;
+        };
+    }
+
+    /**
+     * Writes file content, escaping it for the format. Since the structured formats must be valid
+     * UTF-8, each maximal part of a malformed sequence is replaced with U+FFFD, and so are the
+     * noncharacters U+FFFE and U+FFFF, which XML does not allow. A sequence split across chunks is
+     * held back until its last byte arrives, so content can be escaped in chunks of any size.
+     */
+    private void writeContent(byte[] bytes, int offset, int length) throws IOException {
+        byte[][] escapes = switch (format) {
+            case TEXT -> null;
+            case JSONL -> JSON_ESCAPES;
+            case XML -> XML_ESCAPES;
+        };
+        if (escapes == null) {
+            writeBytes(bytes, offset, length);
+            return;
+        }
+        int end = offset + length;
+        int run = offset;
+        // Start of the multi-byte sequence being read, or -1 if it started in an earlier chunk
+        int sequenceStart = -1;
+        int i = offset;
+        while (i < end) {
+            int b = bytes[i] & 0xFF;
+            if (sequenceNeeded == 0) {
+                if (b < 0x80) {
+                    if (escapes[b] != null) {
+                        writeBytes(bytes, run, i - run);
+                        writeBytes(escapes[b]);
+                        run = i + 1;
+                    }
+                } else if (startSequence(b)) {
+                    sequenceStart = i;
+                } else {
+                    writeBytes(bytes, run, i - run);
+                    writeBytes(REPLACEMENT);
+                    run = i + 1;
+                }
+                i++;
+            } else if (b >= sequenceLower && b <= sequenceUpper) {
+                sequence[sequenceLength++] = (byte) b;
+                sequenceLower = 0x80;
+                sequenceUpper = 0xBF;
+                i++;
+                if (--sequenceNeeded == 0) {
+                    boolean allowed = format != OutputFormat.XML || !isXmlNonCharacter();
+                    if (sequenceStart < 0) {
+                        // Its first bytes came in an earlier chunk and were held back
+                        if (allowed) {
+                            writeBytes(sequence, 0, sequenceLength);
+                        } else {
+                            writeBytes(REPLACEMENT);
+                        }
+                        run = i;
+                    } else if (!allowed) {
+                        writeBytes(bytes, run, sequenceStart - run);
+                        writeBytes(REPLACEMENT);
+                        run = i;
+                    }
+                    sequenceStart = -1;
+                }
+            } else {
+                // The sequence is cut short: replace what was read of it and read this byte again
+                if (sequenceStart >= 0) {
+                    writeBytes(bytes, run, sequenceStart - run);
+                }
+                writeBytes(REPLACEMENT);
+                run = i;
+                sequenceNeeded = 0;
+                sequenceStart = -1;
+            }
+        }
+        int runEnd = sequenceNeeded == 0 ? end : sequenceStart >= 0 ? sequenceStart : run;
+        writeBytes(bytes, run, runEnd - run);
+    }
+
+    /**
+     * Starts a multi-byte sequence with its lead byte, setting how many continuation bytes follow
+     * and the range of the first one, which rules out overlong forms, surrogates and code points
+     * above U+10FFFF.
+     *
+     * @return false if the byte cannot start a sequence
+     */
+    private boolean startSequence(int lead) {
+        if (lead >= 0xC2 && lead <= 0xDF) {
+            sequenceNeeded = 1;
+        } else if (lead >= 0xE0 && lead <= 0xEF) {
+            sequenceNeeded = 2;
+        } else if (lead >= 0xF0 && lead <= 0xF4) {
+            sequenceNeeded = 3;
+        } else {
+            return false;
+        }
+        sequenceLower = lead == 0xE0 ? 0xA0 : lead == 0xF0 ? 0x90 : 0x80;
+        sequenceUpper = lead == 0xED ? 0x9F : lead == 0xF4 ? 0x8F : 0xBF;
+        sequence[0] = (byte) lead;
+        sequenceLength = 1;
+        return true;
+    }
+
+    private boolean isXmlNonCharacter() {
+        return sequenceLength == 3 && sequence[0] == (byte) 0xEF && sequence[1] == (byte) 0xBF
+                && (sequence[2] & 0xFF) >= 0xBE;
+    }
+
+    /**
+     * Replaces a multi-byte sequence left incomplete at the end of the content.
+     */
+    private void endContent() throws IOException {
+        if (sequenceNeeded > 0) {
+            sequenceNeeded = 0;
+            writeBytes(REPLACEMENT);
+        }
+    }
+
+    private static String escape(String value, byte[][] escapes) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < escapes.length && escapes[c] != null) {
+                escaped.append(new String(escapes[c], StandardCharsets.UTF_8));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static byte[][] jsonEscapes() {
+        byte[][] escapes = new byte[128][];
+        for (int c = 0; c < 0x20; c++) {
+            escapes[c] = String.format("\\u%04x", c).getBytes(StandardCharsets.UTF_8);
+        }
+        escapes['\b'] = "\\b".getBytes(StandardCharsets.UTF_8);
+        escapes['\f'] = "\\f".getBytes(StandardCharsets.UTF_8);
+        escapes['\n'] = "\\n".getBytes(StandardCharsets.UTF_8);
+        escapes['\r'] = "\\r".getBytes(StandardCharsets.UTF_8);
+        escapes['\t'] = "\\t".getBytes(StandardCharsets.UTF_8);
+        escapes['"'] = "\\\"".getBytes(StandardCharsets.UTF_8);
+        escapes['\\'] = "\\\\".getBytes(StandardCharsets.UTF_8);
+        return escapes;
+    }
+
+    /**
+     * Control characters other than tab, line feed and carriage return cannot appear in XML 1.0
+     * at all, not even as character references, so they are replaced with U+FFFD. Carriage
+     * returns are written as references so that parsers do not normalise them away.
+     */
+    private static byte[][] xmlEscapes() {
+        byte[][] escapes = new byte[128][];
+        for (int c = 0; c < 0x20; c++) {
+            if (c != '\t' && c != '\n') {
+                escapes[c] = "\uFFFD".getBytes(StandardCharsets.UTF_8);
+            }
+        }
+        escapes['\r'] = "&#13;".getBytes(StandardCharsets.UTF_8);
+        escapes['&'] = "&amp;".getBytes(StandardCharsets.UTF_8);
+        escapes['<'] = "&lt;".getBytes(StandardCharsets.UTF_8);
+        escapes['>'] = "&gt;".getBytes(StandardCharsets.UTF_8);
+        escapes['"'] = "&quot;".getBytes(StandardCharsets.UTF_8);
+        return escapes;
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        out.write(bytes, offset, length);
+        if (copyOut != null) {
+            copyOut.write(bytes, offset, length);
+        }
+        position += length;
+    }
+
+    private static String hash(FileChannel source, long offset, long length) throws IOException {
+        MessageDigest digest = BlobHash.digest(length);
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, BUFFER_SIZE));
+        long read = 0;
+        while (read < length) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), length - read));
+            int count = source.read(buffer, offset + read);
+            if (count < 0) {
+                throw new IOException("Source ended after " + read + " of " + length + " bytes");
+            }
+            digest.update(buffer.array(), 0, count);
+            read += count;
+        }
+        return BlobHash.hex(digest);
+    }
+
+    private void flush() throws IOException {
+        out.flush();
+        if (copyOut != null) {
+            copyOut.flush();
+        }
+    }
+
+    private static void transfer(FileChannel source, long offset, long length, WritableByteChannel target)
+            throws IOException {
+        long transferred = 0;
+        while (transferred < length) {
+            long count = source.transferTo(offset + transferred, length - transferred, target);
+            if (count <= 0) {
+                throw new IOException("Source ended after " + transferred + " of " + length + " bytes");
+            }
+            transferred += count;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            out.close();
+        } finally {
+            if (copyOut != null) {
+                copyOut.close();
+            }
+        }
+    }
+}
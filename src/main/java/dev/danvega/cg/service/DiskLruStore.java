@@ -0,0 +1,215 @@
+package dev.danvega.cg.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Size-bounded store of files under a directory, evicted in LRU order, shared by the on-disk
+ * tiers of {@link BlobCache} and {@link EtagCache}. Each entry is one file named after its key,
+ * in a subdirectory named after the first two characters of the key.
+ * <p>
+ * The LRU order is kept in memory and rebuilt on startup from file modification times, which
+ * are refreshed on every read. Files are written to a temporary file and moved into place, so
+ * a reader never sees a partially written entry. Temporary files left behind by a crash are
+ * deleted when the index is rebuilt.
+ */
+class DiskLruStore {
+    private static final Logger log = LoggerFactory.getLogger(DiskLruStore.class);
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final Pattern keyPattern;
+    private final String entryName;
+
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long bytes;
+
+    /**
+     * Creates the store, loading the index of the files already in the directory when it is enabled.
+     *
+     * @param directory The directory the entries are stored under
+     * @param maxBytes The size limit of the stored entries, or 0 to disable the store
+     * @param keyPattern The pattern every key matches, used to recognise entries when loading the index
+     * @param entryName The name of an entry in log messages, such as "blob"
+     */
+    DiskLruStore(Path directory, long maxBytes, Pattern keyPattern, String entryName) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.keyPattern = keyPattern;
+        this.entryName = entryName;
+        if (maxBytes > 0) {
+            loadIndex();
+        }
+    }
+
+    boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    synchronized boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Returns the total size of the stored entries.
+     *
+     * @return The size in bytes
+     */
+    synchronized long size() {
+        return bytes;
+    }
+
+    /**
+     * Reads an entry and marks it as most recently used.
+     *
+     * @param key The key of the entry
+     * @return The contents of the entry, or null if it is not stored or cannot be read
+     */
+    byte[] read(String key) {
+        synchronized (this) {
+            if (entries.get(key) == null) {
+                return null;
+            }
+        }
+
+        Path file = path(key);
+        try {
+            byte[] contents = Files.readAllBytes(file);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return contents;
+        } catch (NoSuchFileException e) {
+            synchronized (this) {
+                Long size = entries.remove(key);
+                if (size != null) {
+                    bytes -= size;
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            log.warn("Could not read cached {} {}", entryName, key, e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores an entry made of the given parts, replacing any earlier entry with the same key,
+     * and evicts the least recently used entries until the store fits its size limit again.
+     * Nothing is stored when the store is disabled or the entry is larger than the limit.
+     *
+     * @param key The key of the entry
+     * @param parts The contents of the entry, written one after the other
+     */
+    void write(String key, byte[]... parts) {
+        long size = 0;
+        for (byte[] part : parts) {
+            size += part.length;
+        }
+        if (!isEnabled() || size > maxBytes) {
+            return;
+        }
+
+        Path file = path(key);
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = Files.createTempFile(file.getParent(), key, TEMP_SUFFIX);
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                for (byte[] part : parts) {
+                    out.write(part);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not write cached {} {}", entryName, key, e);
+            return;
+        }
+
+        List<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            Long previous = entries.put(key, size);
+            bytes += size - (previous != null ? previous : 0);
+            Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                Map.Entry<String, Long> entry = eldest.next();
+                bytes -= entry.getValue();
+                evicted.add(entry.getKey());
+                eldest.remove();
+            }
+        }
+        for (String evictedKey : evicted) {
+            try {
+                Files.deleteIfExists(path(evictedKey));
+            } catch (IOException e) {
+                log.warn("Could not evict cached {} {}", entryName, evictedKey, e);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the LRU order from file modification times, which are refreshed on every read, and
+     * deletes the temporary files of writes that never completed.
+     */
+    private void loadIndex() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        List<Path> stored = new ArrayList<>();
+        List<Path> temporary = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(directory, 2)) {
+            files.filter(Files::isRegularFile).forEach(file -> {
+                String name = file.getFileName().toString();
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    temporary.add(file);
+                } else if (keyPattern.matcher(name).matches()) {
+                    stored.add(file);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load cache index from " + directory, e);
+        }
+        stored.sort(Comparator.comparing(DiskLruStore::lastModified));
+        for (Path file : stored) {
+            long size = file.toFile().length();
+            entries.put(file.getFileName().toString(), size);
+            bytes += size;
+        }
+        for (Path file : temporary) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("Could not delete temporary cache file {}", file, e);
+            }
+        }
+        log.info("Loaded {} cached {}s ({} bytes) from {}, deleted {} temporary files", entries.size(), entryName,
+                bytes, directory, temporary.size());
+    }
+
+    private Path path(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
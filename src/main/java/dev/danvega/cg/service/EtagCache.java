@@ -0,0 +1,102 @@
+package dev.danvega.cg.service;
+
+import dev.danvega.cg.config.GitHubConfiguration;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.regex.Pattern;
+
+/**
+ * On-disk store of GitHub API responses together with their ETags, so that later requests
+ * for the same resource can be sent with {@code If-None-Match}. GitHub answers an unchanged
+ * resource with {@code 304 Not Modified}, which does not count against the rate limit, and
+ * the stored body is used in place of the response.
+ * <p>
+ * Entries live under the output directory, so they survive restarts, and are evicted in
+ * LRU order once the configured size is exceeded. Each entry is a single file holding the
+ * ETag on its first line followed by the response body.
+ */
+@Component
+public class EtagCache {
+    private static final Pattern KEY_HASH_PATTERN = Pattern.compile("[0-9a-f]{64}");
+
+    private final DiskLruStore disk;
+
+    /**
+     * A stored response.
+     *
+     * @param etag The ETag GitHub sent with the response
+     * @param body The response body
+     */
+    public record Entry(String etag, byte[] body) {
+    }
+
+    /**
+     * Creates the cache, loading the index of the stored responses when it is enabled.
+     *
+     * @param config The GitHub configuration holding the cache limits
+     * @param outputDirectory The output directory the responses are stored under
+     */
+    public EtagCache(GitHubConfiguration config, @Value("${app.output.directory}") String outputDirectory) {
+        GitHubConfiguration.EtagCacheSettings cacheConfig = config.etagCache();
+        this.disk = new DiskLruStore(Paths.get(outputDirectory, ".etag-cache"),
+                cacheConfig.enabled() ? cacheConfig.diskSize().toBytes() : 0, KEY_HASH_PATTERN, "response");
+    }
+
+    /**
+     * Looks up the stored response for a request.
+     *
+     * @param key The key identifying the request, such as its URL and accepted media type
+     * @return The stored response, or null if there is none
+     */
+    public Entry get(String key) {
+        byte[] bytes = disk.read(hash(key));
+        if (bytes == null) {
+            return null;
+        }
+        int lineEnd = indexOf(bytes, (byte) '\n');
+        if (lineEnd < 0) {
+            return null;
+        }
+        return new Entry(new String(bytes, 0, lineEnd, StandardCharsets.UTF_8),
+                Arrays.copyOfRange(bytes, lineEnd + 1, bytes.length));
+    }
+
+    /**
+     * Stores a response, replacing any earlier response for the same request.
+     *
+     * @param key The key identifying the request, such as its URL and accepted media type
+     * @param etag The ETag GitHub sent with the response
+     * @param body The response body
+     */
+    public void put(String key, String etag, byte[] body) {
+        if (etag == null || etag.indexOf('\n') >= 0 || etag.indexOf('\r') >= 0) {
+            return;
+        }
+        disk.write(hash(key), (etag + "\n").getBytes(StandardCharsets.UTF_8), body);
+    }
+
+    private static String hash(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(key.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static int indexOf(byte[] bytes, byte value) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,246 @@
+package dev.danvega.cg.service;
+
+import dev.danvega.cg.config.GitHubConfiguration;
+import dev.danvega.cg.model.OutputFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory cache of complete generated documents for GitHub repositories.
+ * Entries are keyed by the commit a document was generated from and a hash of the settings
+ * that select its files, so an entry never describes outdated content. Entries are evicted
+ * least recently used first once the memory budget is exceeded, and expire after the
+ * configured time to live.
+ */
+@Component
+public class GenerationCache {
+    private static final Logger log = LoggerFactory.getLogger(GenerationCache.class);
+
+    private final long maxBytes;
+    private final Duration ttl;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Identifies a generated document.
+     *
+     * @param repository The repository as {@code owner/repo}, lower case
+     * @param commitSha The commit the document is generated from
+     * @param settingsHash A hash of the fetch mode, the include and exclude patterns, the token limit, the size
+     *                     limits and the output format and minification
+     */
+    public record Key(String repository, String commitSha, String settingsHash) {
+
+        /**
+         * Creates the key of a document generated with the given settings.
+         *
+         * @param owner The owner of the repository
+         * @param repo The name of the repository
+         * @param commitSha The commit the document is generated from
+         * @param fetchMode The strategy the contents are fetched with. The strategies list files from different
+         *                  APIs, so their documents are not assumed to be identical
+         * @param includePatterns Patterns for files to include
+         * @param excludePatterns Patterns for files to exclude
+         * @param maxTokens The token limit, or null for no limit
+         * @param maxFileSize The largest file included, in bytes
+         * @param maxTotalSize The largest total size of the included files, in bytes
+         * @param format The layout of the document
+         * @param minify Whether source files are minified
+         * @param dedupe Whether duplicate files are written as references
+         * @return The cache key
+         */
+        public static Key of(String owner, String repo, String commitSha, GitHubConfiguration.FetchMode fetchMode,
+                             List<String> includePatterns, List<String> excludePatterns, Long maxTokens,
+                             long maxFileSize, long maxTotalSize, OutputFormat format, boolean minify, boolean dedupe) {
+            MessageDigest digest = sha256();
+            digest.update(fetchMode.name().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            for (String pattern : includePatterns) {
+                digest.update(pattern.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+            digest.update((byte) 0);
+            for (String pattern : excludePatterns) {
+                digest.update(pattern.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+            digest.update((byte) 0);
+            digest.update(String.valueOf(maxTokens).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update((maxFileSize + "\n" + maxTotalSize).getBytes(StandardCharsets.UTF_8));
+            if (format != OutputFormat.TEXT) {
+                digest.update((byte) 0);
+                digest.update(format.name().getBytes(StandardCharsets.UTF_8));
+            }
+            if (minify) {
+                digest.update((byte) 0);
+                digest.update("minify".getBytes(StandardCharsets.UTF_8));
+            }
+            if (dedupe) {
+                digest.update((byte) 0);
+                digest.update("dedupe".getBytes(StandardCharsets.UTF_8));
+            }
+            String settingsHash = HexFormat.of().formatHex(digest.digest(), 0, 16);
+            return new Key((owner + "/" + repo).toLowerCase(Locale.ROOT), commitSha, settingsHash);
+        }
+
+        /**
+         * Returns the strong entity tag of the document. It only depends on the key, so a
+         * client holding a document can be answered without the document being cached.
+         *
+         * @return the quoted entity tag
+         */
+        public String etag() {
+            return "\"" + commitSha + "-" + settingsHash + "\"";
+        }
+    }
+
+    /**
+     * A cached document.
+     *
+     * @param content The complete document
+     * @param fileOffsets The offsets at which the files of the document start
+     */
+    public record Document(byte[] content, long[] fileOffsets) {
+
+        /**
+         * Returns the number of files in the document.
+         *
+         * @return the number of files
+         */
+        public long files() {
+            return fileOffsets.length;
+        }
+    }
+
+    private record Entry(Document document, Instant expiresAt) {
+    }
+
+    /**
+     * Snapshot of the cache counters.
+     *
+     * @param hits Lookups served from the cache
+     * @param misses Lookups not found in the cache
+     * @param entries Documents currently cached
+     * @param bytes Bytes currently cached
+     */
+    public record Stats(long hits, long misses, int entries, long bytes) {
+    }
+
+    /**
+     * Creates the cache.
+     *
+     * @param memorySize The maximum total size of the cached documents, or zero to disable the cache
+     * @param ttl How long a document is kept after it was generated
+     */
+    public GenerationCache(@Value("${app.cache.memory-size:64MB}") DataSize memorySize,
+                           @Value("${app.cache.ttl:1h}") Duration ttl) {
+        this.maxBytes = memorySize.toBytes();
+        this.ttl = ttl;
+    }
+
+    /**
+     * Returns whether a document of the given size would be cached.
+     *
+     * @param size The size of the document in bytes
+     * @return true if the document fits into the memory budget
+     */
+    public boolean accepts(long size) {
+        return size <= maxBytes && !ttl.isZero() && !ttl.isNegative();
+    }
+
+    /**
+     * Looks up a document that has not expired.
+     *
+     * @param key The document key
+     * @return The cached document, or null if it is not cached
+     */
+    public synchronized Document get(Key key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expiresAt().isBefore(Instant.now())) {
+            remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.document();
+    }
+
+    /**
+     * Stores a document, evicting expired and then least recently used documents to stay
+     * within the memory budget. Documents larger than the budget are not stored.
+     *
+     * @param key The document key
+     * @param document The generated document
+     */
+    public synchronized void put(Key key, Document document) {
+        long size = document.content().length;
+        if (!accepts(size)) {
+            return;
+        }
+        remove(key);
+        Instant now = Instant.now();
+        entries.values().removeIf(entry -> {
+            if (entry.expiresAt().isBefore(now)) {
+                bytes -= entry.document().content().length;
+                return true;
+            }
+            return false;
+        });
+        entries.put(key, new Entry(document, now.plus(ttl)));
+        bytes += size;
+        Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<Key, Entry> evicted = eldest.next();
+            bytes -= evicted.getValue().document().content().length;
+            eldest.remove();
+            log.debug("Evicted cached document for {} at {}", evicted.getKey().repository(), evicted.getKey().commitSha());
+        }
+    }
+
+    /**
+     * Returns a snapshot of the hit and miss counters and the current cache size.
+     *
+     * @return the cache statistics
+     */
+    public synchronized Stats getStats() {
+        return new Stats(hits.get(), misses.get(), entries.size(), bytes);
+    }
+
+    private void remove(Key key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            bytes -= removed.document().content().length;
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
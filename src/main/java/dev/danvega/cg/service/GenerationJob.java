@@ -0,0 +1,103 @@
+package dev.danvega.cg.service;
+
+import dev.danvega.cg.model.GenerationRequest;
+import lombok.Getter;
+
+import java.nio.file.Path;
+import java.time.Instant;
+
+/**
+ * A document generation running in the background. The job's state and progress can be
+ * read from any thread while it runs; the finished document is kept in a result file.
+ */
+public class GenerationJob {
+    @Getter
+    private final String id;
+    @Getter
+    private final GenerationRequest request;
+    @Getter
+    private final String filename;
+    @Getter
+    private final Path resultFile;
+    @Getter
+    private final GenerationProgress progress = new GenerationProgress();
+    private final Instant createdAt = Instant.now();
+    @Getter
+    private volatile State state = State.QUEUED;
+    private volatile Instant startedAt;
+    @Getter
+    private volatile Instant finishedAt;
+    private volatile String error;
+
+    /**
+     * Lifecycle of a job.
+     */
+    public enum State {
+        QUEUED, RUNNING, COMPLETED, FAILED;
+
+        /**
+         * Returns whether the job has stopped, successfully or not.
+         *
+         * @return true for completed and failed jobs
+         */
+        public boolean isFinished() {
+            return this == COMPLETED || this == FAILED;
+        }
+    }
+
+    /**
+     * Point-in-time view of a job, as reported to clients.
+     *
+     * @param id The job id
+     * @param state The lifecycle state
+     * @param request The generation request the job runs
+     * @param progress The progress counters
+     * @param error The failure message of a failed job, otherwise null
+     * @param createdAt When the job was submitted
+     * @param startedAt When the job started running, or null while queued
+     * @param finishedAt When the job finished, or null while it is queued or running
+     */
+    public record Snapshot(String id, State state, GenerationRequest request, GenerationProgress.Snapshot progress,
+                           String error, Instant createdAt, Instant startedAt, Instant finishedAt) {
+    }
+
+    /**
+     * Creates a queued job.
+     *
+     * @param id The job id
+     * @param request The generation request to run
+     * @param filename The file name the result is offered under
+     * @param resultFile The file the generated document is written to
+     */
+    public GenerationJob(String id, GenerationRequest request, String filename, Path resultFile) {
+        this.id = id;
+        this.request = request;
+        this.filename = filename;
+        this.resultFile = resultFile;
+    }
+
+    void start() {
+        startedAt = Instant.now();
+        state = State.RUNNING;
+    }
+
+    void complete() {
+        finishedAt = Instant.now();
+        state = State.COMPLETED;
+    }
+
+    void fail(String message) {
+        error = message;
+        finishedAt = Instant.now();
+        state = State.FAILED;
+    }
+
+    /**
+     * Returns the current state and progress of the job.
+     *
+     * @return the job snapshot
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(id, state, request, progress.snapshot(), error, createdAt, startedAt, finishedAt);
+    }
+}
@@ -0,0 +1,175 @@
+package dev.danvega.cg.service;
+
+import dev.danvega.cg.model.GenerationRequest;
+import dev.danvega.cg.util.Compression;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Runs document generations as background jobs on a bounded executor, so that long
+ * generations do not hold an HTTP request open. Requests equal to a job that is still
+ * queued or running are attached to that job instead of starting another one. Finished
+ * jobs and their result files are kept for the configured retention period. Result files
+ * are compressed while they are written when {@code app.output.compression} asks for it.
+ */
+@Service
+public class GenerationJobService {
+    private static final Logger log = LoggerFactory.getLogger(GenerationJobService.class);
+
+    private final ContentGeneratorService contentGeneratorService;
+    private final ThreadPoolExecutor executor;
+    private final Path jobDirectory;
+    private final Compression compression;
+    private final Duration retention;
+    private final Map<String, GenerationJob> jobs = new ConcurrentHashMap<>();
+    private final Map<GenerationRequest, GenerationJob> activeJobs = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the service and removes result files left over from a previous run.
+     *
+     * @param contentGeneratorService The service generating the documents
+     * @param outputDirectory The output directory the result files are stored under
+     * @param compression The compression applied to the result files
+     * @param maxConcurrent The maximum number of jobs running at the same time
+     * @param queueCapacity The maximum number of jobs waiting to run
+     * @param retention How long finished jobs and their results are kept
+     */
+    public GenerationJobService(ContentGeneratorService contentGeneratorService,
+                                @Value("${app.output.directory}") String outputDirectory,
+                                @Value("${app.output.compression:none}") Compression compression,
+                                @Value("${app.jobs.max-concurrent:2}") int maxConcurrent,
+                                @Value("${app.jobs.queue-capacity:16}") int queueCapacity,
+                                @Value("${app.jobs.retention:1h}") Duration retention) {
+        if (maxConcurrent < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("app.jobs.max-concurrent and app.jobs.queue-capacity must be at least 1");
+        }
+        this.contentGeneratorService = contentGeneratorService;
+        this.retention = retention;
+        this.jobDirectory = Paths.get(outputDirectory, ".jobs");
+        this.compression = compression;
+        this.executor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), Thread.ofPlatform().name("generation-job-", 1).factory());
+        deleteResultFiles();
+    }
+
+    /**
+     * Submits a generation, or attaches to the queued or running job for an equal request.
+     *
+     * @param request The generation request
+     * @return The new or existing job
+     * @throws IllegalArgumentException If the request is invalid
+     * @throws RejectedExecutionException If the job queue is full
+     */
+    public GenerationJob submit(GenerationRequest request) {
+        contentGeneratorService.validateRequest(request);
+        removeExpiredJobs();
+
+        GenerationJob[] created = new GenerationJob[1];
+        GenerationJob job = activeJobs.computeIfAbsent(request, r -> {
+            String id = UUID.randomUUID().toString();
+            created[0] = new GenerationJob(id, r, contentGeneratorService.getOutputFilename(r), jobDirectory.resolve(id + compression.extension()));
+            return created[0];
+        });
+        if (created[0] == null) {
+            log.info("Attaching request to running job {}", job.getId());
+            return job;
+        }
+
+        jobs.put(job.getId(), job);
+        try {
+            executor.execute(() -> run(job));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            activeJobs.remove(request, job);
+            throw e;
+        }
+        log.info("Queued job {}", job.getId());
+        return job;
+    }
+
+    /**
+     * Looks up a job that has not expired.
+     *
+     * @param id The job id
+     * @return The job, or empty if it does not exist
+     */
+    public Optional<GenerationJob> getJob(String id) {
+        removeExpiredJobs();
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    private void run(GenerationJob job) {
+        job.start();
+        try {
+            Files.createDirectories(jobDirectory);
+            try (OutputStream out = compression.compress(Files.newOutputStream(job.getResultFile()))) {
+                contentGeneratorService.generateContent(job.getRequest(), job.getProgress(), out);
+            }
+            job.complete();
+            log.info("Job {} completed", job.getId());
+        } catch (IOException | RuntimeException e) {
+            log.error("Job {} failed", job.getId(), e);
+            job.fail(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+            deleteQuietly(job.getResultFile());
+        } finally {
+            activeJobs.remove(job.getRequest(), job);
+        }
+    }
+
+    private void removeExpiredJobs() {
+        Instant cutoff = Instant.now().minus(retention);
+        jobs.values().removeIf(job -> {
+            Instant finishedAt = job.getFinishedAt();
+            if (finishedAt == null || finishedAt.isAfter(cutoff)) {
+                return false;
+            }
+            deleteQuietly(job.getResultFile());
+            return true;
+        });
+    }
+
+    private void deleteResultFiles() {
+        if (!Files.isDirectory(jobDirectory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(jobDirectory)) {
+            files.forEach(GenerationJobService::deleteQuietly);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not clean job directory " + jobDirectory, e);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Could not delete job result {}", file, e);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,74 @@
+package dev.danvega.cg.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress counters of a running generation, safe to read from other threads while the
+ * document is being generated.
+ */
+public class GenerationProgress {
+    private final AtomicLong filesDiscovered = new AtomicLong();
+    private final AtomicLong filesExcluded = new AtomicLong();
+    private final AtomicLong filesFetched = new AtomicLong();
+    private volatile ContentWriter writer;
+
+    /**
+     * Point-in-time view of the counters.
+     *
+     * @param filesDiscovered Files selected for the document so far
+     * @param filesExcluded Files rejected by the include and exclude patterns; files below an
+     *                      excluded directory are never visited and not counted
+     * @param filesFetched Files whose content has been downloaded or read
+     * @param filesWritten Files written to the document
+     * @param bytesWritten Bytes written to the document
+     */
+    public record Snapshot(long filesDiscovered, long filesExcluded, long filesFetched, long filesWritten, long bytesWritten) {
+    }
+
+    /**
+     * Records files selected for download or reading.
+     *
+     * @param count The number of files
+     */
+    public void filesDiscovered(long count) {
+        filesDiscovered.addAndGet(count);
+    }
+
+    /**
+     * Records files rejected by the include and exclude patterns.
+     *
+     * @param count The number of files
+     */
+    public void filesExcluded(long count) {
+        filesExcluded.addAndGet(count);
+    }
+
+    /**
+     * Records files whose content is now available.
+     *
+     * @param count The number of files
+     */
+    public void filesFetched(long count) {
+        filesFetched.addAndGet(count);
+    }
+
+    /**
+     * Attaches the writer whose counters report the files and bytes written.
+     *
+     * @param writer The writer of the document
+     */
+    void attach(ContentWriter writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Returns the current counters.
+     *
+     * @return the progress snapshot
+     */
+    public Snapshot snapshot() {
+        ContentWriter current = writer;
+        return new Snapshot(filesDiscovered.get(), filesExcluded.get(), filesFetched.get(),
+                current != null ? current.getFilesWritten() : 0, current != null ? current.getPosition() : 0);
+    }
+}
@@ -0,0 +1,316 @@
+package dev.danvega.cg.service;
+
+import dev.danvega.cg.config.GitHubConfiguration;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Runs GitHub API calls with a bounded number of requests in flight and retries
+ * calls rejected by GitHub's primary or secondary rate limits. A rate limit response
+ * holds back every call, not only the rejected one: no call takes a request permit
+ * until the backoff it asked for is over.
+ * <p>
+ * Repositories generated side by side can be limited to a share of the request permits
+ * each, so that the calls of a large repository do not queue ahead of every call of the
+ * smaller ones.
+ * <p>
+ * Every call is timed per operation, together with the time spent waiting for a request
+ * permit, and the rate-limit headroom GitHub reports in its response headers is exposed
+ * as gauges per rate-limit resource.
+ */
+@Component
+public class GitHubRequestExecutor {
+    private static final Logger log = LoggerFactory.getLogger(GitHubRequestExecutor.class);
+    private static final Duration MAX_BACKOFF = Duration.ofMinutes(2);
+
+    private final Semaphore permits;
+    private final int maxConcurrentRequests;
+    private final int maxRetries;
+    private final Duration retryBackoff;
+    private final MeterRegistry meterRegistry;
+    private final Timer permitWait;
+    private final Counter forbiddenRetries;
+    private final Counter tooManyRequestsRetries;
+    private final Map<String, RequestTimers> requestTimers = new ConcurrentHashMap<>();
+    private final Map<String, RateLimit> rateLimits = new ConcurrentHashMap<>();
+    /** The {@link System#nanoTime()} before which no request is sent, after a rate limit response. */
+    private final AtomicLong notBefore = new AtomicLong(System.nanoTime());
+    /** The share of the request permits of the repository whose calls run on the current thread, if limited. */
+    private final ThreadLocal<Semaphore> repositoryPermits = new ThreadLocal<>();
+
+    /**
+     * Last rate-limit headers seen for one GitHub rate-limit resource.
+     */
+    private record RateLimit(AtomicLong limit, AtomicLong remaining) {
+    }
+
+    /**
+     * Timers of the calls of one operation, by outcome.
+     */
+    private record RequestTimers(Timer success, Timer error) {
+    }
+
+    /**
+     * The share of the request permits a repository is limited to, lifted when closed.
+     */
+    public interface RepositoryLimit extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * Creates a new executor using the concurrency and retry settings of the GitHub configuration.
+     *
+     * @param config The GitHub configuration
+     * @param meterRegistry The registry receiving the request metrics
+     */
+    public GitHubRequestExecutor(GitHubConfiguration config, MeterRegistry meterRegistry) {
+        this.permits = new Semaphore(config.maxConcurrentRequests(), true);
+        this.maxConcurrentRequests = config.maxConcurrentRequests();
+        this.maxRetries = config.maxRetries();
+        this.retryBackoff = config.retryBackoff();
+        this.meterRegistry = meterRegistry;
+        this.permitWait = Timer.builder("cg.github.permit.wait")
+                .description("Time GitHub API calls wait for a request permit")
+                .register(meterRegistry);
+        this.forbiddenRetries = registerRetries(HttpStatus.FORBIDDEN);
+        this.tooManyRequestsRetries = registerRetries(HttpStatus.TOO_MANY_REQUESTS);
+    }
+
+    /**
+     * Creates an executor that starts one virtual thread per submitted download.
+     * Concurrency is bounded by {@link #execute(String, Supplier)}, not by the executor itself.
+     * The downloads are held to the repository limit of the calling thread, if any.
+     *
+     * @return A new virtual thread executor, to be closed by the caller
+     */
+    public ExecutorService newDownloadExecutor() {
+        Semaphore share = repositoryPermits.get();
+        if (share == null) {
+            return Executors.newVirtualThreadPerTaskExecutor();
+        }
+        ThreadFactory threads = Thread.ofVirtual().factory();
+        return Executors.newThreadPerTaskExecutor(download -> threads.newThread(() -> {
+            repositoryPermits.set(share);
+            download.run();
+        }));
+    }
+
+    /**
+     * Limits the calls of the current thread, and of the download executors it creates, to the share of
+     * the request permits of one of the given number of repositories generated at the same time.
+     *
+     * @param repositories The number of repositories sharing the request permits
+     * @return The limit, to be closed once the repository is generated
+     */
+    public RepositoryLimit limitRepository(int repositories) {
+        int share = Math.max(1, Math.ceilDiv(maxConcurrentRequests, Math.max(1, repositories)));
+        repositoryPermits.set(new Semaphore(share, true));
+        return repositoryPermits::remove;
+    }
+
+    /**
+     * Executes a GitHub API call once a request permit is available and no backoff is pending,
+     * backing off and retrying when GitHub answers with a rate limit response.
+     *
+     * @param operation The kind of call, used to tag its timer
+     * @param request The API call to execute
+     * @param <T> The type of the response
+     * @return The response of the API call
+     */
+    public <T> T execute(String operation, Supplier<T> request) {
+        RequestTimers timers = requestTimers.computeIfAbsent(operation, this::registerRequestTimers);
+        Semaphore share = repositoryPermits.get();
+        for (int attempt = 0; ; attempt++) {
+            try {
+                long waitStart = System.nanoTime();
+                acquirePermit(share);
+                permitWait.record(Duration.ofNanos(System.nanoTime() - waitStart));
+                long start = System.nanoTime();
+                Timer timer = timers.error();
+                try {
+                    T response = request.get();
+                    timer = timers.success();
+                    return response;
+                } finally {
+                    releasePermit(share);
+                    timer.record(Duration.ofNanos(System.nanoTime() - start));
+                }
+            } catch (HttpClientErrorException e) {
+                recordRateLimit(e.getResponseHeaders());
+                if (!isRateLimited(e) || attempt >= maxRetries) {
+                    throw e;
+                }
+                Duration delay = backoffDelay(e, attempt);
+                long until = System.nanoTime() + delay.toNanos();
+                notBefore.accumulateAndGet(until, (current, next) -> next - current > 0 ? next : current);
+                Counter retries = e.getStatusCode().value() == HttpStatus.FORBIDDEN.value()
+                        ? forbiddenRetries : tooManyRequestsRetries;
+                retries.increment();
+                log.warn("GitHub rate limit hit ({}), retrying in {} ms (attempt {} of {})",
+                        e.getStatusCode(), delay.toMillis(), attempt + 1, maxRetries);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for a GitHub request permit", e);
+            }
+        }
+    }
+
+    /**
+     * Takes a permit of the repository share, if any, then a request permit once no backoff is pending.
+     * A backoff that starts while the request permit is awaited is waited out with the permit handed
+     * back, so that other calls can be held back too.
+     */
+    private void acquirePermit(Semaphore share) throws InterruptedException {
+        if (share != null) {
+            share.acquire();
+        }
+        try {
+            while (true) {
+                for (long wait = backoffLeft(); wait > 0; wait = backoffLeft()) {
+                    Thread.sleep(Duration.ofNanos(wait));
+                }
+                permits.acquire();
+                if (backoffLeft() <= 0) {
+                    return;
+                }
+                permits.release();
+            }
+        } catch (InterruptedException e) {
+            if (share != null) {
+                share.release();
+            }
+            throw e;
+        }
+    }
+
+    private void releasePermit(Semaphore share) {
+        permits.release();
+        if (share != null) {
+            share.release();
+        }
+    }
+
+    private long backoffLeft() {
+        return notBefore.get() - System.nanoTime();
+    }
+
+    private RequestTimers registerRequestTimers(String operation) {
+        return new RequestTimers(registerRequestTimer(operation, "success"), registerRequestTimer(operation, "error"));
+    }
+
+    private Timer registerRequestTimer(String operation, String outcome) {
+        return Timer.builder("cg.github.requests")
+                .description("GitHub API calls")
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private Counter registerRetries(HttpStatus status) {
+        return Counter.builder("cg.github.retries")
+                .description("GitHub API calls retried after a rate limit response")
+                .tag("status", String.valueOf(status.value()))
+                .register(meterRegistry);
+    }
+
+    /**
+     * Updates the rate-limit gauges from the headers of a GitHub response.
+     *
+     * @param headers The response headers, or null if there were none
+     */
+    public void recordRateLimit(HttpHeaders headers) {
+        if (headers == null) {
+            return;
+        }
+        String limit = headers.getFirst("x-ratelimit-limit");
+        String remaining = headers.getFirst("x-ratelimit-remaining");
+        if (!isNumber(limit) || !isNumber(remaining)) {
+            return;
+        }
+        String resource = headers.getFirst("x-ratelimit-resource");
+        RateLimit rateLimit = rateLimits.computeIfAbsent(resource != null ? resource : "core", this::registerRateLimit);
+        rateLimit.limit().set(Long.parseLong(limit));
+        rateLimit.remaining().set(Long.parseLong(remaining));
+    }
+
+    private RateLimit registerRateLimit(String resource) {
+        RateLimit rateLimit = new RateLimit(new AtomicLong(), new AtomicLong());
+        Gauge.builder("cg.github.ratelimit.limit", rateLimit.limit(), AtomicLong::get)
+                .description("Requests allowed per rate-limit window, as last reported by GitHub")
+                .tag("resource", resource)
+                .register(meterRegistry);
+        Gauge.builder("cg.github.ratelimit.remaining", rateLimit.remaining(), AtomicLong::get)
+                .description("Requests left in the current rate-limit window, as last reported by GitHub")
+                .tag("resource", resource)
+                .register(meterRegistry);
+        return rateLimit;
+    }
+
+    private static boolean isNumber(String value) {
+        return value != null && !value.isEmpty() && value.chars().allMatch(Character::isDigit);
+    }
+
+    private boolean isRateLimited(HttpClientErrorException e) {
+        if (e.getStatusCode().value() == HttpStatus.TOO_MANY_REQUESTS.value()) {
+            return true;
+        }
+        if (e.getStatusCode().value() != HttpStatus.FORBIDDEN.value()) {
+            return false;
+        }
+        HttpHeaders headers = e.getResponseHeaders();
+        if (headers != null && (headers.containsKey(HttpHeaders.RETRY_AFTER)
+                || "0".equals(headers.getFirst("x-ratelimit-remaining")))) {
+            return true;
+        }
+        return e.getResponseBodyAsString().toLowerCase().contains("rate limit");
+    }
+
+    /**
+     * Determines how long to wait before retrying, preferring the hints GitHub sends
+     * over exponential backoff with jitter.
+     */
+    private Duration backoffDelay(HttpClientErrorException e, int attempt) {
+        HttpHeaders headers = e.getResponseHeaders();
+        if (headers != null) {
+            String retryAfter = headers.getFirst(HttpHeaders.RETRY_AFTER);
+            if (retryAfter != null && retryAfter.chars().allMatch(Character::isDigit)) {
+                return min(Duration.ofSeconds(Long.parseLong(retryAfter)));
+            }
+            String reset = headers.getFirst("x-ratelimit-reset");
+            if ("0".equals(headers.getFirst("x-ratelimit-remaining")) && reset != null
+                    && reset.chars().allMatch(Character::isDigit)) {
+                Duration untilReset = Duration.between(Instant.now(), Instant.ofEpochSecond(Long.parseLong(reset)));
+                if (!untilReset.isNegative()) {
+                    return min(untilReset.plusSeconds(1));
+                }
+            }
+        }
+        long base = retryBackoff.toMillis() << Math.min(attempt, 16);
+        return min(Duration.ofMillis(base + ThreadLocalRandom.current().nextLong(retryBackoff.toMillis() + 1)));
+    }
+
+    private Duration min(Duration delay) {
+        return delay.compareTo(MAX_BACKOFF) > 0 ? MAX_BACKOFF : delay;
+    }
+}
@@ -1,20 +1,55 @@
 package dev.danvega.cg.service;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.danvega.cg.config.GitHubConfiguration;
 import dev.danvega.cg.model.GitHubContent;
+import dev.danvega.cg.model.GitHubTree;
+import dev.danvega.cg.model.GitHubTreeEntry;
+import dev.danvega.cg.model.RepositoryFile;
+import dev.danvega.cg.util.BinaryFiles;
+import dev.danvega.cg.util.BlobHash;
+import dev.danvega.cg.util.PathFilter;
 import dev.danvega.cg.util.PathUtils;
+import dev.danvega.cg.util.TokenCounter;
+import dev.danvega.cg.util.TarReader;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
 import org.springframework.web.client.RestClient;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Service class for interacting with GitHub API and downloading repository contents.
@@ -24,8 +59,22 @@ import java.util.List;
 @Service
 public class GitHubService {
     private static final Logger log = LoggerFactory.getLogger(GitHubService.class);
+    private static final String DEFAULT_REF = "HEAD";
+    private static final Base64.Decoder CONTENT_DECODER = Base64.getMimeDecoder();
+    private static final MediaType COMMIT_SHA_MEDIA_TYPE = MediaType.parseMediaType("application/vnd.github.sha");
+    private static final Future<List<RepositoryFile>> END_OF_PARTS = CompletableFuture.completedFuture(List.of());
+    private static final long PUT_RETRY_INTERVAL_MILLIS = 100;
     private final PathUtils pathUtils;
+    private final GitHubConfiguration config;
+    private final GitHubRequestExecutor requestExecutor;
+    private final BlobCache blobCache;
+    private final EtagCache etagCache;
+    private final ObjectMapper objectMapper;
     private final RestClient restClient;
+    private final Counter base64BytesDecoded;
+    private final Counter gzipBytesDecoded;
+    private final Counter notModifiedResponses;
+    private final Counter modifiedResponses;
 
     @Value("${github.token}")
     private String token;
@@ -33,49 +82,192 @@ public class GitHubService {
     /**
      * Constructs a new GithubService with the specified dependencies.
      *
+     * @param config The GitHub configuration controlling how contents are fetched.
+     * @param requestExecutor The executor bounding and retrying GitHub API calls.
+     * @param blobCache The cache of previously downloaded file contents.
+     * @param etagCache The store of responses revalidated with conditional requests.
+     * @param objectMapper The mapper reading JSON responses.
      * @param builder The RestClient.Builder to use for creating the RestClient.
+     * @param meterRegistry The registry receiving the decoding and conditional request metrics.
      */
-    public GitHubService(PathUtils pathUtils, RestClient.Builder builder) {
+    public GitHubService(PathUtils pathUtils, GitHubConfiguration config, GitHubRequestExecutor requestExecutor,
+                         BlobCache blobCache, EtagCache etagCache, ObjectMapper objectMapper,
+                         RestClient.Builder builder, MeterRegistry meterRegistry) {
         this.pathUtils = pathUtils;
+        this.config = config;
+        this.requestExecutor = requestExecutor;
+        this.blobCache = blobCache;
+        this.etagCache = etagCache;
+        this.objectMapper = objectMapper;
         this.restClient = builder
-                .baseUrl("https://api.github.com")
+                .baseUrl(config.apiUrl())
                 .defaultHeader("Accept", "application/vnd.github+json")
                 .defaultHeader("X-GitHub-Api-Version", "2022-11-28")
+                .requestInterceptor((request, body, execution) -> {
+                    ClientHttpResponse response = execution.execute(request, body);
+                    requestExecutor.recordRateLimit(response.getHeaders());
+                    return response;
+                })
                 .build();
+        this.base64BytesDecoded = decodedBytesCounter(meterRegistry, "base64");
+        this.gzipBytesDecoded = decodedBytesCounter(meterRegistry, "gzip");
+        this.notModifiedResponses = conditionalRequestCounter(meterRegistry, "not_modified");
+        this.modifiedResponses = conditionalRequestCounter(meterRegistry, "modified");
+    }
+
+    private static Counter decodedBytesCounter(MeterRegistry meterRegistry, String encoding) {
+        return Counter.builder("cg.github.bytes.decoded")
+                .description("Bytes of file content decoded from GitHub responses")
+                .baseUnit("bytes")
+                .tag("encoding", encoding)
+                .register(meterRegistry);
+    }
+
+    private static Counter conditionalRequestCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("cg.github.conditional.requests")
+                .description("GitHub API calls sent with a stored ETag, by whether the resource had changed")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Resolves the strategy contents are fetched with.
+     *
+     * @param fetchMode The requested strategy, or null for the configured default
+     * @return The strategy used
+     */
+    public GitHubConfiguration.FetchMode resolveFetchMode(GitHubConfiguration.FetchMode fetchMode) {
+        return fetchMode != null ? fetchMode : config.fetchMode();
+    }
+
+    /**
+     * Resolves the commit the repository's default branch currently points to. This is a
+     * single cheap API call, and pinning a download to the returned SHA identifies the
+     * generated document exactly. While the branch does not move, the call is answered
+     * with {@code 304 Not Modified} and does not count against the rate limit.
+     *
+     * @param owner The owner of the repository.
+     * @param repo The name of the repository.
+     * @return The SHA of the head commit.
+     */
+    public String resolveHeadCommit(String owner, String repo) {
+        RestClient client = authenticatedClient();
+        String sha = new String(getConditionally(client, "commit", COMMIT_SHA_MEDIA_TYPE,
+                "/repos/{owner}/{repo}/commits/{ref}", owner, repo, DEFAULT_REF), StandardCharsets.UTF_8);
+        if (sha.isBlank()) {
+            throw new IllegalStateException("GitHub returned no head commit for " + owner + "/" + repo);
+        }
+        return sha.trim();
+    }
+
+    /**
+     * Counts the files of a repository per extension from a single recursive tree listing,
+     * without downloading any file content. The listing is fetched the same way as in the tree
+     * fetch mode, so a following download from the same commit revalidates it for free.
+     *
+     * @param owner The owner of the repository.
+     * @param repo The name of the repository.
+     * @param ref The commit SHA or other git ref to list, or null for the default branch
+     * @param skipDirectory Tests whether a directory and everything below it should not be counted
+     * @return The number of files per lower-case extension
+     */
+    public Map<String, Long> getExtensionHistogram(String owner, String repo, String ref, Predicate<String> skipDirectory) {
+        GitHubTree tree = getRepositoryTree(authenticatedClient(), owner, repo, ref != null ? ref : DEFAULT_REF);
+        if (tree.truncated()) {
+            log.warn("Tree listing for {}/{} was truncated, detecting the language from a partial listing", owner, repo);
+        }
+        Map<String, Long> histogram = new HashMap<>();
+        String skippedPrefix = null;
+        for (GitHubTreeEntry entry : tree.tree()) {
+            if (skippedPrefix != null && entry.path().startsWith(skippedPrefix)) {
+                continue;
+            }
+            skippedPrefix = null;
+            if ("tree".equals(entry.type()) && skipDirectory.test(entry.path())) {
+                skippedPrefix = entry.path() + "/";
+            } else if ("blob".equals(entry.type())) {
+                histogram.merge(PathUtils.getExtension(entry.path()), 1L, Long::sum);
+            }
+        }
+        return histogram;
     }
 
     /**
      * Downloads the contents of a specified GitHub repository filtered by language patterns
-     * and writes them to a file.
+     * and writes them to the given writer. Files are downloaded concurrently on virtual threads
+     * and written as soon as they are available, while the output keeps the order in which the
+     * files were discovered. With a limited token budget, files whose listed size rules them
+     * out are not downloaded at all. For a deduplicating writer, files whose listed SHA was already
+     * listed for an earlier file are not downloaded either, and are written as references.
      *
      * @param owner The owner of the repository.
      * @param repo The name of the repository.
+     * @param ref The commit SHA or other git ref to download, or null for the default branch
      * @param includePatterns Patterns for files to include
      * @param excludePatterns Patterns for files to exclude
-     * @param outputFilename The name of the output file
+     * @param fetchMode The strategy used to fetch the contents, or null for the configured default
+     * @param budget The token budget limiting which files are written
+     * @param sizeBudget The size limits deciding from listed sizes which files are fetched
+     * @param progress The progress counters to update
+     * @param writer The writer receiving the included files
      * @throws IOException If an I/O error occurs.
      */
     public void downloadRepositoryContentsForLanguage(
             String owner,
             String repo,
+            String ref,
             List<String> includePatterns,
             List<String> excludePatterns,
-            String outputFilename) throws IOException {
-
-        StringBuilder contentBuilder = new StringBuilder();
+            GitHubConfiguration.FetchMode fetchMode,
+            TokenBudget budget,
+            SizeBudget sizeBudget,
+            GenerationProgress progress,
+            ContentWriter writer) throws IOException {
 
-        RestClient authenticatedClient = this.restClient.mutate()
-                .defaultHeader("Authorization", "Bearer " + token)
-                .build();
-
-        downloadContentsRecursively(authenticatedClient, owner, repo, "", contentBuilder, includePatterns, excludePatterns);
+        RestClient authenticatedClient = authenticatedClient();
+        String gitRef = ref != null ? ref : DEFAULT_REF;
+        PathFilter filter = pathUtils.getPathFilter(includePatterns, excludePatterns);
+        GitHubConfiguration.FetchMode mode = resolveFetchMode(fetchMode);
+        if (mode == GitHubConfiguration.FetchMode.ARCHIVE) {
+            downloadContentsFromArchive(authenticatedClient, owner, repo, gitRef, filter, budget, sizeBudget, progress,
+                    writer);
+            return;
+        }
 
-        Path outputDir = Paths.get("output");
-        Files.createDirectories(outputDir);
-        Path outputFile = outputDir.resolve(outputFilename);
-        Files.write(outputFile, contentBuilder.toString().getBytes());
+        BlockingQueue<Future<List<RepositoryFile>>> parts = new LinkedBlockingQueue<>(config.maxConcurrentRequests() * 2);
+        try (ExecutorService executor = requestExecutor.newDownloadExecutor()) {
+            Future<?> discovery = executor.submit(() -> {
+                try {
+                    Set<String> listedShas = writer.isDeduplicating() ? new HashSet<>() : null;
+                    if (mode == GitHubConfiguration.FetchMode.TREE) {
+                        downloadContentsFromTree(authenticatedClient, owner, repo, gitRef, executor, parts, filter,
+                                budget, sizeBudget, progress, listedShas);
+                    } else {
+                        downloadContentsRecursively(authenticatedClient, owner, repo, gitRef, "", executor, parts, filter,
+                                budget, sizeBudget, progress, listedShas);
+                    }
+                } finally {
+                    putPart(parts, END_OF_PARTS, executor);
+                }
+                return null;
+            });
 
-        log.info("Repository contents written to: {}", outputFile.toAbsolutePath());
+            try {
+                for (Future<List<RepositoryFile>> part = takePart(parts); part != END_OF_PARTS; part = takePart(parts)) {
+                    for (RepositoryFile file : await(part)) {
+                        writeWithinBudget(file, budget, sizeBudget, writer);
+                    }
+                }
+                await(discovery);
+                BlobCache.Stats stats = blobCache.getStats();
+                log.info("Blob cache totals: {} memory hits, {} disk hits, {} misses", stats.memoryHits(), stats.diskHits(), stats.misses());
+                logBudget(budget, sizeBudget);
+            } catch (IOException | RuntimeException e) {
+                executor.shutdownNow();
+                parts.clear();
+                throw e;
+            }
+        }
     }
 
     /**
@@ -84,68 +276,704 @@ public class GitHubService {
      * @param client The authenticated REST client
      * @param owner The owner of the repository.
      * @param repo The name of the repository.
+     * @param ref The commit SHA or git ref to download.
      * @param path The path within the repository to download.
-     * @param contentBuilder The StringBuilder to append the content to.
-     * @param includePatterns Patterns for files to include
-     * @param excludePatterns Patterns for files to exclude
+     * @param executor The executor running the file downloads.
+     * @param parts The ordered queue of pending output parts to add downloads to.
+     * @param filter The compiled include and exclude patterns
+     * @param budget The token budget limiting which files are downloaded
+     * @param sizeBudget The size limits deciding from listed sizes which files are downloaded
+     * @param progress The progress counters to update
+     * @param listedShas The SHAs of the files listed so far, or null to download duplicates too
      */
     private void downloadContentsRecursively(
             RestClient client,
             String owner,
             String repo,
+            String ref,
             String path,
-            StringBuilder contentBuilder,
-            List<String> includePatterns,
-            List<String> excludePatterns) {
+            ExecutorService executor,
+            BlockingQueue<Future<List<RepositoryFile>>> parts,
+            PathFilter filter,
+            TokenBudget budget,
+            SizeBudget sizeBudget,
+            GenerationProgress progress,
+            Set<String> listedShas) throws InterruptedException {
 
-        List<GitHubContent> contents = getRepositoryContents(client, owner, repo, path);
+        List<GitHubContent> contents = getRepositoryContents(client, owner, repo, ref, path);
 
         for (GitHubContent content : contents) {
-            if ("file".equals(content.type()) && pathUtils.shouldIncludeFile(content.path(), includePatterns, excludePatterns)) {
-                log.info("Downloading file: {}", content.path());
-                String fileContent = getFileContent(client, owner, repo, content.path());
-                contentBuilder.append("File: ").append(content.path()).append("\n\n");
-                contentBuilder.append(fileContent).append("\n\n");
-            } else if ("dir".equals(content.type()) && !pathUtils.isExcludedDirectory(content.path(), excludePatterns)) {
-                downloadContentsRecursively(client, owner, repo, content.path(), contentBuilder, includePatterns, excludePatterns);
+            if ("file".equals(content.type()) && !filter.shouldInclude(content.path())) {
+                log.debug("Skipping excluded file: {}", content.path());
+                progress.filesExcluded(1);
+            } else if ("file".equals(content.type())) {
+                boolean duplicate = listedShas != null && content.sha() != null && listedShas.contains(content.sha());
+                long size = duplicate ? 0 : parseSize(content.size());
+                if (!sizeBudget.admit(size)) {
+                    log.debug("Skipping file over size limit: {}", content.path());
+                    continue;
+                }
+                if (!budget.mayFit(content.path(), size)) {
+                    log.debug("Skipping file over token budget: {}", content.path());
+                    sizeBudget.release(size);
+                    continue;
+                }
+                progress.filesDiscovered(1);
+                if (duplicate) {
+                    RepositoryFile reference = new RepositoryFile(content.path(), null, content.sha(), 0);
+                    putPart(parts, CompletableFuture.completedFuture(List.of(reference)), executor);
+                    continue;
+                }
+                if (listedShas != null && content.sha() != null) {
+                    listedShas.add(content.sha());
+                }
+                putPart(parts, executor.submit(counted(progress, () -> {
+                    String fileContent = getFileContent(client, owner, repo, ref, content.path(), content.sha());
+                    if (fileContent == null) {
+                        release(content.path(), size, budget, sizeBudget);
+                        return List.of();
+                    }
+                    return List.of(new RepositoryFile(content.path(), fileContent, content.sha(), size));
+                })), executor);
+            } else if ("dir".equals(content.type()) && !filter.isExcludedDirectory(content.path())) {
+                downloadContentsRecursively(client, owner, repo, ref, content.path(), executor, parts, filter, budget,
+                        sizeBudget, progress, listedShas);
             } else {
                 log.debug("Skipping content: {} of type {}", content.path(), content.type());
             }
         }
     }
 
+    /**
+     * Downloads the contents of a repository using a single recursive git tree listing.
+     * The file list is filtered before any content is fetched, and the selected blobs are
+     * then downloaded in batches through the GraphQL API. Blobs already in the cache are
+     * not counted towards a batch, so every request carries a full batch of uncached blobs. Neither
+     * are duplicates of blobs selected earlier when deduplicating, which are not downloaded at all.
+     * Falls back to the recursive contents walk when GitHub truncates the tree.
+     *
+     * @param client The authenticated REST client
+     * @param owner The owner of the repository.
+     * @param repo The name of the repository.
+     * @param ref The commit SHA or git ref to download.
+     * @param executor The executor running the blob batch downloads.
+     * @param parts The ordered queue of pending output parts to add downloads to.
+     * @param filter The compiled include and exclude patterns
+     * @param budget The token budget limiting which files are downloaded
+     * @param sizeBudget The size limits deciding from listed sizes which files are downloaded
+     * @param progress The progress counters to update
+     * @param listedShas The SHAs of the files listed so far, or null to download duplicates too
+     */
+    private void downloadContentsFromTree(
+            RestClient client,
+            String owner,
+            String repo,
+            String ref,
+            ExecutorService executor,
+            BlockingQueue<Future<List<RepositoryFile>>> parts,
+            PathFilter filter,
+            TokenBudget budget,
+            SizeBudget sizeBudget,
+            GenerationProgress progress,
+            Set<String> listedShas) throws InterruptedException {
+
+        GitHubTree tree = getRepositoryTree(client, owner, repo, ref);
+        if (tree.truncated()) {
+            log.warn("Tree listing for {}/{} was truncated, falling back to contents walk", owner, repo);
+            downloadContentsRecursively(client, owner, repo, ref, "", executor, parts, filter, budget, sizeBudget,
+                    progress, listedShas);
+            return;
+        }
+
+        Set<String> duplicates = listedShas != null ? new HashSet<>() : null;
+        List<GitHubTreeEntry> selected = selectTreeEntries(tree.tree(), filter, budget, sizeBudget, progress, listedShas,
+                duplicates);
+        log.info("Selected {} of {} tree entries for {}/{}", selected.size(), tree.tree().size(), owner, repo);
+        progress.filesDiscovered(selected.size());
+
+        int start = 0;
+        while (start < selected.size()) {
+            int end = start;
+            int uncached = 0;
+            int cached = 0;
+            while (end < selected.size() && uncached < config.blobBatchSize() && cached < config.blobBatchSize()) {
+                if (duplicates != null && duplicates.contains(selected.get(end).path())) {
+                    end++;
+                    continue;
+                }
+                if (blobCache.contains(selected.get(end).sha())) {
+                    cached++;
+                } else {
+                    uncached++;
+                }
+                end++;
+            }
+            List<GitHubTreeEntry> batch = selected.subList(start, end);
+            putPart(parts, executor.submit(counted(progress,
+                    () -> downloadBlobBatch(client, owner, repo, ref, batch, duplicates, budget, sizeBudget))),
+                    executor);
+            start = end;
+        }
+    }
+
+    /**
+     * Downloads a batch of tree entries, serving cached blobs from the blob cache and
+     * fetching the rest with a single GraphQL request.
+     *
+     * @param client The authenticated REST client
+     * @param owner The owner of the repository.
+     * @param repo The name of the repository.
+     * @param ref The commit SHA or git ref to download.
+     * @param batch The tree entries to download, in output order.
+     * @param duplicates The paths of the entries that are written as references without content, or null for none
+     * @param budget The token budget the entries were selected with, which binary entries are released from
+     * @param sizeBudget The size limits the entries were selected with, which binary entries are released from
+     * @return The downloaded files, in the order of the batch, without content for duplicates.
+     */
+    private List<RepositoryFile> downloadBlobBatch(RestClient client, String owner, String repo, String ref,
+                                                   List<GitHubTreeEntry> batch, Set<String> duplicates,
+                                                   TokenBudget budget, SizeBudget sizeBudget) {
+        String[] contents = new String[batch.size()];
+        List<GitHubTreeEntry> uncached = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            if (duplicates != null && duplicates.contains(batch.get(i).path())) {
+                continue;
+            }
+            contents[i] = blobCache.get(batch.get(i).sha());
+            if (contents[i] == null) {
+                uncached.add(batch.get(i));
+            }
+        }
+
+        Map<String, String> blobs = uncached.isEmpty() ? Map.of() : getBlobBatch(client, owner, repo, uncached);
+        List<RepositoryFile> files = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            GitHubTreeEntry entry = batch.get(i);
+            String fileContent = contents[i];
+            if (duplicates != null && duplicates.contains(entry.path())) {
+                files.add(new RepositoryFile(entry.path(), null, entry.sha(), 0));
+                continue;
+            }
+            long size = entry.size() != null ? entry.size() : 0;
+            if (fileContent == null) {
+                if (blobs.containsKey(entry.sha()) && blobs.get(entry.sha()) == null) {
+                    log.debug("Skipping binary file: {}", entry.path());
+                    release(entry.path(), size, budget, sizeBudget);
+                    continue;
+                }
+                fileContent = blobs.get(entry.sha());
+                if (fileContent != null) {
+                    blobCache.put(entry.sha(), fileContent);
+                } else {
+                    log.debug("Falling back to contents API for: {}", entry.path());
+                    fileContent = downloadFileContent(client, owner, repo, ref, entry.path());
+                    if (fileContent == null) {
+                        release(entry.path(), size, budget, sizeBudget);
+                        continue;
+                    }
+                }
+            }
+            files.add(new RepositoryFile(entry.path(), fileContent, entry.sha(), size));
+        }
+        return files;
+    }
+
+    private RestClient authenticatedClient() {
+        return this.restClient.mutate()
+                .defaultHeader("Authorization", "Bearer " + token)
+                .build();
+    }
+
+    /**
+     * Wraps a download so that its files are counted as fetched once it completes.
+     */
+    private static Callable<List<RepositoryFile>> counted(GenerationProgress progress,
+                                                          Callable<List<RepositoryFile>> download) {
+        return () -> {
+            List<RepositoryFile> files = download.call();
+            progress.filesFetched(files.size());
+            return files;
+        };
+    }
+
+    /**
+     * Adds a pending output part to the queue, waiting while the queue is full. The wait gives up
+     * once the executor has been shut down because the consumer stopped writing, since nothing
+     * drains the queue any more, even when the interrupt that came with the shutdown was lost.
+     *
+     * @param parts The ordered queue of pending output parts
+     * @param part The pending output part to add
+     * @param executor The executor running the downloads
+     * @throws InterruptedException If the thread is interrupted while waiting
+     * @throws CancellationException If the download was aborted
+     */
+    private static void putPart(BlockingQueue<Future<List<RepositoryFile>>> parts, Future<List<RepositoryFile>> part,
+                                ExecutorService executor) throws InterruptedException {
+        while (!parts.offer(part, PUT_RETRY_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (executor.isShutdown()) {
+                throw new CancellationException("Download was aborted");
+            }
+        }
+    }
+
+    /**
+     * Takes the next pending output part from the queue.
+     *
+     * @param parts The ordered queue of pending output parts
+     * @return The next pending output part
+     */
+    private Future<List<RepositoryFile>> takePart(BlockingQueue<Future<List<RepositoryFile>>> parts) {
+        try {
+            return parts.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for download", e);
+        }
+    }
+
+    /**
+     * Waits for a pending download, rethrowing any failure of the download.
+     *
+     * @param future The pending download
+     * @return The result of the download
+     */
+    private <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Download failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for download", e);
+        }
+    }
+
+    /**
+     * Downloads the contents of a repository by streaming its tarball. Entries are decompressed,
+     * filtered and written one at a time as they arrive, so neither the archive nor excluded
+     * files are ever held in memory or written to disk.
+     *
+     * @param client The authenticated REST client
+     * @param owner The owner of the repository.
+     * @param repo The name of the repository.
+     * @param ref The commit SHA or git ref to download.
+     * @param filter The compiled include and exclude patterns
+     * @param budget The token budget limiting which files are written
+     * @param sizeBudget The size limits deciding from listed sizes which files are fetched
+     * @param progress The progress counters to update
+     * @param writer The writer receiving the included files
+     */
+    private void downloadContentsFromArchive(
+            RestClient client,
+            String owner,
+            String repo,
+            String ref,
+            PathFilter filter,
+            TokenBudget budget,
+            SizeBudget sizeBudget,
+            GenerationProgress progress,
+            ContentWriter writer) {
+
+        log.info("Streaming tarball for {}/{}", owner, repo);
+        requestExecutor.execute("tarball", () -> client.get()
+                .uri("/repos/{owner}/{repo}/tarball/{ref}", owner, repo, ref)
+                .exchange((request, response) -> {
+                    throwIfError(response);
+                    readArchive(response.getBody(), filter, budget, sizeBudget, progress, writer);
+                    logBudget(budget, sizeBudget);
+                    return null;
+                }));
+    }
+
+    /**
+     * Reads a gzipped repository tarball, writing the files that match the patterns.
+     * The single top-level directory GitHub wraps the repository in is stripped from each path.
+     *
+     * @param archive The gzipped tarball stream
+     * @param filter The compiled include and exclude patterns
+     * @param budget The token budget limiting which files are written
+     * @param sizeBudget The size limits deciding from listed sizes which files are fetched
+     * @param progress The progress counters to update
+     * @param writer The writer receiving the included files
+     * @throws IOException If the archive cannot be read
+     */
+    private void readArchive(InputStream archive, PathFilter filter, TokenBudget budget, SizeBudget sizeBudget,
+                             GenerationProgress progress, ContentWriter writer) throws IOException {
+
+        TarReader reader = new TarReader(new GZIPInputStream(archive, 64 * 1024));
+        String skippedPrefix = null;
+
+        for (TarReader.Entry entry = reader.next(); entry != null; entry = reader.next()) {
+            int rootEnd = entry.name().indexOf('/');
+            String path = rootEnd < 0 ? "" : entry.name().substring(rootEnd + 1);
+            if (path.endsWith("/")) {
+                path = path.substring(0, path.length() - 1);
+            }
+            if (path.isEmpty()) {
+                continue;
+            }
+            if (skippedPrefix != null && path.startsWith(skippedPrefix)) {
+                continue;
+            }
+            skippedPrefix = null;
+
+            if (entry.file()) {
+                gzipBytesDecoded.increment(entry.size());
+            }
+            if (entry.directory() && filter.isExcludedDirectory(path)) {
+                log.debug("Skipping directory: {}", path);
+                skippedPrefix = path + "/";
+            } else if (entry.file() && !filter.shouldInclude(path)) {
+                log.debug("Skipping excluded file: {}", path);
+                progress.filesExcluded(1);
+            } else if (entry.file() && !sizeBudget.admit(entry.size())) {
+                log.debug("Skipping file over size limit: {}", path);
+            } else if (entry.file() && budget.mayFit(path, entry.size())) {
+                log.info("Extracting file: {}", path);
+                progress.filesDiscovered(1);
+                byte[] content = reader.readContent();
+                progress.filesFetched(1);
+                if (BinaryFiles.isBinary(content, content.length)) {
+                    log.debug("Skipping binary file: {}", path);
+                    release(path, entry.size(), budget, sizeBudget);
+                    continue;
+                }
+                String sha = writer.isDeduplicating() ? BlobHash.of(content) : null;
+                writeWithinBudget(new RepositoryFile(path, new String(content, StandardCharsets.UTF_8), sha,
+                        entry.size()), budget, sizeBudget, writer);
+            } else if (entry.file()) {
+                log.debug("Skipping file over token budget: {}", path);
+                sizeBudget.release(entry.size());
+            } else {
+                log.debug("Skipping archive entry: {}", path);
+            }
+        }
+    }
+
+    /**
+     * Writes a downloaded file if its estimated tokens fit in the budget. A duplicate of a file already
+     * written only needs its header to fit, and is written as a reference. A duplicate that was not
+     * downloaded because of an earlier file with the same SHA is left out when that file was not
+     * written, as its content would have been left out for the same reason. A file left out is
+     * released from both budgets.
+     */
+    private void writeWithinBudget(RepositoryFile file, TokenBudget budget, SizeBudget sizeBudget, ContentWriter writer)
+            throws IOException {
+        if (writer.isDuplicate(file.sha())) {
+            if (budget.tryAdd(file.path(), 0)) {
+                writer.writeDuplicate(file.path(), file.sha());
+            } else {
+                log.debug("Skipping file over token budget: {}", file.path());
+                release(file.path(), file.size(), budget, sizeBudget);
+            }
+            return;
+        }
+        if (file.content() == null) {
+            log.debug("Skipping duplicate of a file that was not written: {}", file.path());
+            release(file.path(), file.size(), budget, sizeBudget);
+            return;
+        }
+        long tokens = budget.isLimited() ? TokenCounter.estimate(file.content()) : 0;
+        if (budget.tryAdd(file.path(), tokens)) {
+            writer.write(file);
+        } else {
+            log.debug("Skipping file over token budget: {}", file.path());
+            release(file.path(), file.size(), budget, sizeBudget);
+        }
+    }
+
+    /**
+     * Hands a file that was selected but is not written back to both budgets.
+     */
+    private static void release(String path, long size, TokenBudget budget, SizeBudget sizeBudget) {
+        budget.release(path, size);
+        sizeBudget.release(size);
+    }
+
+    private void logBudget(TokenBudget budget, SizeBudget sizeBudget) {
+        if (budget.isLimited()) {
+            log.info("Token budget: {} of {} tokens used, {} files skipped", budget.getUsedTokens(),
+                    budget.getMaxTokens(), budget.getSkippedFiles());
+        }
+        if (sizeBudget.hasSkippedFiles()) {
+            log.info("Size limits: {}", sizeBudget);
+        }
+    }
+
+    private static long parseSize(String size) {
+        try {
+            return size != null ? Long.parseLong(size) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Filters a recursive tree listing down to the blobs that should be downloaded.
+     * Entries below an excluded directory are skipped without being matched individually,
+     * which relies on git listing each subtree contiguously right after its directory entry.
+     * A blob with the SHA of a blob selected before it is selected as a duplicate, which is not
+     * fetched and is estimated against the token budget by its header alone.
+     *
+     * @param entries The recursive tree entries in git order
+     * @param filter The compiled include and exclude patterns
+     * @param budget The token budget limiting which files are downloaded
+     * @param sizeBudget The size limits deciding from listed sizes which files are downloaded
+     * @param progress The progress counters to update
+     * @param listedShas The SHAs of the blobs selected so far, or null to not look for duplicates
+     * @param duplicates Receives the paths of the selected duplicates, or null to not look for duplicates
+     * @return The selected blob entries, in tree order
+     */
+    private List<GitHubTreeEntry> selectTreeEntries(
+            List<GitHubTreeEntry> entries,
+            PathFilter filter,
+            TokenBudget budget,
+            SizeBudget sizeBudget,
+            GenerationProgress progress,
+            Set<String> listedShas,
+            Set<String> duplicates) {
+
+        List<GitHubTreeEntry> selected = new ArrayList<>();
+        String skippedPrefix = null;
+
+        for (GitHubTreeEntry entry : entries) {
+            if (skippedPrefix != null && entry.path().startsWith(skippedPrefix)) {
+                continue;
+            }
+            skippedPrefix = null;
+
+            if ("tree".equals(entry.type()) && filter.isExcludedDirectory(entry.path())) {
+                log.debug("Skipping directory: {}", entry.path());
+                skippedPrefix = entry.path() + "/";
+            } else if ("blob".equals(entry.type()) && !filter.shouldInclude(entry.path())) {
+                log.debug("Skipping excluded file: {}", entry.path());
+                progress.filesExcluded(1);
+            } else if ("blob".equals(entry.type())) {
+                long size = entry.size() != null ? entry.size() : 0;
+                boolean duplicate = listedShas != null && entry.sha() != null && listedShas.contains(entry.sha());
+                if (!sizeBudget.admit(duplicate ? 0 : size)) {
+                    log.debug("Skipping file over size limit: {}", entry.path());
+                } else if (budget.mayFit(entry.path(), duplicate ? 0 : size)) {
+                    selected.add(entry);
+                    if (duplicate) {
+                        duplicates.add(entry.path());
+                    } else if (listedShas != null && entry.sha() != null) {
+                        listedShas.add(entry.sha());
+                    }
+                } else {
+                    log.debug("Skipping file over token budget: {}", entry.path());
+                    sizeBudget.release(duplicate ? 0 : size);
+                }
+            } else {
+                log.debug("Skipping content: {} of type {}", entry.path(), entry.type());
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Retrieves the full recursive git tree of a commit.
+     *
+     * @param client The authenticated REST client
+     * @param owner The owner of the repository.
+     * @param repo The name of the repository.
+     * @param ref The commit SHA or git ref to list.
+     * @return The recursive tree listing.
+     */
+    private GitHubTree getRepositoryTree(RestClient client, String owner, String repo, String ref) {
+        return readJson(getConditionally(client, "tree", MediaType.APPLICATION_JSON,
+                "/repos/{owner}/{repo}/git/trees/{ref}?recursive=1", owner, repo, ref), new TypeReference<>() {
+        });
+    }
+
+    /**
+     * Retrieves the text of several blobs with a single GraphQL request.
+     * Binary blobs are mapped to null so the caller can skip them, and truncated blobs are left
+     * out of the result so the caller can fetch them another way.
+     *
+     * @param client The authenticated REST client
+     * @param owner The owner of the repository.
+     * @param repo The name of the repository.
+     * @param batch The tree entries whose blobs should be fetched.
+     * @return A map from blob SHA to its text content, or to null for binary blobs.
+     */
+    private Map<String, String> getBlobBatch(RestClient client, String owner, String repo, List<GitHubTreeEntry> batch) {
+        StringBuilder query = new StringBuilder("query($owner: String!, $name: String!) { repository(owner: $owner, name: $name) {");
+        for (int i = 0; i < batch.size(); i++) {
+            query.append(" b").append(i).append(": object(oid: \"").append(batch.get(i).sha())
+                    .append("\") { ... on Blob { text isTruncated isBinary } }");
+        }
+        query.append(" } }");
+
+        log.info("Downloading batch of {} files starting at: {}", batch.size(), batch.getFirst().path());
+        JsonNode response = requestExecutor.execute("graphql", () -> client.post()
+                .uri("/graphql")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Map.of("query", query.toString(), "variables", Map.of("owner", owner, "name", repo)))
+                .retrieve()
+                .body(JsonNode.class));
+
+        JsonNode repository = response == null ? null : response.path("data").path("repository");
+        if (repository == null || !repository.isObject()) {
+            log.warn("GraphQL blob batch for {}/{} returned no data: {}", owner, repo,
+                    response == null ? null : response.path("errors"));
+            return Map.of();
+        }
+
+        Map<String, String> blobs = new HashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            JsonNode blob = repository.path("b" + i);
+            if (blob.path("isBinary").asBoolean(false)) {
+                blobs.put(batch.get(i).sha(), null);
+            } else if (blob.path("text").isTextual() && !blob.path("isTruncated").asBoolean(false)) {
+                blobs.put(batch.get(i).sha(), blob.path("text").asText());
+            }
+        }
+        return blobs;
+    }
+
     /**
      * Retrieves the contents of a repository directory.
      *
      * @param client The authenticated REST client
      * @param owner The owner of the repository.
      * @param repo The name of the repository.
+     * @param ref The commit SHA or git ref to download.
      * @param path The path within the repository to retrieve.
      * @return A list of GitHubContent objects representing the contents of the directory.
      */
-    private List<GitHubContent> getRepositoryContents(RestClient client, String owner, String repo, String path) {
-        return client.get()
-                .uri("/repos/{owner}/{repo}/contents/{path}", owner, repo, path)
-                .retrieve()
-                .body(new ParameterizedTypeReference<>() {
-                });
+    private List<GitHubContent> getRepositoryContents(RestClient client, String owner, String repo, String ref,
+                                                      String path) {
+        return readJson(getConditionally(client, "contents", MediaType.APPLICATION_JSON,
+                "/repos/{owner}/{repo}/contents/{path}?ref={ref}", owner, repo, path, ref), new TypeReference<>() {
+        });
     }
 
     /**
-     * Retrieves the content of a specific file from the repository.
+     * Retrieves the content of a specific file from the repository, using the blob cache
+     * when the file's SHA has been downloaded before.
      *
      * @param client The authenticated REST client
      * @param owner The owner of the repository.
      * @param repo The name of the repository.
+     * @param ref The commit SHA or git ref to download.
      * @param path The path to the file within the repository.
-     * @return The content of the file as a String.
+     * @param sha The git SHA of the file, or null if unknown.
+     * @return The content of the file as a String, or null if the file is binary.
      */
-    private String getFileContent(RestClient client, String owner, String repo, String path) {
-        GitHubContent response = client.get()
-                .uri("/repos/{owner}/{repo}/contents/{path}", owner, repo, path)
-                .retrieve()
-                .body(GitHubContent.class);
-        String cleanedString = response.content().replaceAll("[^A-Za-z0-9+/=]", "");
-        return new String(Base64.getDecoder().decode(cleanedString));
+    private String getFileContent(RestClient client, String owner, String repo, String ref, String path, String sha) {
+        String cached = blobCache.get(sha);
+        if (cached != null) {
+            return cached;
+        }
+        return downloadFileContent(client, owner, repo, ref, path);
+    }
+
+    /**
+     * Downloads the content of a specific file through the contents API and adds it to the blob cache.
+     * Binary files are recognised from the decoded bytes and neither cached nor returned.
+     *
+     * @param client The authenticated REST client
+     * @param owner The owner of the repository.
+     * @param repo The name of the repository.
+     * @param ref The commit SHA or git ref to download.
+     * @param path The path to the file within the repository.
+     * @return The content of the file as a String, or null if the file is binary.
+     */
+    private String downloadFileContent(RestClient client, String owner, String repo, String ref, String path) {
+        log.info("Downloading file: {}", path);
+        GitHubContent response = readJson(getConditionally(client, "file", MediaType.APPLICATION_JSON,
+                "/repos/{owner}/{repo}/contents/{path}?ref={ref}", owner, repo, path, ref), new TypeReference<>() {
+        });
+        byte[] decoded = decodeContent(response.content());
+        base64BytesDecoded.increment(decoded.length);
+        if (BinaryFiles.isBinary(decoded, decoded.length)) {
+            log.debug("Skipping binary file: {}", path);
+            return null;
+        }
+        String content = new String(decoded, StandardCharsets.UTF_8);
+        blobCache.put(response.sha(), content);
+        return content;
+    }
+
+    /**
+     * Performs a GET request, revalidating the response stored for it by an earlier call.
+     * The stored ETag is sent in {@code If-None-Match}, and on {@code 304 Not Modified} the
+     * stored body is returned, so unchanged resources cost no rate limit. Any other successful
+     * response is stored with its ETag for the next call.
+     *
+     * @param client The authenticated REST client
+     * @param operation The name of the operation, for retries and metrics
+     * @param accept The media type to request
+     * @param uriTemplate The URI template of the request, relative to the API URL
+     * @param uriVariables The values of the template variables
+     * @return The response body
+     */
+    private byte[] getConditionally(RestClient client, String operation, MediaType accept, String uriTemplate,
+                                    Object... uriVariables) {
+        String key = accept + " " + config.apiUrl() + " " + uriTemplate + " " + Arrays.toString(uriVariables);
+        EtagCache.Entry stored = etagCache.get(key);
+        return requestExecutor.execute(operation, () -> client.get()
+                .uri(uriTemplate, uriVariables)
+                .accept(accept)
+                .headers(headers -> {
+                    if (stored != null) {
+                        headers.setIfNoneMatch(stored.etag());
+                    }
+                })
+                .exchange((request, response) -> {
+                    if (stored != null && response.getStatusCode().isSameCodeAs(HttpStatus.NOT_MODIFIED)) {
+                        notModifiedResponses.increment();
+                        return stored.body();
+                    }
+                    throwIfError(response);
+                    byte[] body = response.getBody().readAllBytes();
+                    if (stored != null) {
+                        modifiedResponses.increment();
+                    }
+                    String etag = response.getHeaders().getETag();
+                    if (etag != null) {
+                        etagCache.put(key, etag, body);
+                    }
+                    return body;
+                }));
+    }
+
+    private <T> T readJson(byte[] body, TypeReference<T> type) {
+        try {
+            return objectMapper.readValue(body, type);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read GitHub response", e);
+        }
+    }
+
+    /**
+     * Throws the exception {@code retrieve()} would throw for an error response, so that
+     * exchanges are retried and reported like other calls.
+     */
+    private static void throwIfError(ClientHttpResponse response) throws IOException {
+        if (response.getStatusCode().is4xxClientError()) {
+            throw HttpClientErrorException.create(response.getStatusCode(), response.getStatusText(),
+                    response.getHeaders(), response.getBody().readAllBytes(), StandardCharsets.UTF_8);
+        }
+        if (response.getStatusCode().isError()) {
+            throw HttpServerErrorException.create(response.getStatusCode(), response.getStatusText(),
+                    response.getHeaders(), response.getBody().readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Decodes the Base64 file content of a contents API response, which GitHub breaks into lines.
+     * The MIME decoder skips the line breaks while decoding, so the content is neither matched
+     * against a regular expression nor copied to strip them first.
+     *
+     * @param encoded The Base64 content as returned by GitHub
+     * @return The decoded bytes
+     */
+    static byte[] decodeContent(String encoded) {
+        return CONTENT_DECODER.decode(encoded.getBytes(StandardCharsets.ISO_8859_1));
     }
 }
\ No newline at end of file
@@ -1,75 +1,596 @@
 package dev.danvega.cg.service;
 
+import dev.danvega.cg.util.BinaryFiles;
+import dev.danvega.cg.util.BlobHash;
+import dev.danvega.cg.util.Compression;
+import dev.danvega.cg.util.PathFilter;
 import dev.danvega.cg.util.PathUtils;
-import lombok.RequiredArgsConstructor;
+import dev.danvega.cg.util.TokenCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.stream.Stream;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
 
 @Service
-@RequiredArgsConstructor
 public class LocalFileService {
     private static final Logger log = LoggerFactory.getLogger(LocalFileService.class);
+    private static final int INLINE_CONTENT_LIMIT = 64 * 1024;
+    private static final int BUFFER_SIZE = 16 * 1024;
     private final PathUtils pathUtils;
+    private final int readParallelism;
+    private final Timer walkTimer;
+    private final Timer readTimer;
 
     /**
-     * Process a local directory and generate a file containing selected files
-     * based on the provided language patterns.
+     * A file that has been read and is ready to be written. Small files carry their content,
+     * larger files and files reused from the previous document point to a region of a channel
+     * that the content is transferred from. Files reused from a compressed previous document
+     * carry neither and are copied from its decompressed stream. Files that were written as a
+     * duplicate to the previous document carry neither and have no content span in it.
+     *
+     * @param relativePath The path of the file relative to the source directory
+     * @param size The size of the file in bytes
+     * @param lastModified The modification time of the file in milliseconds
+     * @param hash The git blob SHA of the file content
+     * @param tokens The estimated number of tokens in the file content
+     * @param reused Whether the content is copied from the previous document
+     * @param content The UTF-8 encoded file content, or null if it is transferred from the source
+     * @param source The channel holding the content when it is not carried inline, or null if it is
+     *               copied from a compressed previous document
+     * @param offset The position of the content within the source
+     * @param length The length of the content in bytes, or -1 if a reused file has no content in the
+     *               previous document
+     */
+    private record LocalFile(String relativePath, long size, long lastModified, String hash, long tokens, boolean reused,
+                             byte[] content, FileChannel source, long offset, long length) {
+
+        /**
+         * Closes the source channel if it was opened for this file alone.
+         */
+        void release() throws IOException {
+            if (source != null && !reused) {
+                source.close();
+            }
+        }
+    }
+
+    /**
+     * A compressed previous document, decompressed front to back as reused files are copied from it.
+     * Files are written in path order, which is also their order in the previous document, so the
+     * stream never has to move backwards.
+     */
+    private static final class CompressedDocument implements Closeable {
+        private final InputStream in;
+        private long position;
+
+        CompressedDocument(Path document) throws IOException {
+            InputStream file = Files.newInputStream(document);
+            try {
+                this.in = Compression.of(document).decompress(file);
+            } catch (IOException e) {
+                file.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Checks whether content at the given offset has not been passed yet.
+         */
+        boolean canCopy(long offset) {
+            return offset >= position;
+        }
+
+        /**
+         * Writes a file whose content starts at the given offset of the decompressed document.
+         */
+        ContentWriter.Span copy(ContentWriter writer, LocalFile file) throws IOException {
+            long offset = file.offset();
+            long length = file.length();
+            in.skipNBytes(offset - position);
+            position = offset;
+            ContentWriter.Span span = writer.copy(file.relativePath(), file.size(), file.hash(), in, length);
+            position += length;
+            return span;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * A file selected by the walk.
+     *
+     * @param path The absolute path of the file
+     * @param size The size of the file in bytes
+     */
+    record IncludedFile(Path path, long size) {
+    }
+
+    /**
+     * Creates the service.
+     *
+     * @param pathUtils       The path utilities providing compiled pattern filters
+     * @param readParallelism The maximum number of files read at the same time
+     * @param meterRegistry   The registry receiving the walk and read timings
+     */
+    public LocalFileService(PathUtils pathUtils, @Value("${app.local.read-parallelism:8}") int readParallelism,
+                            MeterRegistry meterRegistry) {
+        if (readParallelism < 1) {
+            throw new IllegalArgumentException("app.local.read-parallelism must be at least 1");
+        }
+        this.pathUtils = pathUtils;
+        this.readParallelism = readParallelism;
+        this.walkTimer = Timer.builder("cg.local.walk")
+                .description("Time spent listing a local directory tree")
+                .register(meterRegistry);
+        this.readTimer = Timer.builder("cg.local.file.read")
+                .description("Time spent reading, or reusing, a single local file")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Process a local directory and write the selected files, based on the
+     * provided language patterns, to the given writer as they are read.
+     * <p>
+     * Files are read on virtual threads, up to the configured parallelism at a time,
+     * and written in sorted path order as soon as every earlier file has been written.
+     * Files larger than {@value #INLINE_CONTENT_LIMIT} bytes are validated and hashed
+     * through a small buffer and then transferred to the output channel by channel, so the
+     * heap needed does not grow with the size of the files or of the directory.
+     * <p>
+     * With a limited token budget, files are admitted in path order while they fit. Files whose
+     * size already rules them out are skipped without being read. The size budget is applied
+     * the same way, from the file sizes listed by the walk, and binary files are recognised from
+     * their first bytes and skipped.
+     * <p>
+     * Files whose size and modification time match the manifest of the previous
+     * document are copied from that document instead of being read again, so an
+     * unchanged directory costs little more than the walk itself. A compressed previous document
+     * is decompressed once, front to back, while its files are copied.
+     * <p>
+     * A deduplicating writer gets files whose hash it has already written as references. Their
+     * manifest entries have no content span, and such a file that is no longer a duplicate in the
+     * next run is read again.
      *
      * @param directoryPath     The path to the directory to process
-     * @param outputFileName    The base name for the output file
      * @param includePatterns   The patterns for files to include
      * @param excludePatterns   The patterns for files to exclude
-     * @param outputExtension   The extension for the output file
+     * @param writer            The writer receiving the included files
+     * @param budget            The token budget limiting which files are written
+     * @param sizeBudget        The limits on the size of the files read
+     * @param progress          The progress counters to update
+     * @param previousOutput    The previously generated document for this directory, which may not exist
+     * @return The manifest describing the newly written document
      * @throws IOException      If an I/O error occurs
      */
-    public void processLocalDirectoryForLanguage(
+    public LocalManifest processLocalDirectoryForLanguage(
             String directoryPath,
-            String outputFileName,
             List<String> includePatterns,
             List<String> excludePatterns,
-            String outputExtension) throws IOException {
+            ContentWriter writer,
+            TokenBudget budget,
+            SizeBudget sizeBudget,
+            GenerationProgress progress,
+            Path previousOutput) throws IOException {
 
         Path sourceDir = Paths.get(directoryPath).normalize().toAbsolutePath();
         if (!Files.exists(sourceDir) || !Files.isDirectory(sourceDir)) {
             throw new IllegalArgumentException("Invalid directory path: " + directoryPath);
         }
 
-        List<PathMatcher> includeMatchers = pathUtils.createPathMatchers(includePatterns);
+        PathFilter filter = pathUtils.getPathFilter(includePatterns, excludePatterns);
+
+        long walkStart = System.nanoTime();
+        List<IncludedFile> files = findIncludedFiles(sourceDir, filter, progress);
+        walkTimer.record(System.nanoTime() - walkStart, TimeUnit.NANOSECONDS);
+        files.sort(Comparator.comparing(IncludedFile::path));
+        LocalManifest previousManifest = LocalManifest.load(sourceDir, previousOutput);
+        LocalManifest manifest = new LocalManifest(sourceDir);
+        int reused = 0;
+
+        boolean compressedPrevious = Compression.of(previousOutput) != Compression.NONE;
+        try (FileChannel previousDocument = previousManifest.size() > 0 && !compressedPrevious
+                ? FileChannel.open(previousOutput, StandardOpenOption.READ) : null;
+             CompressedDocument compressedDocument = previousManifest.size() > 0 && compressedPrevious
+                     ? new CompressedDocument(previousOutput) : null;
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Deque<Future<LocalFile>> pending = new ArrayDeque<>(readParallelism);
+            Iterator<IncludedFile> remaining = files.iterator();
+            try {
+                while (remaining.hasNext() || !pending.isEmpty()) {
+                    while (remaining.hasNext() && pending.size() < readParallelism) {
+                        IncludedFile file = remaining.next();
+                        String relativePath = sourceDir.relativize(file.path()).toString();
+                        if (!sizeBudget.admit(file.size())) {
+                            log.debug("Skipping file over size limit: {}", file.path());
+                        } else if (budget.mayFit(relativePath, file.size())) {
+                            progress.filesDiscovered(1);
+                            pending.add(executor.submit(() -> {
+                                long readStart = System.nanoTime();
+                                LocalFile localFile = readFile(sourceDir, file.path(), previousManifest, previousDocument);
+                                readTimer.record(System.nanoTime() - readStart, TimeUnit.NANOSECONDS);
+                                if (localFile != null) {
+                                    progress.filesFetched(1);
+                                } else {
+                                    budget.release(relativePath, file.size());
+                                    sizeBudget.release(file.size());
+                                }
+                                return localFile;
+                            }));
+                        } else {
+                            log.debug("Skipping file over token budget: {}", file.path());
+                            sizeBudget.release(file.size());
+                        }
+                    }
+                    if (pending.isEmpty()) {
+                        continue;
+                    }
+                    LocalFile localFile = await(pending.poll());
+                    if (localFile == null) {
+                        continue;
+                    }
+                    boolean duplicate = writer.isDuplicate(localFile.hash());
+                    if (!budget.tryAdd(localFile.relativePath(), duplicate ? 0 : localFile.tokens())) {
+                        log.debug("Skipping file over token budget: {}", localFile.relativePath());
+                        budget.release(localFile.relativePath(), localFile.size());
+                        sizeBudget.release(localFile.size());
+                        localFile.release();
+                        continue;
+                    }
+                    if (localFile.reused()) {
+                        reused++;
+                    }
+                    ContentWriter.Span span;
+                    try {
+                        if (duplicate) {
+                            writer.writeDuplicate(localFile.relativePath(), localFile.hash());
+                            span = new ContentWriter.Span(-1, -1);
+                        } else if (localFile.content() != null) {
+                            span = writer.write(localFile.relativePath(), localFile.hash(), localFile.content());
+                        } else if (localFile.source() != null && localFile.reused()) {
+                            span = writer.copy(localFile.relativePath(), localFile.size(), localFile.hash(),
+                                    localFile.source(), localFile.offset(), localFile.length());
+                        } else if (localFile.source() != null) {
+                            span = writer.write(localFile.relativePath(), localFile.hash(), localFile.source(),
+                                    localFile.offset(), localFile.length());
+                        } else if (localFile.length() >= 0 && compressedDocument.canCopy(localFile.offset())) {
+                            span = compressedDocument.copy(writer, localFile);
+                        } else {
+                            byte[] content = readFileContent(sourceDir.resolve(localFile.relativePath()));
+                            if (content == null) {
+                                budget.release(localFile.relativePath(), localFile.size());
+                                sizeBudget.release(localFile.size());
+                                continue;
+                            }
+                            span = writer.write(localFile.relativePath(), localFile.hash(), content);
+                        }
+                    } finally {
+                        localFile.release();
+                    }
+                    manifest.put(new LocalManifest.Entry(localFile.relativePath(), localFile.size(),
+                            localFile.lastModified(), localFile.hash(), localFile.tokens(), span.offset(), span.length()));
+                }
+            } finally {
+                executor.shutdownNow();
+                releaseAll(pending);
+            }
+        }
+
+        log.info("Local directory contents written for: {} ({} of {} files reused from previous output)",
+                sourceDir, reused, writer.getFilesWritten());
+        if (budget.isLimited()) {
+            log.info("Token budget: {} of {} tokens used, {} files skipped", budget.getUsedTokens(),
+                    budget.getMaxTokens(), budget.getSkippedFiles());
+        }
+        if (sizeBudget.hasSkippedFiles()) {
+            log.info("Size limits: {}", sizeBudget);
+        }
+        return manifest;
+    }
+
+    /**
+     * Counts the files below a local directory per extension. Only directory entries are
+     * listed, no file is opened, and skipped directories are not descended into.
+     *
+     * @param localPath The local directory
+     * @param skipDirectory Tests whether a directory, relative to the local directory, should not be counted
+     * @return The number of files per lower-case extension
+     * @throws IOException If the directory cannot be listed
+     */
+    public Map<String, Long> getExtensionHistogram(String localPath, Predicate<String> skipDirectory) throws IOException {
+        Path sourceDir = Paths.get(localPath);
+        Map<String, Long> histogram = new HashMap<>();
+        Files.walkFileTree(sourceDir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (!dir.equals(sourceDir) && skipDirectory.test(sourceDir.relativize(dir).toString())) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                histogram.merge(PathUtils.getExtension(file.getFileName().toString()), 1L, Long::sum);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                log.warn("Could not list: {}", file, e);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return histogram;
+    }
+
+    /**
+     * Walks the directory and returns the files that should be included with their sizes, in walk order.
+     * Excluded directories are pruned as soon as they are reached, so their contents are
+     * never listed. Symbolic links are followed only to check whether they point to a file.
+     *
+     * @param sourceDir The directory to walk
+     * @param filter    The compiled include and exclude patterns
+     * @param progress  The progress counters to update
+     * @return The included files
+     * @throws IOException If the directory cannot be walked
+     */
+    List<IncludedFile> findIncludedFiles(Path sourceDir, PathFilter filter, GenerationProgress progress)
+            throws IOException {
+        List<IncludedFile> files = new ArrayList<>();
+        Files.walkFileTree(sourceDir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (!dir.equals(sourceDir) && filter.isExcludedDirectory(sourceDir.relativize(dir).toString())) {
+                    log.debug("Skipping directory: {}", dir);
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                boolean regularFile = attrs.isRegularFile() || (attrs.isSymbolicLink() && Files.isRegularFile(file));
+                if (!regularFile) {
+                    return FileVisitResult.CONTINUE;
+                }
+                if (filter.shouldInclude(sourceDir.relativize(file).toString())) {
+                    files.add(new IncludedFile(file, attrs.isSymbolicLink() ? Files.size(file) : attrs.size()));
+                } else {
+                    progress.filesExcluded(1);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                log.warn("Could not read: {}", file, e);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files;
+    }
+
+    /**
+     * Reads a file, copying its content from the previous document when its size and
+     * modification time match the manifest. A file the previous document only refers to keeps
+     * its recorded hash, and is read again only if it has to be written with its content.
+     *
+     * @return The file ready to be written, or null if it cannot be read, is binary or is not UTF-8 text
+     */
+    private LocalFile readFile(Path sourceDir, Path file, LocalManifest previousManifest,
+                               FileChannel previousDocument) throws IOException {
+        String relativePath = sourceDir.relativize(file).toString();
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        long lastModified = attributes.lastModifiedTime().toMillis();
+
+        LocalManifest.Entry previous = previousManifest.get(relativePath);
+        if (previous != null && previous.size() == attributes.size() && previous.lastModified() == lastModified) {
+            return new LocalFile(relativePath, attributes.size(), lastModified, previous.hash(), previous.tokens(), true,
+                    null, previous.contentLength() >= 0 ? previousDocument : null, previous.contentOffset(),
+                    previous.contentLength());
+        }
+
+        if (attributes.size() <= INLINE_CONTENT_LIMIT) {
+            byte[] content = readFileContent(file);
+            if (content == null) {
+                return null;
+            }
+            return new LocalFile(relativePath, attributes.size(), lastModified, BlobHash.of(content),
+                    TokenCounter.estimate(content), false,
+                    content, null, 0, content.length);
+        }
+        return openFileContent(file, relativePath, attributes.size(), lastModified);
+    }
 
-        List<PathMatcher> excludeMatchers = pathUtils.createPathMatchers(excludePatterns);
+    /**
+     * Releases the channels of files that were read but will not be written.
+     */
+    private static void releaseAll(Deque<Future<LocalFile>> pending) {
+        for (Future<LocalFile> future : pending) {
+            if (future.state() == Future.State.SUCCESS && future.resultNow() != null) {
+                try {
+                    future.resultNow().release();
+                } catch (IOException e) {
+                    log.warn("Could not close: {}", future.resultNow().relativePath(), e);
+                }
+            }
+        }
+    }
 
-        StringBuilder contentBuilder = new StringBuilder();
-        try (Stream<Path> paths = Files.walk(sourceDir)) {
-            paths.filter(Files::isRegularFile)
-                    .filter(file -> pathUtils.shouldIncludeFile(file, sourceDir, includeMatchers, excludeMatchers))
-                    .forEach(file -> readFileContent(file, sourceDir, contentBuilder));
+    private static LocalFile await(Future<LocalFile> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading local files");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(e.getCause());
         }
+    }
 
-        Path outputDir = Paths.get("output");
-        Files.createDirectories(outputDir);
-        Path outputFile = outputDir.resolve(outputFileName + "." + outputExtension);
-        Files.write(outputFile, contentBuilder.toString().getBytes());
+    /**
+     * Reads a file, returning null if it cannot be read, is binary or is not valid UTF-8 text. Only the
+     * bytes checked for binary content are read first, and the rest is read once the file is known to be text.
+     */
+    private byte[] readFileContent(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IOException("File too large to read at once: " + size + " bytes");
+            }
+            byte[] content = new byte[(int) size];
+            ByteBuffer buffer = ByteBuffer.wrap(content, 0, Math.min(content.length, BinaryFiles.SNIFF_LENGTH));
+            readFully(channel, buffer);
+            if (BinaryFiles.isBinary(content, buffer.position())) {
+                log.debug("Skipping binary file: {}", file);
+                return null;
+            }
+            buffer.limit(content.length);
+            int length = readFully(channel, buffer);
+            if (length < content.length) {
+                content = Arrays.copyOf(content, length);
+            }
+            if (!isUtf8(ByteBuffer.wrap(content), true, StandardCharsets.UTF_8.newDecoder(), CharBuffer.allocate(BUFFER_SIZE))) {
+                throw new CharacterCodingException();
+            }
+            return content;
+        } catch (IOException e) {
+            log.error("Error reading file: {}", file, e);
+            return null;
+        }
+    }
 
-        log.info("Local directory contents written to: {}", outputFile.toAbsolutePath());
+    /**
+     * Reads from a channel until the buffer is full or the channel ends.
+     *
+     * @return The position of the buffer after reading
+     */
+    private static int readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            // Keep reading until the buffer is full or the channel ends
+        }
+        return buffer.position();
     }
 
-    private void readFileContent(Path file, Path sourceDir, StringBuilder builder) {
+    /**
+     * Opens a large file for transfer after validating, hashing and counting it through a fixed size
+     * buffer, returning null if it cannot be read, is binary or is not valid UTF-8 text. The first
+     * buffer is checked for binary content before anything else is done with it.
+     */
+    private LocalFile openFileContent(Path file, String relativePath, long size, long lastModified) {
+        FileChannel channel = null;
         try {
-            String relativePath = sourceDir.relativize(file).toString();
-            String content = Files.readString(file);
-            builder.append("File: ").append(relativePath).append("\n\n")
-                    .append(content).append("\n\n");
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            long length = channel.size();
+            MessageDigest digest = BlobHash.digest(length);
+            TokenCounter tokens = new TokenCounter();
+            CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+            ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+            CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+            long position = 0;
+            while (position < length) {
+                int read = channel.read(bytes, position);
+                if (read < 0) {
+                    throw new IOException("File ended after " + position + " of " + length + " bytes");
+                }
+                if (position == 0 && BinaryFiles.isBinary(bytes.array(), bytes.position())) {
+                    log.debug("Skipping binary file: {}", file);
+                    closeQuietly(channel);
+                    return null;
+                }
+                digest.update(bytes.array(), bytes.position() - read, read);
+                tokens.update(bytes.array(), bytes.position() - read, read);
+                position += read;
+                bytes.flip();
+                if (!isUtf8(bytes, position >= length, decoder, chars)) {
+                    throw new CharacterCodingException();
+                }
+                bytes.compact();
+            }
+            return new LocalFile(relativePath, size, lastModified, BlobHash.hex(digest),
+                    tokens.getTokens(), false,
+                    null, channel, 0, length);
         } catch (IOException e) {
             log.error("Error reading file: {}", file, e);
+            closeQuietly(channel);
+            return null;
+        }
+    }
+
+    /**
+     * Feeds bytes to a UTF-8 decoder through a fixed size char buffer, so that validating a
+     * file never holds its decoded text. Bytes of an incomplete sequence are left in the buffer
+     * until more input arrives.
+     */
+    private static boolean isUtf8(ByteBuffer bytes, boolean endOfInput, CharsetDecoder decoder, CharBuffer chars) {
+        CoderResult result;
+        do {
+            chars.clear();
+            result = decoder.decode(bytes, chars, endOfInput);
+            if (result.isError()) {
+                return false;
+            }
+        } while (result.isOverflow());
+        if (endOfInput) {
+            chars.clear();
+            return !decoder.flush(chars).isError();
+        }
+        return true;
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Could not close file channel", e);
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,165 @@
+package dev.danvega.cg.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Manifest of the files that make up a generated document for a local directory.
+ * For every file it records the size, modification time, content hash and token estimate
+ * seen when the document was generated, plus where the content sits in the document, so that the next
+ * generation can copy unchanged files from the previous document instead of reading them.
+ * <p>
+ * The manifest is stored as a tab separated file next to the document it describes.
+ */
+public class LocalManifest {
+    private static final Logger log = LoggerFactory.getLogger(LocalManifest.class);
+    private static final String HEADER = "# repo-content-generator manifest v3";
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final String sourceDir;
+
+    /**
+     * A file recorded in the manifest.
+     *
+     * @param path The path of the file relative to the source directory
+     * @param size The size of the file in bytes
+     * @param lastModified The modification time of the file in milliseconds
+     * @param hash The git blob SHA of the file content
+     * @param tokens The estimated number of tokens in the file content
+     * @param contentOffset The byte offset of the content within the document, or -1 for a duplicate
+     *                      written as a reference
+     * @param contentLength The length of the content as written to the document in bytes, escaped
+     *                      for the document's format, or -1 for a duplicate written as a reference
+     */
+    public record Entry(String path, long size, long lastModified, String hash, long tokens, long contentOffset,
+                        long contentLength) {
+    }
+
+    /**
+     * Creates an empty manifest for the given source directory.
+     *
+     * @param sourceDir The absolute path of the source directory
+     */
+    public LocalManifest(Path sourceDir) {
+        this.sourceDir = sourceDir.toString();
+    }
+
+    /**
+     * Returns the location of the manifest belonging to a generated document.
+     *
+     * @param outputFile The generated document
+     * @return The path of the manifest file
+     */
+    public static Path pathFor(Path outputFile) {
+        return outputFile.resolveSibling(outputFile.getFileName() + ".manifest");
+    }
+
+    /**
+     * Loads the manifest of a previously generated document. An empty manifest is returned
+     * when there is no manifest, when it was written for another source directory, or when
+     * the document no longer has the size recorded in the manifest.
+     *
+     * @param sourceDir The absolute path of the source directory
+     * @param outputFile The previously generated document
+     * @return The loaded manifest, or an empty manifest if it cannot be used
+     */
+    public static LocalManifest load(Path sourceDir, Path outputFile) {
+        LocalManifest manifest = new LocalManifest(sourceDir);
+        Path manifestFile = pathFor(outputFile);
+        if (!Files.isRegularFile(manifestFile) || !Files.isRegularFile(outputFile)) {
+            return manifest;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(manifestFile, StandardCharsets.UTF_8)) {
+            String[] header = reader.readLine().split("\t");
+            if (header.length != 3 || !HEADER.equals(header[0]) || !manifest.sourceDir.equals(header[1])
+                    || Long.parseLong(header[2]) != Files.size(outputFile)) {
+                log.info("Ignoring stale manifest: {}", manifestFile);
+                return manifest;
+            }
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                String[] fields = line.split("\t");
+                Entry entry = new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3],
+                        Long.parseLong(fields[4]), Long.parseLong(fields[5]), Long.parseLong(fields[6]));
+                manifest.entries.put(entry.path(), entry);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Ignoring unreadable manifest: {}", manifestFile, e);
+            return new LocalManifest(sourceDir);
+        }
+        return manifest;
+    }
+
+    /**
+     * Deletes the manifest of a generated document, so that it cannot be paired with a
+     * document it does not describe.
+     *
+     * @param outputFile The generated document
+     * @throws IOException If the manifest cannot be deleted
+     */
+    public static void delete(Path outputFile) throws IOException {
+        Files.deleteIfExists(pathFor(outputFile));
+    }
+
+    /**
+     * Looks up a file in the manifest.
+     *
+     * @param path The path of the file relative to the source directory
+     * @return The recorded entry, or null if the file is not in the manifest
+     */
+    public Entry get(String path) {
+        return entries.get(path);
+    }
+
+    /**
+     * Records a file in the manifest. Paths that cannot be stored in the tab separated
+     * format are left out, which only means those files are always read again.
+     *
+     * @param entry The entry to record
+     */
+    public void put(Entry entry) {
+        if (entry.path().indexOf('\t') < 0 && entry.path().indexOf('\n') < 0 && entry.path().indexOf('\r') < 0) {
+            entries.put(entry.path(), entry);
+        }
+    }
+
+    /**
+     * Returns the number of files in the manifest.
+     *
+     * @return the number of files
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Writes the manifest next to the document it describes.
+     *
+     * @param outputFile The generated document
+     * @throws IOException If the manifest cannot be written
+     */
+    public void save(Path outputFile) throws IOException {
+        Path manifestFile = pathFor(outputFile);
+        Path tempFile = manifestFile.resolveSibling(manifestFile.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            writer.write(HEADER + "\t" + sourceDir + "\t" + Files.size(outputFile));
+            writer.newLine();
+            for (Entry entry : entries.values()) {
+                writer.write(entry.path() + "\t" + entry.size() + "\t" + entry.lastModified() + "\t" + entry.hash()
+                        + "\t" + entry.tokens() + "\t" + entry.contentOffset() + "\t" + entry.contentLength());
+                writer.newLine();
+            }
+        }
+        Files.move(tempFile, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,352 @@
+package dev.danvega.cg.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.danvega.cg.util.TokenCounter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Splits a document into shards of limited size while it is written, and streams the shards
+ * as entries of a ZIP archive followed by an index mapping every file to its shards.
+ * <p>
+ * The writer receives the document from a {@link ContentWriter} and holds the file being
+ * written. Once the file is complete it goes into the current shard if it fits, or starts the
+ * next shard otherwise, so shards are cut at file boundaries. A file too large for a shard of
+ * its own is split, at line breaks where possible, and each continuation repeats the file header
+ * marked as continued. Such a file is split as it arrives, so that no more than a shard of it is
+ * held at any time.
+ */
+public class ShardWriter extends OutputStream implements ContentWriter.FileListener {
+    static final String INDEX_ENTRY = "index.json";
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    private final ZipOutputStream zip;
+    private final ObjectMapper objectMapper;
+    private final String baseName;
+    private final Limits limits;
+    private final List<Shard> shards = new ArrayList<>();
+    private final Map<String, List<String>> files = new LinkedHashMap<>();
+    private byte[] buffer = new byte[CHUNK_SIZE];
+    private int buffered;
+    private TokenCounter bufferedTokens = new TokenCounter();
+    private String path = "";
+    private boolean splitting;
+    private int pieces;
+    private byte[] continued;
+    private long continuedTokens;
+    private Shard current;
+    private boolean closed;
+
+    /**
+     * Limits on the size of each shard. At least one limit is set.
+     *
+     * @param maxBytes The largest shard in bytes, or null for no byte limit
+     * @param maxTokens The largest estimated number of tokens in a shard, or null for no token limit
+     */
+    public record Limits(Long maxBytes, Long maxTokens) {
+        /**
+         * The smallest byte limit accepted, leaving room for file headers.
+         */
+        public static final long MIN_BYTES = 1024;
+        /**
+         * The smallest token limit accepted, leaving room for file headers.
+         */
+        public static final long MIN_TOKENS = 256;
+
+        public Limits {
+            if (maxBytes == null && maxTokens == null) {
+                throw new IllegalArgumentException("Either shardBytes or shardTokens must be given");
+            }
+            if (maxBytes != null && maxBytes < MIN_BYTES) {
+                throw new IllegalArgumentException("shardBytes must be at least " + MIN_BYTES);
+            }
+            if (maxTokens != null && maxTokens < MIN_TOKENS) {
+                throw new IllegalArgumentException("shardTokens must be at least " + MIN_TOKENS);
+            }
+        }
+
+        /**
+         * Creates the limits requested with a generation, if any.
+         *
+         * @param maxBytes The requested byte limit, or null
+         * @param maxTokens The requested token limit, or null
+         * @return the limits, or null if neither limit was requested
+         * @throws IllegalArgumentException If a limit is too small
+         */
+        public static Limits of(Long maxBytes, Long maxTokens) {
+            return maxBytes == null && maxTokens == null ? null : new Limits(maxBytes, maxTokens);
+        }
+
+        /**
+         * Derives the entity tag of the sharded representation of a document.
+         *
+         * @param etag The quoted entity tag of the document, or null
+         * @return the entity tag of the archive of shards, or null if the document has none
+         */
+        public String etag(String etag) {
+            if (etag == null) {
+                return null;
+            }
+            return etag.substring(0, etag.length() - 1) + "-shards" + (maxBytes != null ? "-" + maxBytes + "b" : "")
+                    + (maxTokens != null ? "-" + maxTokens + "t" : "") + "\"";
+        }
+
+        boolean fits(long bytes, long tokens) {
+            return (maxBytes == null || bytes <= maxBytes) && (maxTokens == null || tokens <= maxTokens);
+        }
+    }
+
+    /**
+     * A shard as listed in the index.
+     *
+     * @param name The name of the shard's entry in the archive
+     * @param bytes The size of the shard in bytes
+     * @param tokens The estimated number of tokens in the shard
+     * @param files The files in the shard, in document order
+     */
+    public record Shard(String name, long bytes, long tokens, List<String> files) {
+    }
+
+    /**
+     * The index written after the shards.
+     *
+     * @param shards The shards in order
+     * @param files The shards holding each file, by path in document order
+     */
+    public record Index(List<Shard> shards, Map<String, List<String>> files) {
+    }
+
+    /**
+     * Creates a writer streaming the archive to the given output.
+     *
+     * @param out The stream receiving the ZIP archive
+     * @param objectMapper The mapper writing the index
+     * @param baseName The name the shard entries are derived from, such as {@code repo.txt}
+     * @param limits The limits on the size of each shard
+     */
+    public ShardWriter(OutputStream out, ObjectMapper objectMapper, String baseName, Limits limits) {
+        this.zip = new ZipOutputStream(out);
+        this.objectMapper = objectMapper;
+        this.baseName = baseName;
+        this.limits = limits;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureCapacity(1);
+        buffer[buffered++] = (byte) b;
+        bufferedTokens.update(buffer, buffered - 1, 1);
+        buffered();
+    }
+
+    /**
+     * Buffers the bytes in chunks, writing pieces of a file too large for a shard after each chunk.
+     */
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            int chunk = Math.min(length, CHUNK_SIZE);
+            ensureCapacity(chunk);
+            System.arraycopy(bytes, offset, buffer, buffered, chunk);
+            bufferedTokens.update(buffer, buffered, chunk);
+            buffered += chunk;
+            buffered();
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    /**
+     * Remembers the path of the file about to be written, for the headers of its continuations.
+     *
+     * @param path The path of the file
+     */
+    @Override
+    public void fileStarted(String path) {
+        this.path = path;
+    }
+
+    /**
+     * Places the file that has just been written into the current or a new shard.
+     *
+     * @param path The path of the file
+     * @throws IOException If the shard cannot be written
+     */
+    @Override
+    public void fileWritten(String path) throws IOException {
+        this.path = path;
+        if (splitting) {
+            writePieces(true);
+            splitting = false;
+        } else {
+            long tokens = bufferedTokens.getTokens();
+            if (current != null && !limits.fits(current.bytes() + buffered, current.tokens() + tokens)) {
+                closeShard();
+            }
+            writeToShard(path, buffer, 0, buffered, tokens);
+        }
+        buffered = 0;
+        bufferedTokens = new TokenCounter();
+        this.path = "";
+    }
+
+    /**
+     * Writes the last shard and the index, and finishes the archive.
+     *
+     * @throws IOException If the archive cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (buffered > 0 || splitting) {
+            fileWritten("");
+        }
+        closeShard();
+        zip.putNextEntry(new ZipEntry(INDEX_ENTRY));
+        zip.write(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(new Index(shards, files)));
+        zip.closeEntry();
+        zip.close();
+    }
+
+    /**
+     * Starts splitting the file being written once the buffered part of it no longer fits a shard of
+     * its own, and writes the pieces that are complete.
+     */
+    private void buffered() throws IOException {
+        if (!splitting && !limits.fits(buffered, bufferedTokens.getTokens())) {
+            splitting = true;
+            pieces = 0;
+            if (current != null && !limits.fits(current.bytes() * 2, current.tokens() * 2)) {
+                closeShard();
+            }
+            continued = ("File: " + path + " (continued)\n\n").getBytes(StandardCharsets.UTF_8);
+            continuedTokens = tokens(continued, 0, continued.length);
+        }
+        if (splitting) {
+            writePieces(false);
+        }
+    }
+
+    /**
+     * Writes pieces of a file too large for one shard, each filling a shard. The first piece fills the
+     * current shard unless it is already half full. Until the file is complete, only pieces followed by
+     * more of the file are written, and the rest stays buffered. The last piece stays open for the files
+     * that follow.
+     *
+     * @param complete Whether the whole file has been buffered
+     */
+    private void writePieces(boolean complete) throws IOException {
+        while (buffered > 0) {
+            boolean continuation = current == null && pieces > 0;
+            long shardBytes = current != null ? current.bytes() : continuation ? continued.length : 0;
+            long shardTokens = current != null ? current.tokens() : continuation ? continuedTokens : 0;
+            if (!complete && limits.fits(shardBytes + buffered, shardTokens + bufferedTokens.getTokens())) {
+                return;
+            }
+            if (continuation) {
+                openShard();
+                zip.write(continued);
+                current = grow(current, continued.length, continuedTokens);
+            }
+            int end = pieceEnd(shardBytes, shardTokens);
+            writeToShard(path, buffer, 0, end, tokens(buffer, 0, end));
+            pieces++;
+            System.arraycopy(buffer, end, buffer, 0, buffered - end);
+            buffered -= end;
+            bufferedTokens = new TokenCounter();
+            bufferedTokens.update(buffer, 0, buffered);
+            if (buffered > 0) {
+                closeShard();
+            }
+        }
+    }
+
+    /**
+     * Finds where the piece at the start of the buffer ends so that it fits a shard already holding the
+     * given bytes and tokens: after the last line that fits, unless that would leave more than half of
+     * the room unused, and otherwise after the last character that fits.
+     */
+    private int pieceEnd(long shardBytes, long shardTokens) {
+        TokenCounter counter = new TokenCounter();
+        int lineEnd = 0;
+        int characterEnd = 0;
+        for (int i = 0; i < buffered; i++) {
+            counter.update(buffer, i, 1);
+            if (!limits.fits(shardBytes + i + 1, shardTokens + counter.getTokens())) {
+                break;
+            }
+            if (i + 1 == buffered || (buffer[i + 1] & 0xC0) != 0x80) {
+                characterEnd = i + 1;
+            }
+            if (buffer[i] == '\n' || i + 1 == buffered) {
+                lineEnd = i + 1;
+            }
+        }
+        if (lineEnd > 0 && lineEnd * 2 >= characterEnd) {
+            return lineEnd;
+        }
+        return characterEnd > 0 ? characterEnd : 1;
+    }
+
+    private void writeToShard(String path, byte[] bytes, int offset, int length, long tokens) throws IOException {
+        if (current == null) {
+            openShard();
+        }
+        zip.write(bytes, offset, length);
+        current = grow(current, length, tokens);
+        if (!path.isEmpty()) {
+            current.files().add(path);
+            files.computeIfAbsent(path, p -> new ArrayList<>()).add(current.name());
+        }
+        zip.flush();
+    }
+
+    private void openShard() throws IOException {
+        String name = shardName(shards.size() + 1);
+        zip.putNextEntry(new ZipEntry(name));
+        current = new Shard(name, 0, 0, new ArrayList<>());
+    }
+
+    private void closeShard() throws IOException {
+        if (current != null) {
+            zip.closeEntry();
+            shards.add(current);
+            current = null;
+        }
+    }
+
+    private String shardName(int number) {
+        int extension = baseName.lastIndexOf('.');
+        String stem = extension > 0 ? baseName.substring(0, extension) : baseName;
+        String suffix = extension > 0 ? baseName.substring(extension) : "";
+        return String.format("%s-%03d%s", stem, number, suffix);
+    }
+
+    private static Shard grow(Shard shard, long bytes, long tokens) {
+        return new Shard(shard.name(), shard.bytes() + bytes, shard.tokens() + tokens, shard.files());
+    }
+
+    private static long tokens(byte[] bytes, int offset, int length) {
+        TokenCounter counter = new TokenCounter();
+        counter.update(bytes, offset, length);
+        return counter.getTokens();
+    }
+
+    private void ensureCapacity(int length) {
+        if (buffered + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffered + length, buffer.length * 2));
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package dev.danvega.cg.service;
+
+/**
+ * Limits on the size of the files selected for a document. Files are admitted in output
+ * order from their listed size, before their content is fetched: a file larger than the
+ * per-file limit is skipped, and once the selected files reach the total limit only files
+ * that still fit are admitted. A file that was admitted but is not written, because it is
+ * binary, could not be read or did not fit the token budget, is handed back with
+ * {@link #release(long)}.
+ */
+public class SizeBudget {
+    private static final SizeBudget UNLIMITED = new SizeBudget(Long.MAX_VALUE, Long.MAX_VALUE);
+
+    private final long maxFileSize;
+    private final long maxTotalSize;
+    private long totalSize;
+    private long oversizedFiles;
+    private long overTotalFiles;
+
+    /**
+     * Creates a budget.
+     *
+     * @param maxFileSize The largest file admitted, in bytes
+     * @param maxTotalSize The largest total size of the admitted files, in bytes
+     */
+    public SizeBudget(long maxFileSize, long maxTotalSize) {
+        if (maxFileSize < 1 || maxTotalSize < 1) {
+            throw new IllegalArgumentException("Size limits must be at least 1 byte");
+        }
+        this.maxFileSize = maxFileSize;
+        this.maxTotalSize = maxTotalSize;
+    }
+
+    /**
+     * Returns a budget admitting every file.
+     *
+     * @return the unlimited budget
+     */
+    public static SizeBudget unlimited() {
+        return UNLIMITED;
+    }
+
+    /**
+     * Decides from its listed size whether a file is selected, counting it against the total if it is.
+     *
+     * @param sizeInBytes The size of the file in bytes
+     * @return false if the file is too large or no longer fits and should not be fetched
+     */
+    public synchronized boolean admit(long sizeInBytes) {
+        if (this == UNLIMITED) {
+            return true;
+        }
+        if (sizeInBytes > maxFileSize) {
+            oversizedFiles++;
+            return false;
+        }
+        if (totalSize + sizeInBytes > maxTotalSize) {
+            overTotalFiles++;
+            return false;
+        }
+        totalSize += sizeInBytes;
+        return true;
+    }
+
+    /**
+     * Takes a file that was admitted but will not be written out of the total.
+     *
+     * @param sizeInBytes The size the file was admitted with
+     */
+    public synchronized void release(long sizeInBytes) {
+        if (this == UNLIMITED) {
+            return;
+        }
+        totalSize -= sizeInBytes;
+    }
+
+    /**
+     * Returns whether any file has been skipped.
+     *
+     * @return true if a file was over either limit
+     */
+    public synchronized boolean hasSkippedFiles() {
+        return oversizedFiles > 0 || overTotalFiles > 0;
+    }
+
+    /**
+     * Returns a summary of the admitted and skipped files, for logging.
+     *
+     * @return the summary
+     */
+    @Override
+    public synchronized String toString() {
+        return totalSize + " of " + maxTotalSize + " bytes selected, " + oversizedFiles + " files over "
+                + maxFileSize + " bytes and " + overTotalFiles + " files over the total skipped";
+    }
+}
@@ -0,0 +1,181 @@
+package dev.danvega.cg.service;
+
+import dev.danvega.cg.util.TokenCounter;
+
+import java.util.function.ToLongFunction;
+
+/**
+ * Limit on the estimated number of tokens in a generated document.
+ * <p>
+ * Files are admitted in output order while they fit in the remaining budget; a file that
+ * does not fit is skipped and later, smaller files may still be admitted. Before a file is
+ * downloaded or read, {@link #mayFit(String, long)} rejects files whose size alone suggests they
+ * cannot fit, so that their content is never fetched. {@link #tryAdd(String, long)} then
+ * makes the final decision on the counted tokens of the content. A file that passed
+ * {@code mayFit} but is not written after all, because it is binary or {@code tryAdd} rejected
+ * it, is handed back with {@link #release(String, long)} so that it no longer holds back later files.
+ * <p>
+ * Every file also costs the tokens of the text written around its content, which depend on the
+ * format of the document and are set with {@link #setFrameTokens(ToLongFunction)}.
+ */
+public class TokenBudget {
+    /** Typical number of bytes per token in source code, used to estimate a file from its size. */
+    private static final long BYTES_PER_TOKEN = 4;
+    private static final TokenBudget UNLIMITED = new TokenBudget(Long.MAX_VALUE);
+
+    private final long maxTokens;
+    private long estimatedTokens;
+    private long usedTokens;
+    private long skippedFiles;
+    private ToLongFunction<String> frameTokens =
+            path -> TokenCounter.estimate("File: " + path + "\n\n") + TokenCounter.estimate("\n\n");
+
+    /**
+     * Creates a budget.
+     *
+     * @param maxTokens The maximum number of tokens in the document
+     */
+    public TokenBudget(long maxTokens) {
+        if (maxTokens < 1) {
+            throw new IllegalArgumentException("maxTokens must be at least 1");
+        }
+        this.maxTokens = maxTokens;
+    }
+
+    /**
+     * Returns a budget admitting every file.
+     *
+     * @return the unlimited budget
+     */
+    public static TokenBudget unlimited() {
+        return UNLIMITED;
+    }
+
+    /**
+     * Creates a budget for an optional limit.
+     *
+     * @param maxTokens The maximum number of tokens, or null for no limit
+     * @return The budget
+     */
+    public static TokenBudget of(Long maxTokens) {
+        return maxTokens == null ? UNLIMITED : new TokenBudget(maxTokens);
+    }
+
+    /**
+     * Sets the estimate of the text written around the content of each file, which counts against the
+     * budget. Must be called before any file is checked. Without it, the text format is assumed.
+     *
+     * @param frameTokens Maps the path of a file to the estimated tokens written around its content
+     */
+    public void setFrameTokens(ToLongFunction<String> frameTokens) {
+        if (isLimited()) {
+            this.frameTokens = frameTokens;
+        }
+    }
+
+    /**
+     * Returns whether the budget limits the document at all.
+     *
+     * @return true if a limit is set
+     */
+    public boolean isLimited() {
+        return this != UNLIMITED;
+    }
+
+    /**
+     * Estimates from its size whether a file can still fit, before its content is fetched.
+     * Files passing this check are counted against a running estimate, so that selection
+     * stops once the estimate of the selected files reaches the budget.
+     *
+     * @param path The path written in the file header
+     * @param sizeInBytes The size of the file content in bytes
+     * @return false if the file is estimated not to fit and should not be fetched
+     */
+    public boolean mayFit(String path, long sizeInBytes) {
+        if (!isLimited()) {
+            return true;
+        }
+        long estimate = estimate(path, sizeInBytes);
+        synchronized (this) {
+            if (estimatedTokens + estimate > maxTokens) {
+                skippedFiles++;
+                return false;
+            }
+            estimatedTokens += estimate;
+            return true;
+        }
+    }
+
+    /**
+     * Takes a file that passed {@link #mayFit} but will not be written out of the running estimate.
+     *
+     * @param path The path the file was checked with
+     * @param sizeInBytes The size the file was checked with
+     */
+    public void release(String path, long sizeInBytes) {
+        if (!isLimited()) {
+            return;
+        }
+        long estimate = estimate(path, sizeInBytes);
+        synchronized (this) {
+            estimatedTokens -= estimate;
+        }
+    }
+
+    /**
+     * Admits a file into the document if its header and content fit in the remaining budget.
+     *
+     * @param path The path written in the file header
+     * @param contentTokens The estimated tokens of the file content
+     * @return true if the file was admitted and should be written
+     */
+    public boolean tryAdd(String path, long contentTokens) {
+        if (!isLimited()) {
+            return true;
+        }
+        long tokens = headerTokens(path) + contentTokens;
+        synchronized (this) {
+            if (usedTokens + tokens > maxTokens) {
+                skippedFiles++;
+                return false;
+            }
+            usedTokens += tokens;
+            return true;
+        }
+    }
+
+    /**
+     * Returns the estimated tokens admitted so far.
+     *
+     * @return the used tokens
+     */
+    public synchronized long getUsedTokens() {
+        return usedTokens;
+    }
+
+    /**
+     * Returns the number of files left out because they did not fit.
+     *
+     * @return the number of skipped files
+     */
+    public synchronized long getSkippedFiles() {
+        return skippedFiles;
+    }
+
+    /**
+     * Returns the maximum number of tokens.
+     *
+     * @return the token limit
+     */
+    public long getMaxTokens() {
+        return maxTokens;
+    }
+
+    private long estimate(String path, long sizeInBytes) {
+        return headerTokens(path) + sizeInBytes / BYTES_PER_TOKEN;
+    }
+
+    private long headerTokens(String path) {
+        return frameTokens.applyAsLong(path);
+    }
+}
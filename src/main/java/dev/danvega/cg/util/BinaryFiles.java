@@ -0,0 +1,33 @@
+package dev.danvega.cg.util;
+
+/**
+ * Detects binary content from its first bytes, the way git does: content with a NUL byte
+ * in its first {@value #SNIFF_LENGTH} bytes is binary. Text in UTF-8 never contains NUL,
+ * while nearly every binary format does near its start, so a short prefix is enough.
+ */
+public final class BinaryFiles {
+    /**
+     * The number of leading bytes inspected.
+     */
+    public static final int SNIFF_LENGTH = 8000;
+
+    private BinaryFiles() {
+    }
+
+    /**
+     * Checks whether content looks binary from its leading bytes.
+     *
+     * @param content The buffer holding the start of the content
+     * @param length The number of valid bytes in the buffer
+     * @return true if a NUL byte occurs within the first {@value #SNIFF_LENGTH} bytes
+     */
+    public static boolean isBinary(byte[] content, int length) {
+        int end = Math.min(length, SNIFF_LENGTH);
+        for (int i = 0; i < end; i++) {
+            if (content[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
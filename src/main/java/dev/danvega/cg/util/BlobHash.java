@@ -0,0 +1,55 @@
+package dev.danvega.cg.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Computes git blob object ids: the SHA-1 of {@code blob <size>\0} followed by the content.
+ * The same id that GitHub reports for a file is thereby computed for local files and for
+ * files whose id the fetch did not return.
+ */
+public final class BlobHash {
+
+    private BlobHash() {
+    }
+
+    /**
+     * Computes the blob id of some content.
+     *
+     * @param content The content
+     * @return the blob id as 40 lower-case hex digits
+     */
+    public static String of(byte[] content) {
+        MessageDigest digest = digest(content.length);
+        digest.update(content);
+        return hex(digest);
+    }
+
+    /**
+     * Starts the blob id of content that is hashed in parts.
+     *
+     * @param size The size of the whole content in bytes
+     * @return a digest that has consumed the blob header and expects exactly {@code size} more bytes
+     */
+    public static MessageDigest digest(long size) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(("blob " + size + "\0").getBytes(StandardCharsets.US_ASCII));
+            return digest;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
+    /**
+     * Completes a digest started with {@link #digest(long)}.
+     *
+     * @param digest The digest that has consumed all of the content
+     * @return the blob id as 40 lower-case hex digits
+     */
+    public static String hex(MessageDigest digest) {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
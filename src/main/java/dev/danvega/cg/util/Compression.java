@@ -0,0 +1,164 @@
+package dev.danvega.cg.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compression applied to generated documents, both on the wire through {@code Content-Encoding}
+ * and on disk. Documents are compressed as they are written, never in a second pass.
+ */
+public enum Compression {
+    /**
+     * Documents are written as plain UTF-8 text.
+     */
+    NONE("identity", ""),
+    /**
+     * Documents are written as a gzip stream.
+     */
+    GZIP("gzip", ".gz");
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String encoding;
+    private final String extension;
+
+    Compression(String encoding, String extension) {
+        this.encoding = encoding;
+        this.extension = extension;
+    }
+
+    /**
+     * Returns the {@code Content-Encoding} token of the compression.
+     *
+     * @return the content coding, {@code identity} for no compression
+     */
+    public String encoding() {
+        return encoding;
+    }
+
+    /**
+     * Returns the suffix appended to the names of files written with the compression.
+     *
+     * @return the file name suffix, empty for no compression
+     */
+    public String extension() {
+        return extension;
+    }
+
+    /**
+     * Wraps a stream so that everything written to it is compressed. Flushing the returned stream
+     * flushes the data written so far through the compressor, so a streamed response keeps
+     * reaching the client file by file. Closing it finishes the compressed stream and closes
+     * the wrapped stream.
+     *
+     * @param out The stream receiving the compressed bytes
+     * @return the compressing stream, or the given stream for no compression
+     * @throws IOException If the compressed stream header cannot be written
+     */
+    public OutputStream compress(OutputStream out) throws IOException {
+        return this == GZIP ? new GZIPOutputStream(out, BUFFER_SIZE, true) : out;
+    }
+
+    /**
+     * Wraps a stream of compressed bytes so that it can be read uncompressed.
+     *
+     * @param in The stream of compressed bytes
+     * @return the decompressing stream, or the given stream for no compression
+     * @throws IOException If the compressed stream header cannot be read
+     */
+    public InputStream decompress(InputStream in) throws IOException {
+        return this == GZIP ? new GZIPInputStream(in, BUFFER_SIZE) : in;
+    }
+
+    /**
+     * Derives the entity tag of the compressed representation of a document, so that the
+     * plain and the compressed representation never share a tag.
+     *
+     * @param etag The quoted entity tag of the plain document, or null
+     * @return the entity tag of this representation, or null if the document has none
+     */
+    public String etag(String etag) {
+        if (etag == null || this == NONE) {
+            return etag;
+        }
+        return etag.substring(0, etag.length() - 1) + "-" + encoding + "\"";
+    }
+
+    /**
+     * Parses a compression name case-insensitively.
+     *
+     * @param value The compression name, or null or blank for no compression
+     * @return the compression
+     * @throws IllegalArgumentException If the name is not a supported compression
+     */
+    public static Compression parse(String value) {
+        if (value == null || value.isBlank()) {
+            return NONE;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unsupported compression: " + value + ". Supported compressions: "
+                    + Arrays.stream(values()).map(c -> c.name().toLowerCase(Locale.ROOT)).collect(Collectors.joining(", ")));
+        }
+    }
+
+    /**
+     * Chooses the compression of a response from the {@code Accept-Encoding} request header.
+     * gzip is chosen when the client accepts it, explicitly or through {@code *}, with a
+     * non-zero quality.
+     *
+     * @param acceptEncoding The {@code Accept-Encoding} header, or null if the client sent none
+     * @return the compression to apply to the response
+     */
+    public static Compression negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return NONE;
+        }
+        Double gzip = null;
+        Double any = null;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String token = parts[0].trim().toLowerCase(Locale.ROOT);
+            double quality = quality(parts);
+            if (token.equals("gzip") || token.equals("x-gzip")) {
+                gzip = quality;
+            } else if (token.equals("*")) {
+                any = quality;
+            }
+        }
+        double accepted = gzip != null ? gzip : any != null ? any : 0;
+        return accepted > 0 ? GZIP : NONE;
+    }
+
+    /**
+     * Determines how a file was written from its name.
+     *
+     * @param file The file
+     * @return the compression whose suffix the file name ends with, or none
+     */
+    public static Compression of(Path file) {
+        return file.getFileName().toString().endsWith(GZIP.extension) ? GZIP : NONE;
+    }
+
+    private static double quality(String[] parameters) {
+        for (int i = 1; i < parameters.length; i++) {
+            String parameter = parameters[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+}
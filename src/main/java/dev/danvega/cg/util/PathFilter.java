@@ -0,0 +1,245 @@
+package dev.danvega.cg.util;
+
+import io.micrometer.core.instrument.Timer;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Precompiled set of include and exclude glob patterns that can test string paths
+ * without allocating.
+ * <p>
+ * The glob shapes used by the language processors are recognised when the filter is
+ * built and reduced to plain string comparisons: literals, {@code prefix/**},
+ * {@code **&#47;name}, {@code **&#47;name/**} and {@code **&#47;*.ext}. Any other pattern
+ * falls back to a {@link PathMatcher} compiled once, so matching keeps the exact
+ * semantics of {@code FileSystems.getDefault().getPathMatcher("glob:...")}.
+ * <p>
+ * Instances are immutable and safe to share between threads; obtain them through
+ * {@link PathUtils#getPathFilter(List, List)}, which caches them per pattern set and
+ * records the time spent matching files and directories.
+ */
+public final class PathFilter {
+    private static final String GLOB_CHARACTERS = "*?[]{}\\";
+
+    private final CompiledPattern[] includes;
+    private final CompiledPattern[] excludes;
+    private final Timer fileTimer;
+    private final Timer directoryTimer;
+
+    private enum Kind {
+        /** {@code name} matches only itself. */
+        LITERAL,
+        /** {@code prefix/**} matches everything below the prefix directory. */
+        PREFIX,
+        /** {@code **&#47;name} matches a path ending in the name after a separator. */
+        SUFFIX,
+        /** {@code **&#47;name/**} matches a path containing the name as an inner directory. */
+        CONTAINS,
+        /** {@code **&#47;*.ext} matches a last segment ending in the extension, below at least one directory. */
+        EXTENSION,
+        /** Any other glob, matched through a compiled {@link PathMatcher}. */
+        GLOB
+    }
+
+    private record CompiledPattern(Kind kind, String literal, PathMatcher glob) {
+
+        boolean matches(String path) {
+            return switch (kind) {
+                case LITERAL -> path.equals(literal);
+                case PREFIX -> path.startsWith(literal);
+                case SUFFIX -> path.endsWith(literal);
+                case CONTAINS -> path.contains(literal);
+                case EXTENSION -> {
+                    int lastSeparator = path.lastIndexOf('/');
+                    yield lastSeparator >= 0 && path.length() - literal.length() > lastSeparator && path.endsWith(literal);
+                }
+                case GLOB -> glob.matches(Path.of(path));
+            };
+        }
+
+        /**
+         * Checks whether a directory is excluded by this pattern. Besides matching the directory
+         * path itself, a {@code /**} pattern excludes the directory it names, since every path
+         * below that directory matches the pattern.
+         */
+        boolean matchesDirectory(String dirPath) {
+            return switch (kind) {
+                case PREFIX -> dirPath.startsWith(literal)
+                        || (dirPath.length() == literal.length() - 1 && literal.startsWith(dirPath));
+                case CONTAINS -> dirPath.contains(literal) || endsWithDirectoryName(dirPath);
+                default -> matches(dirPath);
+            };
+        }
+
+        /**
+         * Checks whether the path ends with the literal minus its trailing separator.
+         */
+        private boolean endsWithDirectoryName(String dirPath) {
+            int length = literal.length() - 1;
+            return dirPath.length() >= length && dirPath.regionMatches(dirPath.length() - length, literal, 0, length);
+        }
+    }
+
+    private PathFilter(CompiledPattern[] includes, CompiledPattern[] excludes, Timer fileTimer, Timer directoryTimer) {
+        this.includes = includes;
+        this.excludes = excludes;
+        this.fileTimer = fileTimer;
+        this.directoryTimer = directoryTimer;
+    }
+
+    /**
+     * Compiles include and exclude patterns into a filter.
+     *
+     * @param includePatterns Patterns for files to include; null or empty includes every file
+     * @param excludePatterns Patterns for files and directories to exclude; may be null
+     * @return The compiled filter
+     */
+    public static PathFilter compile(List<String> includePatterns, List<String> excludePatterns) {
+        return compile(includePatterns, excludePatterns, null, null);
+    }
+
+    /**
+     * Compiles include and exclude patterns into a filter that times its matches.
+     *
+     * @param includePatterns Patterns for files to include; null or empty includes every file
+     * @param excludePatterns Patterns for files and directories to exclude; may be null
+     * @param fileTimer The timer recording {@link #shouldInclude} calls, or null
+     * @param directoryTimer The timer recording {@link #isExcludedDirectory} calls, or null
+     * @return The compiled filter
+     */
+    public static PathFilter compile(List<String> includePatterns, List<String> excludePatterns,
+                                     Timer fileTimer, Timer directoryTimer) {
+        return new PathFilter(compileAll(includePatterns), compileAll(excludePatterns), fileTimer, directoryTimer);
+    }
+
+    /**
+     * Determines if a file should be included: it must not match any exclude pattern and,
+     * when include patterns are present, must match at least one of them.
+     *
+     * @param filePath The file path relative to the repository root
+     * @return true if the file should be included, false otherwise
+     */
+    public boolean shouldInclude(String filePath) {
+        if (fileTimer == null) {
+            return matchesFile(filePath);
+        }
+        long start = System.nanoTime();
+        try {
+            return matchesFile(filePath);
+        } finally {
+            fileTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private boolean matchesFile(String filePath) {
+        String path = normalizePath(filePath);
+        if (matchesAny(excludes, path)) {
+            return false;
+        }
+        return includes.length == 0 || matchesAny(includes, path);
+    }
+
+    /**
+     * Checks if a file path matches any exclude pattern.
+     *
+     * @param filePath The file path relative to the repository root
+     * @return true if the path is excluded, false otherwise
+     */
+    public boolean isExcluded(String filePath) {
+        return matchesAny(excludes, normalizePath(filePath));
+    }
+
+    /**
+     * Checks if a directory is excluded, meaning its contents need not be listed or walked.
+     *
+     * @param dirPath The directory path relative to the repository root
+     * @return true if the directory is excluded, false otherwise
+     */
+    public boolean isExcludedDirectory(String dirPath) {
+        if (directoryTimer == null) {
+            return matchesExcludedDirectory(dirPath);
+        }
+        long start = System.nanoTime();
+        try {
+            return matchesExcludedDirectory(dirPath);
+        } finally {
+            directoryTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private boolean matchesExcludedDirectory(String dirPath) {
+        String path = normalizePath(dirPath);
+        for (CompiledPattern pattern : excludes) {
+            if (pattern.matchesDirectory(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesAny(CompiledPattern[] patterns, String path) {
+        for (CompiledPattern pattern : patterns) {
+            if (pattern.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static CompiledPattern[] compileAll(List<String> patterns) {
+        if (patterns == null) {
+            return new CompiledPattern[0];
+        }
+        return patterns.stream().map(PathFilter::compilePattern).toArray(CompiledPattern[]::new);
+    }
+
+    private static CompiledPattern compilePattern(String rawPattern) {
+        String pattern = rawPattern.trim().replace('\\', '/');
+
+        if (isLiteral(pattern)) {
+            return new CompiledPattern(Kind.LITERAL, pattern, null);
+        }
+        if (pattern.startsWith("**/") && pattern.endsWith("/**") && pattern.length() > 6) {
+            String name = pattern.substring(3, pattern.length() - 3);
+            if (isLiteral(name)) {
+                return new CompiledPattern(Kind.CONTAINS, "/" + name + "/", null);
+            }
+        }
+        if (pattern.endsWith("/**") && pattern.length() > 3) {
+            String prefix = pattern.substring(0, pattern.length() - 3);
+            if (isLiteral(prefix)) {
+                return new CompiledPattern(Kind.PREFIX, prefix + "/", null);
+            }
+        }
+        if (pattern.startsWith("**/*") && pattern.length() > 4) {
+            String extension = pattern.substring(4);
+            if (isLiteral(extension) && extension.indexOf('/') < 0) {
+                return new CompiledPattern(Kind.EXTENSION, extension, null);
+            }
+        }
+        if (pattern.startsWith("**/") && pattern.length() > 3) {
+            String name = pattern.substring(3);
+            if (isLiteral(name)) {
+                return new CompiledPattern(Kind.SUFFIX, "/" + name, null);
+            }
+        }
+        return new CompiledPattern(Kind.GLOB, pattern, FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+    }
+
+    private static boolean isLiteral(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (GLOB_CHARACTERS.indexOf(value.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String normalizePath(String path) {
+        return path.replace('\\', '/');
+    }
+}
@@ -1,5 +1,7 @@
 package dev.danvega.cg.util;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.stereotype.Component;
 
 import java.nio.file.FileSystems;
@@ -7,6 +9,9 @@ import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
@@ -14,6 +19,29 @@ import java.util.stream.Collectors;
  */
 @Component
 public class PathUtils {
+    private final Map<PatternSet, PathFilter> pathFilters = new ConcurrentHashMap<>();
+    private final Timer fileMatchTimer;
+    private final Timer directoryMatchTimer;
+
+    private record PatternSet(List<String> includePatterns, List<String> excludePatterns) {
+    }
+
+    /**
+     * Creates the path utilities.
+     *
+     * @param meterRegistry The registry receiving the pattern matching timings
+     */
+    public PathUtils(MeterRegistry meterRegistry) {
+        this.fileMatchTimer = matchTimer(meterRegistry, "file");
+        this.directoryMatchTimer = matchTimer(meterRegistry, "directory");
+    }
+
+    private static Timer matchTimer(MeterRegistry meterRegistry, String target) {
+        return Timer.builder("cg.path.match")
+                .description("Time spent matching paths against include and exclude patterns")
+                .tag("target", target)
+                .register(meterRegistry);
+    }
 
     /**
      * Determines the filename based on the provided GitHub repository URL or local path.
@@ -32,6 +60,34 @@ public class PathUtils {
         return "output";
     }
 
+    /**
+     * Returns the extension of the last segment of a path.
+     *
+     * @param path The path, with {@code /} as separator, or a file name
+     * @return The lower-case extension without the dot, or an empty string if there is none
+     */
+    public static String getExtension(String path) {
+        int nameStart = path.lastIndexOf('/') + 1;
+        int dot = path.lastIndexOf('.');
+        return dot > nameStart ? path.substring(dot + 1).toLowerCase(Locale.ROOT) : "";
+    }
+
+    /**
+     * Returns the compiled filter for a set of include and exclude patterns. Filters are
+     * cached, so every language processor's patterns are only compiled once.
+     *
+     * @param includePatterns List of include patterns
+     * @param excludePatterns List of exclude patterns
+     * @return The compiled filter
+     */
+    public PathFilter getPathFilter(List<String> includePatterns, List<String> excludePatterns) {
+        PatternSet key = new PatternSet(
+                includePatterns == null ? List.of() : List.copyOf(includePatterns),
+                excludePatterns == null ? List.of() : List.copyOf(excludePatterns));
+        return pathFilters.computeIfAbsent(key, k -> PathFilter.compile(k.includePatterns(), k.excludePatterns(),
+                fileMatchTimer, directoryMatchTimer));
+    }
+
     /**
      * Checks if a path is excluded based on exclude patterns.
      *
@@ -40,10 +96,7 @@ public class PathUtils {
      * @return true if the path matches any exclude pattern, false otherwise
      */
     public boolean isExcluded(String path, List<String> excludePatterns) {
-        if (excludePatterns == null || excludePatterns.isEmpty()) {
-            return false;
-        }
-        return matchesAnyPattern(path, excludePatterns);
+        return getPathFilter(null, excludePatterns).isExcluded(path);
     }
 
     /**
@@ -55,11 +108,7 @@ public class PathUtils {
      * @return true if the file should be included, false otherwise
      */
     public boolean shouldIncludeFile(String filePath, List<String> includePatterns, List<String> excludePatterns) {
-        if (isExcluded(filePath, excludePatterns)) {
-            return false;
-        }
-
-        return includePatterns == null || includePatterns.isEmpty() || matchesAnyPattern(filePath, includePatterns);
+        return getPathFilter(includePatterns, excludePatterns).shouldInclude(filePath);
     }
 
     public boolean shouldIncludeFile(Path filePath, Path sourceDir, List<PathMatcher> includeMatchers, List<PathMatcher> excludeMatchers) {
@@ -86,46 +135,7 @@ public class PathUtils {
     }
 
     public boolean isExcludedDirectory(String dirPath, List<String> excludePatterns) {
-        if (excludePatterns == null || excludePatterns.isEmpty()) {
-            return false;
-        }
-
-        dirPath = normalizePath(dirPath);
-
-        for (String pattern : excludePatterns) {
-            String normalizedPattern = normalizePattern(pattern);
-
-            if (dirPath.equals(normalizedPattern) ||
-                    dirPath.startsWith(normalizedPattern.replace("/**", "/")) ||
-                    FileSystems.getDefault().getPathMatcher("glob:" + normalizedPattern).matches(Paths.get(dirPath))) {
-                return true;
-            }
-        }
-
-        return false;
-    }
-
-    /**
-     * Checks if a path matches any pattern in the given list.
-     *
-     * @param path The path to check
-     * @param patterns List of patterns to match against
-     * @return true if the path matches any pattern, false otherwise
-     */
-    private boolean matchesAnyPattern(String path, List<String> patterns) {
-        if (patterns == null || patterns.isEmpty()) {
-            return false;
-        }
-
-        path = normalizePath(path);
-
-        for (String pattern : patterns) {
-            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + normalizePattern(pattern));
-            if (matcher.matches(Paths.get(path))) {
-                return true;
-            }
-        }
-        return false;
+        return getPathFilter(null, excludePatterns).isExcludedDirectory(dirPath);
     }
 
     /**
@@ -148,16 +158,6 @@ public class PathUtils {
         return pattern.trim().replace('\\', '/');
     }
 
-    /**
-     * Normalizes a path by replacing backslashes with forward slashes.
-     *
-     * @param path The path to normalize
-     * @return The normalized path
-     */
-    private String normalizePath(String path) {
-        return path.replace('\\', '/');
-    }
-
     /**
      * Normalizes a path by replacing backslashes with forward slashes.
      *
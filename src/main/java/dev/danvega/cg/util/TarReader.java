@@ -0,0 +1,217 @@
+package dev.danvega.cg.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal streaming reader for tar archives as produced by {@code git archive}.
+ * Supports ustar names, pax extended headers and GNU long names. Entries are read
+ * one at a time straight from the underlying stream, so the archive is never buffered.
+ */
+public class TarReader {
+    private static final int BLOCK_SIZE = 512;
+
+    private final InputStream in;
+    private final byte[] header = new byte[BLOCK_SIZE];
+    private long remaining;
+    private long padding;
+
+    /**
+     * A file or directory entry of the archive.
+     *
+     * @param name The path of the entry within the archive
+     * @param size The size of the entry content in bytes
+     * @param directory Whether the entry is a directory
+     * @param file Whether the entry is a regular file
+     */
+    public record Entry(String name, long size, boolean directory, boolean file) {
+    }
+
+    /**
+     * Creates a reader over an uncompressed tar stream.
+     *
+     * @param in The tar stream
+     */
+    public TarReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Advances to the next entry, skipping any unread content of the current one.
+     *
+     * @return The next entry, or null at the end of the archive
+     * @throws IOException If the archive cannot be read
+     */
+    public Entry next() throws IOException {
+        skipFully(remaining + padding);
+        remaining = 0;
+        padding = 0;
+
+        String longName = null;
+        Long paxSize = null;
+        while (true) {
+            if (!readBlock(header)) {
+                return null;
+            }
+            if (isZeroBlock(header)) {
+                return null;
+            }
+
+            char type = (char) header[156];
+            long size = parseNumber(header, 124, 12);
+
+            if (type == 'x' || type == 'L') {
+                String extended = new String(readBytes(size), StandardCharsets.UTF_8);
+                skipFully(paddingFor(size));
+                if (type == 'L') {
+                    longName = trimNul(extended);
+                } else {
+                    String paxPath = paxValue(extended, "path");
+                    if (paxPath != null) {
+                        longName = paxPath;
+                    }
+                    String paxSizeValue = paxValue(extended, "size");
+                    if (paxSizeValue != null) {
+                        paxSize = Long.parseLong(paxSizeValue);
+                    }
+                }
+                continue;
+            }
+            if (type == 'g') {
+                skipFully(size + paddingFor(size));
+                continue;
+            }
+
+            if (paxSize != null) {
+                size = paxSize;
+            }
+            String name = longName != null ? longName : headerName();
+            remaining = size;
+            padding = paddingFor(size);
+            boolean directory = type == '5';
+            boolean file = type == '0' || type == '\0' || type == '7';
+            return new Entry(name, size, directory, file);
+        }
+    }
+
+    /**
+     * Reads the full content of the current entry.
+     *
+     * @return The content bytes of the current entry
+     * @throws IOException If the archive cannot be read
+     */
+    public byte[] readContent() throws IOException {
+        byte[] content = readBytes(remaining);
+        remaining = 0;
+        return content;
+    }
+
+    private String headerName() {
+        String name = readString(header, 0, 100);
+        if ("ustar".equals(readString(header, 257, 5))) {
+            String prefix = readString(header, 345, 155);
+            if (!prefix.isEmpty()) {
+                name = prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+
+    private byte[] readBytes(long size) throws IOException {
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IOException("Tar entry too large: " + size + " bytes");
+        }
+        byte[] bytes = in.readNBytes((int) size);
+        if (bytes.length != size) {
+            throw new EOFException("Unexpected end of tar archive");
+        }
+        return bytes;
+    }
+
+    private boolean readBlock(byte[] block) throws IOException {
+        int read = in.readNBytes(block, 0, BLOCK_SIZE);
+        if (read == 0) {
+            return false;
+        }
+        if (read != BLOCK_SIZE) {
+            throw new EOFException("Unexpected end of tar archive");
+        }
+        return true;
+    }
+
+    private void skipFully(long count) throws IOException {
+        in.skipNBytes(count);
+    }
+
+    private static long paddingFor(long size) {
+        long rest = size % BLOCK_SIZE;
+        return rest == 0 ? 0 : BLOCK_SIZE - rest;
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses an octal header field, or a base-256 field when its high bit is set.
+     */
+    private static long parseNumber(byte[] block, int offset, int length) {
+        if ((block[offset] & 0x80) != 0) {
+            long value = block[offset] & 0x7F;
+            for (int i = offset + 1; i < offset + length; i++) {
+                value = (value << 8) | (block[i] & 0xFF);
+            }
+            return value;
+        }
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = block[i];
+            if (b >= '0' && b <= '7') {
+                value = (value << 3) + (b - '0');
+            } else if (b == 0 || (b == ' ' && value > 0)) {
+                break;
+            }
+        }
+        return value;
+    }
+
+    private static String readString(byte[] block, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && block[end] != 0) {
+            end++;
+        }
+        return new String(block, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static String trimNul(String value) {
+        int nul = value.indexOf('\0');
+        return nul >= 0 ? value.substring(0, nul) : value;
+    }
+
+    /**
+     * Extracts a value from pax extended header records of the form {@code "<length> <key>=<value>\n"}.
+     */
+    private static String paxValue(String records, String key) {
+        int position = 0;
+        while (position < records.length()) {
+            int space = records.indexOf(' ', position);
+            int end = records.indexOf('\n', space);
+            if (space < 0 || end < 0) {
+                return null;
+            }
+            String record = records.substring(space + 1, end);
+            if (record.startsWith(key + "=")) {
+                return record.substring(key.length() + 1);
+            }
+            position = end + 1;
+        }
+        return null;
+    }
+}
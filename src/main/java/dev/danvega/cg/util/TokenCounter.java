@@ -0,0 +1,146 @@
+package dev.danvega.cg.util;
+
+/**
+ * Streaming estimate of the number of LLM tokens in UTF-8 text, approximating how BPE
+ * tokenizers split source code without running one.
+ * <p>
+ * Text is split into runs of characters of the same class, which are priced as follows:
+ * <ul>
+ *     <li>letters: one token per four characters, as common words and identifier parts are merged</li>
+ *     <li>digits: one token per three digits</li>
+ *     <li>spaces: a single space is merged into the following word, longer runs cost one token per four spaces</li>
+ *     <li>line breaks and tabs: one token per run</li>
+ *     <li>punctuation and other ASCII symbols: one token each</li>
+ *     <li>non-ASCII characters: one token each</li>
+ * </ul>
+ * Input can be fed in chunks of any size, including chunks that split a UTF-8 sequence.
+ * Counting allocates nothing. Instances are not thread-safe.
+ */
+public final class TokenCounter {
+    private static final byte OTHER = 0;
+    private static final byte LETTER = 1;
+    private static final byte DIGIT = 2;
+    private static final byte SPACE = 3;
+    private static final byte BREAK = 4;
+    private static final byte[] ASCII_CLASSES = new byte[128];
+
+    static {
+        for (int c = 'a'; c <= 'z'; c++) {
+            ASCII_CLASSES[c] = LETTER;
+            ASCII_CLASSES[c - 'a' + 'A'] = LETTER;
+        }
+        ASCII_CLASSES['_'] = LETTER;
+        for (int c = '0'; c <= '9'; c++) {
+            ASCII_CLASSES[c] = DIGIT;
+        }
+        ASCII_CLASSES[' '] = SPACE;
+        ASCII_CLASSES['\n'] = BREAK;
+        ASCII_CLASSES['\r'] = BREAK;
+        ASCII_CLASSES['\t'] = BREAK;
+    }
+
+    private long tokens;
+    private byte runClass = OTHER;
+    private long runLength;
+
+    /**
+     * Estimates the tokens in UTF-8 encoded text.
+     *
+     * @param content The UTF-8 encoded text
+     * @return The estimated number of tokens
+     */
+    public static long estimate(byte[] content) {
+        TokenCounter counter = new TokenCounter();
+        counter.update(content, 0, content.length);
+        return counter.getTokens();
+    }
+
+    /**
+     * Estimates the tokens in a string.
+     *
+     * @param text The text
+     * @return The estimated number of tokens
+     */
+    public static long estimate(CharSequence text) {
+        TokenCounter counter = new TokenCounter();
+        counter.update(text);
+        return counter.getTokens();
+    }
+
+    /**
+     * Adds a chunk of UTF-8 encoded text.
+     *
+     * @param bytes The buffer holding the chunk
+     * @param offset The start of the chunk within the buffer
+     * @param length The length of the chunk
+     */
+    public void update(byte[] bytes, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            int b = bytes[i] & 0xFF;
+            if (b < 0x80) {
+                accept(ASCII_CLASSES[b]);
+            } else if ((b & 0xC0) != 0x80) {
+                acceptNonAscii();
+            }
+        }
+    }
+
+    /**
+     * Adds text given as characters.
+     *
+     * @param text The text
+     */
+    public void update(CharSequence text) {
+        for (int i = 0, length = text.length(); i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                accept(ASCII_CLASSES[c]);
+            } else if (!Character.isLowSurrogate(c)) {
+                acceptNonAscii();
+            }
+        }
+    }
+
+    /**
+     * Returns the estimated number of tokens in the text added so far.
+     *
+     * @return the estimated token count
+     */
+    public long getTokens() {
+        return tokens + runTokens();
+    }
+
+    private void accept(byte characterClass) {
+        if (characterClass == OTHER) {
+            endRun();
+            tokens++;
+        } else if (characterClass == runClass) {
+            runLength++;
+        } else {
+            endRun();
+            runClass = characterClass;
+            runLength = 1;
+        }
+    }
+
+    private void acceptNonAscii() {
+        endRun();
+        tokens++;
+    }
+
+    private void endRun() {
+        tokens += runTokens();
+        runClass = OTHER;
+        runLength = 0;
+    }
+
+    private long runTokens() {
+        return switch (runClass) {
+            case LETTER -> (runLength + 3) / 4;
+            case DIGIT -> (runLength + 2) / 3;
+            case SPACE -> runLength / 4;
+            case BREAK -> 1;
+            default -> 0;
+        };
+    }
+}
@@ -0,0 +1,59 @@
+package dev.danvega.cg.controller;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "github.token=test")
+class ContentControllerTest {
+
+    @TempDir
+    static Path tempDir;
+
+    @LocalServerPort
+    int port;
+
+    @DynamicPropertySource
+    static void outputDirectory(DynamicPropertyRegistry registry) {
+        registry.add("app.output.directory", () -> tempDir.resolve("output").toString());
+    }
+
+    /**
+     * The type is sent exactly as a browser or curl sends it, so an unescaped {@code +} arrives as a space.
+     */
+    @ParameterizedTest
+    @ValueSource(strings = {"java+python", "java%2Bpython", "java,python"})
+    void mergesLanguagesFromQueryString(String type) throws IOException, InterruptedException {
+        Path source = Files.createDirectories(tempDir.resolve("source-" + type.hashCode() + "/src"));
+        Files.writeString(source.resolve("App.java"), "class App {}\n");
+        Files.writeString(source.resolve("app.py"), "print('app')\n");
+
+        URI uri = URI.create("http://localhost:" + port + "/api/content/generate?localPath="
+                + URLEncoder.encode(source.getParent().toString(), StandardCharsets.UTF_8) + "&type=" + type);
+        HttpResponse<String> response;
+        try (HttpClient client = HttpClient.newHttpClient()) {
+            response = client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString());
+        }
+
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.body())
+                .contains("File: src/App.java\n\nclass App {}\n")
+                .contains("File: src/app.py\n\nprint('app')\n");
+    }
+}
@@ -0,0 +1,146 @@
+package dev.danvega.cg.model.processor;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Minifies sources whose comment and string delimiters are easy to confuse. Every source is also
+ * written one byte at a time, which must give the same output as writing it at once.
+ */
+class SourceMinifierTest {
+    private final LanguageProcessor java = new JavaLanguageProcessor();
+    private final LanguageProcessor kotlin = new KotlinLanguageProcessor();
+    private final LanguageProcessor python = new PythonLanguageProcessor();
+
+    @Test
+    void removesCommentsAndCollapsesWhitespace() {
+        assertThat(minify(java, """
+                /*
+                 * License header
+                 */
+                package a;
+
+                /** Docs. */
+                class A {   // trailing comment
+                    int x  =  1;\t\r
+                }
+                """)).isEqualTo("package a;\nclass A {\nint x = 1;\n}\n");
+    }
+
+    @Test
+    void keepsCommentMarkersInsideStringsAndCharacterLiterals() {
+        String source = """
+                String url = "http://example.com/*not a comment*/"; // comment
+                char slash = '/'; char quote = '"'; char escaped = '\\''; String s = "\\"//\\"";
+                int c = '/' / 2; // '"' in a comment
+                """;
+        String expected = """
+                String url = "http://example.com/*not a comment*/";
+                char slash = '/'; char quote = '"'; char escaped = '\\''; String s = "\\"//\\"";
+                int c = '/' / 2;
+                """;
+        assertThat(minify(java, source)).isEqualTo(expected);
+        assertThat(minify(kotlin, source)).isEqualTo(expected);
+    }
+
+    @Test
+    void keepsJavaTextBlocksWithEscapedQuotes() {
+        String textBlock = "\"\"\"\n    {\"a\": \"// not a comment \\\"\"\" still text /* */ \"}\n    \"\"\"";
+        assertThat(minify(java, "String json = " + textBlock + "; // end\n"))
+                .isEqualTo("String json = " + textBlock + ";\n");
+    }
+
+    @Test
+    void removesNestedKotlinBlockComments() {
+        assertThat(minify(kotlin, "val a = 1 /* outer /* inner */ still comment */ + 2\n/**/val b = 3\n"))
+                .isEqualTo("val a = 1 + 2\nval b = 3\n");
+    }
+
+    @Test
+    void endsJavaBlockCommentsAtTheFirstClose() {
+        assertThat(minify(java, "int a = 1 /* outer /* inner */ + 2;\n")).isEqualTo("int a = 1 + 2;\n");
+    }
+
+    @Test
+    void keepsKotlinRawStringsEndingInQuotes() {
+        assertThat(minify(kotlin, "val s = \"\"\"say \"hi\" \\ // not a comment\"\"\"\" // comment\nval t = \"\"\n"))
+                .isEqualTo("val s = \"\"\"say \"hi\" \\ // not a comment\"\"\"\"\nval t = \"\"\n");
+    }
+
+    @Test
+    void lexesKotlinTemplateExpressionsAsCode() {
+        assertThat(minify(kotlin, "val u = \"${url.removePrefix(\"https://\")}\" // comment\n"))
+                .isEqualTo("val u = \"${url.removePrefix(\"https://\")}\"\n");
+        assertThat(minify(kotlin, "val s = \"\"\"${xs.map { \"/*${it}*/\" }.joinToString()} // \"\"\" /* comment */\n"))
+                .isEqualTo("val s = \"\"\"${xs.map { \"/*${it}*/\" }.joinToString()} // \"\"\"\n");
+        assertThat(minify(kotlin, "val t = \"$a // ${'$'}{b} \\${c // d}\" // e\nval p = \"$\" + \"}\"\n"))
+                .isEqualTo("val t = \"$a // ${'$'}{b} \\${c // d}\"\nval p = \"$\" + \"}\"\n");
+    }
+
+    @Test
+    void ignoresDollarBracesInJavaStrings() {
+        assertThat(minify(java, "String s = \"${\" + x; // comment\nint y = 1; }\n"))
+                .isEqualTo("String s = \"${\" + x;\nint y = 1; }\n");
+    }
+
+    @Test
+    void keepsPythonStringsWithHashes() {
+        assertThat(minify(python, """
+                # Licensed under the MIT license
+                def f(x):  # comment
+                    \"""Docstring with # hash.\"""
+                    a = r"#raw\\d" # comment
+                    b = f'{x}#' + b'#' + rb"#" + u'#'
+                    c = '''it's # not
+                  a comment'''  # comment
+
+                    return "#" '#'
+                """)).isEqualTo("""
+                def f(x):
+                    \"""Docstring with # hash.\"""
+                    a = r"#raw\\d"
+                    b = f'{x}#' + b'#' + rb"#" + u'#'
+                    c = '''it's # not
+                  a comment'''
+                    return "#" '#'
+                """);
+    }
+
+    @Test
+    void keepsTokensAroundAnEmptyCommentApart() {
+        assertThat(minify(java, "int c = a/**/b;\nint d = a/* */-b;\n")).isEqualTo("int c = a b;\nint d = a -b;\n");
+        assertThat(minify(kotlin, "val c = a/**/b\n")).isEqualTo("val c = a b\n");
+    }
+
+    @Test
+    void keepsTrailingSlash() {
+        assertThat(minify(java, "a /")).isEqualTo("a /\n");
+    }
+
+    /**
+     * Minifies the source as one chunk and one byte at a time, checking that both give the same output.
+     */
+    private static String minify(LanguageProcessor processor, String source) {
+        byte[] bytes = source.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream whole = new ByteArrayOutputStream();
+        ByteArrayOutputStream bytewise = new ByteArrayOutputStream();
+        try (OutputStream out = processor.minify(whole); OutputStream byteOut = processor.minify(bytewise)) {
+            out.write(bytes);
+            for (byte b : bytes) {
+                byteOut.write(new byte[]{b});
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        String minified = whole.toString(StandardCharsets.UTF_8);
+        assertThat(bytewise.toString(StandardCharsets.UTF_8)).as("one byte at a time").isEqualTo(minified);
+        return minified;
+    }
+}
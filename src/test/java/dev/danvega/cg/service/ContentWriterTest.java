@@ -0,0 +1,214 @@
+package dev.danvega.cg.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.danvega.cg.model.OutputFormat;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Parses documents written in the structured formats back with real parsers, with file contents
+ * holding every character that needs escaping.
+ */
+class ContentWriterTest {
+    private static final String CONTROL_CHARACTERS = controlCharacters();
+
+    /**
+     * Contents keyed by path, as UTF-8 bytes. Invalid UTF-8, such as an unpaired surrogate encoded
+     * on its own, stands for what a local file may hold.
+     */
+    private static final Map<String, byte[]> FILES = files();
+
+    /**
+     * Contents the writer decodes differently from {@link String}, which replaces an encoded surrogate
+     * as a whole instead of byte by byte as the Unicode standard recommends.
+     */
+    private static final Map<String, String> DECODED = Map.of(
+            "surrogate-bytes.txt", "high \uFFFD\uFFFD\uFFFD low \uFFFD\uFFFD\uFFFD end");
+
+    @Test
+    void jsonLinesParseBackToTheFileContents() throws IOException {
+        byte[] document = write(OutputFormat.JSONL, 1 << 16);
+        ObjectMapper objectMapper = new ObjectMapper();
+
+        List<byte[]> lines = lines(document);
+        assertThat(lines).hasSize(FILES.size());
+        int i = 0;
+        for (Map.Entry<String, byte[]> file : FILES.entrySet()) {
+            JsonNode entry = objectMapper.readTree(lines.get(i++));
+            assertThat(entry.get("path").asText()).isEqualTo(file.getKey());
+            assertThat(entry.get("size").asLong()).isEqualTo(file.getValue().length);
+            assertThat(entry.get("sha").asText()).hasSize(40);
+            assertThat(entry.get("language").isNull()).isTrue();
+            assertThat(entry.get("content").asText()).as(file.getKey()).isEqualTo(decode(file));
+        }
+    }
+
+    @Test
+    void xmlParsesBackToTheFileContents() throws Exception {
+        byte[] document = write(OutputFormat.XML, 1 << 16);
+
+        assertOnlyXmlWhitespaceBelowSpace(document);
+        NodeList elements = parseXml(document).getDocumentElement().getElementsByTagName("file");
+        assertThat(elements.getLength()).isEqualTo(FILES.size());
+        int i = 0;
+        for (Map.Entry<String, byte[]> file : FILES.entrySet()) {
+            Element element = (Element) elements.item(i++);
+            assertThat(element.getAttribute("path")).isEqualTo(file.getKey());
+            assertThat(element.getAttribute("size")).isEqualTo(String.valueOf(file.getValue().length));
+            assertThat(element.hasAttribute("language")).isFalse();
+            assertThat(element.getTextContent()).as(file.getKey()).isEqualTo(xmlText(decode(file)));
+        }
+    }
+
+    /**
+     * Content read from a source arrives in chunks that may split a multi-byte character.
+     */
+    @Test
+    void chunkedContentIsEscapedLikeWholeContent() throws IOException {
+        for (OutputFormat format : List.of(OutputFormat.JSONL, OutputFormat.XML)) {
+            assertThat(write(format, 1)).as(format.name()).isEqualTo(write(format, 1 << 16));
+        }
+    }
+
+    @Test
+    void pathsAreEscaped() throws Exception {
+        String path = "src/<odd> & \"quoted\"\\\u0001\t.java";
+        ByteArrayOutputStream jsonl = new ByteArrayOutputStream();
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        for (ByteArrayOutputStream out : List.of(jsonl, xml)) {
+            try (ContentWriter writer = new ContentWriter(out)) {
+                writer.setFormat(out == jsonl ? OutputFormat.JSONL : OutputFormat.XML, p -> "java");
+                writer.write(path, "class A {}".getBytes(StandardCharsets.UTF_8));
+                writer.finish();
+            }
+        }
+
+        JsonNode entry = new ObjectMapper().readTree(jsonl.toByteArray());
+        assertThat(entry.get("path").asText()).isEqualTo(path);
+        assertThat(entry.get("language").asText()).isEqualTo("java");
+        assertOnlyXmlWhitespaceBelowSpace(xml.toByteArray());
+        Element element = (Element) parseXml(xml.toByteArray()).getElementsByTagName("file").item(0);
+        assertThat(element.getAttribute("path")).isEqualTo("src/<odd> & \"quoted\"\\\uFFFD .java");
+        assertThat(element.getAttribute("language")).isEqualTo("java");
+    }
+
+    /**
+     * Writes every file, streaming its content through the writer in chunks of the given size.
+     */
+    private static byte[] write(OutputFormat format, int chunkSize) throws IOException {
+        ByteArrayOutputStream document = new ByteArrayOutputStream();
+        try (ContentWriter writer = new ContentWriter(document)) {
+            writer.setFormat(format, path -> null);
+            writer.setMinifier((path, out) -> new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                }
+
+                @Override
+                public void write(byte[] bytes, int offset, int length) throws IOException {
+                    for (int start = offset; start < offset + length; start += chunkSize) {
+                        out.write(bytes, start, Math.min(chunkSize, offset + length - start));
+                    }
+                }
+            });
+            for (Map.Entry<String, byte[]> file : FILES.entrySet()) {
+                writer.write(file.getKey(), file.getValue());
+            }
+            writer.finish();
+        }
+        return document.toByteArray();
+    }
+
+    private static void assertOnlyXmlWhitespaceBelowSpace(byte[] document) {
+        for (int i = 0; i < document.length; i++) {
+            int b = document[i];
+            if (b >= 0 && b < 0x20) {
+                assertThat(b).as("byte at %d", i).isIn((int) '\t', (int) '\n', (int) '\r');
+            }
+        }
+    }
+
+    private static Document parseXml(byte[] document) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(document));
+    }
+
+    private static List<byte[]> lines(byte[] document) {
+        List<byte[]> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < document.length; i++) {
+            if (document[i] == '\n') {
+                lines.add(Arrays.copyOfRange(document, start, i));
+                start = i + 1;
+            }
+        }
+        assertThat(start).as("document ends with a line feed").isEqualTo(document.length);
+        return lines;
+    }
+
+    private static String decode(Map.Entry<String, byte[]> file) {
+        return DECODED.getOrDefault(file.getKey(), new String(file.getValue(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the text an XML parser reports for content: characters XML cannot hold become U+FFFD.
+     */
+    private static String xmlText(String content) {
+        StringBuilder text = new StringBuilder();
+        content.codePoints().forEach(c -> text.appendCodePoint(
+                c < 0x20 && c != '\t' && c != '\n' && c != '\r' || c == 0xFFFE || c == 0xFFFF ? 0xFFFD : c));
+        return text.toString();
+    }
+
+    private static String controlCharacters() {
+        StringBuilder characters = new StringBuilder();
+        for (char c = 0; c < 0x20; c++) {
+            characters.append(c);
+        }
+        return characters.append('\u007F').toString();
+    }
+
+    private static Map<String, byte[]> files() {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("control.txt", ("before" + CONTROL_CHARACTERS + "after\r\n").getBytes(StandardCharsets.UTF_8));
+        files.put("markup.txt", "<a href=\"x\">&amp; ' \\ \" ]]> </a>".getBytes(StandardCharsets.UTF_8));
+        files.put("separators.js", "var s = '\u2028\u2029';\n".getBytes(StandardCharsets.UTF_8));
+        files.put("unicode.txt", "caf\u00E9 \u20AC \uD83D\uDE00 \u0085".getBytes(StandardCharsets.UTF_8));
+        files.put("surrogate-string.txt", "high \uD800 low \uDC00 end".getBytes(StandardCharsets.UTF_8));
+        files.put("surrogate-bytes.txt", bytes("high ", 0xED, 0xA0, 0x80, " low ", 0xED, 0xB0, 0x80, " end"));
+        files.put("noncharacters.txt", "\uFFFE\uFFFF".getBytes(StandardCharsets.UTF_8));
+        files.put("latin1.txt", bytes("caf", 0xE9, " ", 0xC3, " ", 0xF0, 0x9F, " ", 0x80));
+        files.put("truncated.txt", bytes("euro ", 0xE2, 0x82));
+        files.put("empty.txt", new byte[0]);
+        return files;
+    }
+
+    private static byte[] bytes(Object... parts) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (Object part : parts) {
+            if (part instanceof String text) {
+                bytes.writeBytes(text.getBytes(StandardCharsets.UTF_8));
+            } else {
+                bytes.write((Integer) part);
+            }
+        }
+        return bytes.toByteArray();
+    }
+}
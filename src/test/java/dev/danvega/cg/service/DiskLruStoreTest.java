@@ -0,0 +1,103 @@
+package dev.danvega.cg.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DiskLruStoreTest {
+    private static final Pattern KEY_PATTERN = Pattern.compile("[0-9a-f]{4}");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void evictsLeastRecentlyReadEntries() {
+        DiskLruStore store = new DiskLruStore(directory, 8, KEY_PATTERN, "entry");
+        store.write("aa01", bytes("123"));
+        store.write("aa02", bytes("456"));
+        assertThat(store.read("aa01")).isEqualTo(bytes("123"));
+
+        store.write("bb03", bytes("78"), bytes("9"));
+
+        assertThat(store.contains("aa02")).isFalse();
+        assertThat(directory.resolve("aa").resolve("aa02")).doesNotExist();
+        assertThat(store.read("aa01")).isEqualTo(bytes("123"));
+        assertThat(store.read("bb03")).isEqualTo(bytes("789"));
+        assertThat(store.size()).isEqualTo(6);
+    }
+
+    @Test
+    void replacingAnEntryCountsItsSizeOnce() {
+        DiskLruStore store = new DiskLruStore(directory, 8, KEY_PATTERN, "entry");
+        store.write("aa01", bytes("1234"));
+        store.write("aa01", bytes("12"));
+
+        assertThat(store.size()).isEqualTo(2);
+        assertThat(store.read("aa01")).isEqualTo(bytes("12"));
+    }
+
+    @Test
+    void skipsEntriesLargerThanTheLimitAndWritesNothingWhenDisabled() {
+        DiskLruStore store = new DiskLruStore(directory, 4, KEY_PATTERN, "entry");
+        store.write("aa01", bytes("12345"));
+        DiskLruStore disabled = new DiskLruStore(directory.resolve("disabled"), 0, KEY_PATTERN, "entry");
+        disabled.write("aa01", new byte[0]);
+
+        assertThat(store.contains("aa01")).isFalse();
+        assertThat(directory.resolve("aa")).doesNotExist();
+        assertThat(disabled.contains("aa01")).isFalse();
+        assertThat(directory.resolve("disabled")).doesNotExist();
+    }
+
+    @Test
+    void reloadsEntriesInModificationOrder() throws Exception {
+        DiskLruStore store = new DiskLruStore(directory, 8, KEY_PATTERN, "entry");
+        store.write("aa01", bytes("123"));
+        store.write("aa02", bytes("456"));
+        Files.setLastModifiedTime(directory.resolve("aa").resolve("aa01"), FileTime.fromMillis(2_000));
+        Files.setLastModifiedTime(directory.resolve("aa").resolve("aa02"), FileTime.fromMillis(1_000));
+        Files.writeString(directory.resolve("aa").resolve("not-a-key"), "ignored");
+
+        DiskLruStore reloaded = new DiskLruStore(directory, 8, KEY_PATTERN, "entry");
+        assertThat(reloaded.size()).isEqualTo(6);
+        reloaded.write("bb03", bytes("789"));
+
+        assertThat(reloaded.contains("aa02")).isFalse();
+        assertThat(reloaded.read("aa01")).isEqualTo(bytes("123"));
+    }
+
+    @Test
+    void deletesTemporaryFilesLeftByAnInterruptedWrite() throws Exception {
+        DiskLruStore store = new DiskLruStore(directory, 8, KEY_PATTERN, "entry");
+        store.write("aa01", bytes("123"));
+        Path stray = Files.writeString(directory.resolve("aa").resolve("aa021234567.tmp"), "45");
+
+        DiskLruStore reloaded = new DiskLruStore(directory, 8, KEY_PATTERN, "entry");
+
+        assertThat(stray).doesNotExist();
+        assertThat(reloaded.size()).isEqualTo(3);
+        assertThat(reloaded.read("aa01")).isEqualTo(bytes("123"));
+    }
+
+    @Test
+    void forgetsEntriesWhoseFileWasRemoved() throws Exception {
+        DiskLruStore store = new DiskLruStore(directory, 8, KEY_PATTERN, "entry");
+        store.write("aa01", bytes("123"));
+        Files.delete(directory.resolve("aa").resolve("aa01"));
+
+        assertThat(store.read("aa01")).isNull();
+        assertThat(store.contains("aa01")).isFalse();
+        assertThat(store.size()).isZero();
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,27 @@
+package dev.danvega.cg.service;
+
+import dev.danvega.cg.config.GitHubConfiguration;
+import dev.danvega.cg.model.OutputFormat;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GenerationCacheTest {
+
+    @Test
+    void fetchModesHaveTheirOwnDocuments() {
+        List<GenerationCache.Key> keys = Arrays.stream(GitHubConfiguration.FetchMode.values()).map(this::key).toList();
+
+        assertThat(keys).doesNotHaveDuplicates();
+        assertThat(keys).extracting(GenerationCache.Key::etag).doesNotHaveDuplicates();
+        assertThat(key(GitHubConfiguration.FetchMode.TREE)).isEqualTo(key(GitHubConfiguration.FetchMode.TREE));
+    }
+
+    private GenerationCache.Key key(GitHubConfiguration.FetchMode fetchMode) {
+        return GenerationCache.Key.of("Owner", "Repo", "1234567", fetchMode, List.of("**/*.java"), List.of("**/test/**"),
+                null, 1024, 4096, OutputFormat.TEXT, false, false);
+    }
+}
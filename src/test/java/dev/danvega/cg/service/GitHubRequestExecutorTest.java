@@ -0,0 +1,119 @@
+package dev.danvega.cg.service;
+
+import dev.danvega.cg.config.GitHubConfiguration;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GitHubRequestExecutorTest {
+
+    /**
+     * A call started after another call hit the rate limit must wait out the backoff GitHub asked
+     * for, even though it holds no rate limit response of its own.
+     */
+    @Test
+    void rateLimitHoldsBackEveryCall() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        GitHubRequestExecutor executor = new GitHubRequestExecutor(config(), meterRegistry);
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, "1");
+        AtomicBoolean limited = new AtomicBoolean();
+        AtomicLong limitedAt = new AtomicLong();
+
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> executor.execute("first", () -> {
+            if (limited.compareAndSet(false, true)) {
+                limitedAt.set(System.nanoTime());
+                throw HttpClientErrorException.create(HttpStatus.TOO_MANY_REQUESTS, "Too Many Requests", headers,
+                        new byte[0], null);
+            }
+            return "first";
+        }));
+        while (meterRegistry.counter("cg.github.retries", "status", "429").count() == 0) {
+            Thread.sleep(5);
+        }
+        long secondAt = executor.execute("second", System::nanoTime);
+
+        assertThat(first.get()).isEqualTo("first");
+        assertThat(Duration.ofNanos(secondAt - limitedAt.get())).isGreaterThanOrEqualTo(Duration.ofSeconds(1));
+    }
+
+    /**
+     * Of two repositories generated side by side, the large one queues many downloads at once; the call
+     * of the small one must not wait behind all of them.
+     */
+    @Test
+    void repositoriesShareTheRequestPermits() throws Exception {
+        GitHubRequestExecutor executor = new GitHubRequestExecutor(config(), new SimpleMeterRegistry());
+        AtomicInteger largeInFlight = new AtomicInteger();
+        AtomicInteger largeMaxInFlight = new AtomicInteger();
+        AtomicInteger largeCompleted = new AtomicInteger();
+        CountDownLatch largeQueued = new CountDownLatch(1);
+
+        CompletableFuture<Void> large = CompletableFuture.runAsync(() -> {
+            try (GitHubRequestExecutor.RepositoryLimit limit = executor.limitRepository(2);
+                 ExecutorService downloads = executor.newDownloadExecutor()) {
+                for (int i = 0; i < 20; i++) {
+                    downloads.submit(() -> executor.execute("blob", () -> {
+                        largeMaxInFlight.accumulateAndGet(largeInFlight.incrementAndGet(), Math::max);
+                        sleep(Duration.ofMillis(50));
+                        largeInFlight.decrementAndGet();
+                        return largeCompleted.incrementAndGet();
+                    }));
+                }
+                sleep(Duration.ofMillis(20));
+                largeQueued.countDown();
+            }
+        });
+        largeQueued.await();
+        int completedBeforeSmall;
+        try (GitHubRequestExecutor.RepositoryLimit limit = executor.limitRepository(2)) {
+            completedBeforeSmall = executor.execute("tree", largeCompleted::get);
+        }
+        large.get();
+
+        assertThat(largeMaxInFlight.get()).isEqualTo(2);
+        assertThat(completedBeforeSmall).isLessThan(4);
+    }
+
+    @Test
+    void requestsAreTimedPerOperationAndOutcome() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        GitHubRequestExecutor executor = new GitHubRequestExecutor(config(), meterRegistry);
+
+        executor.execute("tree", () -> "tree");
+        executor.execute("tree", () -> "tree");
+
+        assertThat(meterRegistry.timer("cg.github.requests", "operation", "tree", "outcome", "success").count())
+                .isEqualTo(2);
+        assertThat(meterRegistry.timer("cg.github.requests", "operation", "tree", "outcome", "error").count())
+                .isZero();
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static GitHubConfiguration config() {
+        return new GitHubConfiguration("test", "http://localhost", GitHubConfiguration.FetchMode.TREE, 50, 4, 1,
+                Duration.ofMillis(10), new GitHubConfiguration.BlobCacheSettings(DataSize.ofBytes(0), false,
+                DataSize.ofBytes(0)), new GitHubConfiguration.EtagCacheSettings(false, DataSize.ofBytes(0)));
+    }
+}
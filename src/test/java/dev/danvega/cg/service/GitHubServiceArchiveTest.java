@@ -0,0 +1,175 @@
+package dev.danvega.cg.service;
+
+import com.sun.net.httpserver.HttpServer;
+import dev.danvega.cg.config.GitHubConfiguration;
+import dev.danvega.cg.model.processor.JavaLanguageProcessor;
+import dev.danvega.cg.util.PathUtils;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.client.RestClient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs the archive fetch mode against a local server serving a fixed tarball laid out the way
+ * {@code git archive} writes it: a global pax header carrying the commit, a root directory, and
+ * paths stored in the ustar name and prefix fields, in pax extended headers and as GNU long names.
+ */
+class GitHubServiceArchiveTest {
+    private static final String ROOT = "o-r-1234567/";
+    private static final String LONG_DIRECTORY =
+            "src/main/java/dev/danvega/cg/with/a/package/name/that/does/not/fit/in/the/ustar/name/field/";
+    private static final int BINARY_SIZE = 100;
+    private static final String DOCUMENT = "File: src/Plain.java\n\nclass Plain {}\n\n"
+            + "File: src/main/java/Prefixed.java\n\nclass Prefixed {}\n\n"
+            + "File: " + LONG_DIRECTORY + "Pax.java\n\nclass Pax {}\n\n"
+            + "File: " + LONG_DIRECTORY + "Gnu.java\n\nclass Gnu {}\n\n";
+
+    @TempDir
+    Path outputDir;
+
+    private HttpServer server;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        byte[] tarball = tarball();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/repos/o/r/tarball/", exchange -> {
+            try (exchange) {
+                exchange.getResponseHeaders().set("Content-Type", "application/x-gzip");
+                exchange.sendResponseHeaders(200, tarball.length);
+                exchange.getResponseBody().write(tarball);
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void readsEveryKindOfEntryName() throws IOException {
+        assertThat(generate(SizeBudget.unlimited())).isEqualTo(DOCUMENT);
+    }
+
+    /**
+     * The binary entry fills the total size on its own, and must not keep the text files out once it is skipped.
+     */
+    @Test
+    void binaryEntryLeavesRoomInTheTotalSize() throws IOException {
+        SizeBudget sizeBudget = new SizeBudget(BINARY_SIZE, BINARY_SIZE);
+
+        assertThat(generate(sizeBudget)).isEqualTo(DOCUMENT);
+        assertThat(sizeBudget.hasSkippedFiles()).isFalse();
+        assertThat(sizeBudget.toString()).startsWith("55 of " + BINARY_SIZE + " bytes selected");
+    }
+
+    private String generate(SizeBudget sizeBudget) throws IOException {
+        JavaLanguageProcessor processor = new JavaLanguageProcessor();
+        ByteArrayOutputStream document = new ByteArrayOutputStream();
+        try (ContentWriter writer = new ContentWriter(document)) {
+            service().downloadRepositoryContentsForLanguage("o", "r", "1234567", processor.getIncludePatterns(),
+                    processor.getExcludePatterns(), GitHubConfiguration.FetchMode.ARCHIVE, TokenBudget.unlimited(),
+                    sizeBudget, new GenerationProgress(), writer);
+        }
+        return document.toString(StandardCharsets.UTF_8);
+    }
+
+    private GitHubService service() {
+        GitHubConfiguration config = new GitHubConfiguration("test", "http://localhost:" + server.getAddress().getPort(),
+                GitHubConfiguration.FetchMode.ARCHIVE, 50, 1, 0, Duration.ofMillis(10),
+                new GitHubConfiguration.BlobCacheSettings(DataSize.ofBytes(0), false, DataSize.ofBytes(0)),
+                new GitHubConfiguration.EtagCacheSettings(false, DataSize.ofBytes(0)));
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        return new GitHubService(new PathUtils(meterRegistry), config, new GitHubRequestExecutor(config, meterRegistry),
+                new BlobCache(config, outputDir.toString()), new EtagCache(config, outputDir.toString()),
+                Jackson2ObjectMapperBuilder.json().build(), RestClient.builder(), meterRegistry);
+    }
+
+    private static byte[] tarball() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            // A global header naming a path must not rename the entry after it
+            entry(out, "pax_global_header", "", 'g', pax("comment", "1234567") + pax("path", "Global.java"));
+            entry(out, ROOT, "", '5', "");
+            entry(out, ROOT + "src/", "", '5', "");
+            entry(out, ROOT + "src/Binary.java", "", '0', "\0".repeat(BINARY_SIZE));
+            entry(out, ROOT + "src/Plain.java", "", '0', "class Plain {}");
+            entry(out, ROOT + "notes.txt", "", '0', "Excluded");
+            entry(out, "Prefixed.java", ROOT + "src/main/java", '0', "class Prefixed {}");
+            entry(out, "PaxHeaders/Pax.java", "", 'x', pax("path", ROOT + LONG_DIRECTORY + "Pax.java"));
+            entry(out, ROOT + "truncated/Pax.java", "", '0', "class Pax {}");
+            entry(out, "././@LongLink", "", 'L', ROOT + LONG_DIRECTORY + "Gnu.java\0");
+            entry(out, ROOT + "truncated/Gnu.java", "", '0', "class Gnu {}");
+            out.write(new byte[1024]);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Formats a pax record, whose length prefix counts the whole record including itself.
+     */
+    private static String pax(String key, String value) {
+        int length = key.length() + value.getBytes(StandardCharsets.UTF_8).length + 3;
+        int total = length + String.valueOf(length).length();
+        if (String.valueOf(total).length() != String.valueOf(length).length()) {
+            total++;
+        }
+        return total + " " + key + "=" + value + "\n";
+    }
+
+    private static void entry(OutputStream out, String name, String prefix, char type, String content) throws IOException {
+        byte[] body = content.getBytes(StandardCharsets.UTF_8);
+        byte[] header = new byte[512];
+        put(header, 0, 100, name);
+        octal(header, 100, 8, type == '5' ? 0755 : 0644);
+        octal(header, 108, 8, 0);
+        octal(header, 116, 8, 0);
+        octal(header, 124, 12, body.length);
+        octal(header, 136, 12, 0);
+        header[156] = (byte) type;
+        put(header, 257, 6, "ustar\0");
+        put(header, 263, 2, "00");
+        put(header, 345, 155, prefix);
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        octal(header, 148, 7, checksum);
+        out.write(header);
+        out.write(body);
+        out.write(new byte[(512 - body.length % 512) % 512]);
+    }
+
+    private static void put(byte[] header, int offset, int length, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > length) {
+            throw new IllegalArgumentException("Field too long: " + value);
+        }
+        System.arraycopy(bytes, 0, header, offset, bytes.length);
+    }
+
+    private static void octal(byte[] header, int offset, int length, long value) {
+        put(header, offset, length - 1, String.format("%0" + (length - 1) + "o", value));
+    }
+}
@@ -0,0 +1,82 @@
+package dev.danvega.cg.service;
+
+import dev.danvega.cg.config.GitHubConfiguration;
+import dev.danvega.cg.model.processor.JavaLanguageProcessor;
+import dev.danvega.cg.util.PathUtils;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.client.RestClient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class GitHubServiceTest {
+
+    @TempDir
+    Path outputDir;
+
+    private GitHubStubServer server;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = new GitHubStubServer(400, 256, Duration.ZERO);
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.close();
+    }
+
+    /**
+     * With a single concurrent request the queue of pending parts holds two entries, so the discovery
+     * is blocked on the full queue when writing the first file fails.
+     */
+    @ParameterizedTest
+    @EnumSource(value = GitHubConfiguration.FetchMode.class, names = {"CONTENTS", "TREE"})
+    void failedWriteAbortsDownloadWithoutHanging(GitHubConfiguration.FetchMode mode) {
+        GitHubService service = service(mode, 1, 1);
+        JavaLanguageProcessor processor = new JavaLanguageProcessor();
+        OutputStream disconnected = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Client disconnected");
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                throw new IOException("Client disconnected");
+            }
+        };
+
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            ContentWriter writer = new ContentWriter(disconnected);
+            assertThatThrownBy(() -> service.downloadRepositoryContentsForLanguage(GitHubStubServer.OWNER,
+                    GitHubStubServer.REPO, null, processor.getIncludePatterns(), processor.getExcludePatterns(), mode,
+                    TokenBudget.unlimited(), SizeBudget.unlimited(), new GenerationProgress(), writer))
+                    .isInstanceOf(IOException.class)
+                    .hasMessage("Client disconnected");
+        });
+    }
+
+    private GitHubService service(GitHubConfiguration.FetchMode mode, int blobBatchSize, int maxConcurrentRequests) {
+        GitHubConfiguration config = new GitHubConfiguration("test", server.baseUrl(), mode, blobBatchSize,
+                maxConcurrentRequests, 0, Duration.ofMillis(10),
+                new GitHubConfiguration.BlobCacheSettings(DataSize.ofBytes(0), false, DataSize.ofBytes(0)),
+                new GitHubConfiguration.EtagCacheSettings(false, DataSize.ofBytes(0)));
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        return new GitHubService(new PathUtils(meterRegistry), config, new GitHubRequestExecutor(config, meterRegistry),
+                new BlobCache(config, outputDir.toString()), new EtagCache(config, outputDir.toString()),
+                Jackson2ObjectMapperBuilder.json().build(), RestClient.builder(), meterRegistry);
+    }
+}
@@ -0,0 +1,285 @@
+package dev.danvega.cg.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Minimal stand-in for the parts of the GitHub REST and GraphQL APIs that {@link GitHubService}
+ * uses, serving a synthetic Java repository from memory so the remote fetch modes can be
+ * tested and benchmarked offline. Every response can be delayed to simulate network latency.
+ * <p>
+ * The repository is {@code stub/repo}. Its files are spread over directories of 50 files, with
+ * every tenth directory below {@code build/} and a few non-Java files that the Java patterns reject.
+ */
+final class GitHubStubServer implements AutoCloseable {
+    static final String OWNER = "stub";
+    static final String REPO = "repo";
+
+    private static final int FILES_PER_DIRECTORY = 50;
+    private static final Pattern BLOB_ALIAS = Pattern.compile("(b\\d+): object\\(oid: \"([0-9a-f]+)\"\\)");
+
+    static {
+        // Without TCP_NODELAY, small responses stall on delayed ACKs and dominate the measurements
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, byte[]> files = new TreeMap<>();
+    private final Map<String, String> shas = new LinkedHashMap<>();
+    private final Map<String, String> pathsBySha = new LinkedHashMap<>();
+    private final Map<String, TreeSet<String>> children = new TreeMap<>();
+    private final String commitSha;
+    private final byte[] tarball;
+    private final Duration latency;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Creates the repository and starts serving it on a free local port.
+     *
+     * @param fileCount The number of files in the repository
+     * @param fileSize The approximate size of each file in bytes
+     * @param latency The delay added to every response
+     * @throws IOException If the server cannot be started
+     */
+    GitHubStubServer(int fileCount, int fileSize, Duration latency) throws IOException {
+        this.latency = latency;
+        String line = "    private final String value = \"sample\";\n";
+        for (int i = 0; i < fileCount; i++) {
+            int directory = i / FILES_PER_DIRECTORY;
+            String parent = directory % 10 == 9 ? "build/generated/pkg" + directory : "src/main/java/pkg" + directory;
+            String name = i % 25 == 24 ? "notes" + i + ".txt" : "Sample" + i + ".java";
+            String body = "public class Sample" + i + " {\n" + line.repeat(Math.max(0, fileSize / line.length() - 2)) + "}\n";
+            addFile(parent + "/" + name, body.getBytes(StandardCharsets.UTF_8));
+        }
+        addFile("pom.xml", "<project/>\n".getBytes(StandardCharsets.UTF_8));
+        this.commitSha = sha1(String.join("\n", shas.values()).getBytes(StandardCharsets.UTF_8));
+        this.tarball = createTarball();
+
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /**
+     * Returns the base URL to configure as {@code github.api-url}.
+     *
+     * @return the URL of the running server
+     */
+    String baseUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void addFile(String path, byte[] content) {
+        files.put(path, content);
+        String sha = sha1(("blob " + content.length + "\0").getBytes(StandardCharsets.UTF_8), content);
+        shas.put(path, sha);
+        pathsBySha.put(sha, path);
+        String child = path;
+        while (true) {
+            int separator = child.lastIndexOf('/');
+            String parent = separator < 0 ? "" : child.substring(0, separator);
+            children.computeIfAbsent(parent, p -> new TreeSet<>()).add(child);
+            if (separator < 0) {
+                break;
+            }
+            child = parent;
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!latency.isZero()) {
+                Thread.sleep(latency);
+            }
+            String path = exchange.getRequestURI().getPath();
+            String prefix = "/repos/" + OWNER + "/" + REPO + "/";
+            if ("POST".equals(exchange.getRequestMethod()) && path.equals("/graphql")) {
+                sendJson(exchange, graphql(exchange.getRequestBody().readAllBytes()));
+            } else if (path.equals(prefix + "commits/HEAD")) {
+                send(exchange, 200, "application/vnd.github.sha", commitSha.getBytes(StandardCharsets.UTF_8));
+            } else if (path.startsWith(prefix + "git/trees/")) {
+                sendJson(exchange, tree());
+            } else if (path.startsWith(prefix + "tarball/")) {
+                send(exchange, 200, "application/x-gzip", tarball);
+            } else if (path.startsWith(prefix + "contents")) {
+                String contentPath = URLDecoder.decode(path.substring((prefix + "contents").length()), StandardCharsets.UTF_8);
+                contentPath = contentPath.startsWith("/") ? contentPath.substring(1) : contentPath;
+                Object contents = contents(contentPath);
+                if (contents == null) {
+                    send(exchange, 404, "application/json", "{\"message\":\"Not Found\"}".getBytes(StandardCharsets.UTF_8));
+                } else {
+                    sendJson(exchange, contents);
+                }
+            } else {
+                send(exchange, 404, "application/json", "{\"message\":\"Not Found\"}".getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Map<String, Object> tree() {
+        List<Map<String, Object>> entries = new ArrayList<>();
+        for (String directory : children.keySet()) {
+            if (!directory.isEmpty()) {
+                entries.add(Map.of("path", directory, "mode", "040000", "type", "tree", "sha", sha1(directory.getBytes(StandardCharsets.UTF_8))));
+            }
+        }
+        files.forEach((path, content) -> entries.add(Map.of("path", path, "mode", "100644", "type", "blob",
+                "sha", shas.get(path), "size", content.length)));
+        entries.sort((a, b) -> ((String) a.get("path")).compareTo((String) b.get("path")));
+        return Map.of("sha", commitSha, "tree", entries, "truncated", false);
+    }
+
+    private Object contents(String path) {
+        byte[] content = files.get(path);
+        if (content != null) {
+            return Map.of("name", path.substring(path.lastIndexOf('/') + 1), "path", path, "sha", shas.get(path),
+                    "size", String.valueOf(content.length), "type", "file", "encoding", "base64",
+                    "content", Base64.getMimeEncoder(60, new byte[]{'\n'}).encodeToString(content) + "\n");
+        }
+        TreeSet<String> entries = children.get(path);
+        if (entries == null) {
+            return null;
+        }
+        List<Map<String, Object>> listing = new ArrayList<>();
+        for (String child : entries) {
+            byte[] childContent = files.get(child);
+            String name = child.substring(child.lastIndexOf('/') + 1);
+            listing.add(childContent != null
+                    ? Map.of("name", name, "path", child, "sha", shas.get(child), "size", String.valueOf(childContent.length), "type", "file")
+                    : Map.of("name", name, "path", child, "sha", sha1(child.getBytes(StandardCharsets.UTF_8)), "size", "0", "type", "dir"));
+        }
+        return listing;
+    }
+
+    private Map<String, Object> graphql(byte[] body) throws IOException {
+        JsonNode request = mapper.readTree(body);
+        Matcher matcher = BLOB_ALIAS.matcher(request.path("query").asText());
+        Map<String, Object> repository = new LinkedHashMap<>();
+        while (matcher.find()) {
+            String path = pathsBySha.get(matcher.group(2));
+            repository.put(matcher.group(1), path == null ? null
+                    : Map.of("text", new String(files.get(path), StandardCharsets.UTF_8), "isTruncated", false));
+        }
+        return Map.of("data", Map.of("repository", repository));
+    }
+
+    private void sendJson(HttpExchange exchange, Object body) throws IOException {
+        send(exchange, 200, "application/json", mapper.writeValueAsBytes(body));
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Builds the gzipped tarball GitHub would serve, with every path below a single root directory.
+     */
+    private byte[] createTarball() {
+        String root = OWNER + "-" + REPO + "-" + commitSha.substring(0, 7) + "/";
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            writeTarEntry(out, root, '5', new byte[0]);
+            for (String directory : children.keySet()) {
+                if (!directory.isEmpty()) {
+                    writeTarEntry(out, root + directory + "/", '5', new byte[0]);
+                }
+            }
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                writeTarEntry(out, root + file.getKey(), '0', file.getValue());
+            }
+            out.write(new byte[1024]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeTarEntry(OutputStream out, String name, char type, byte[] content) throws IOException {
+        byte[] header = new byte[512];
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > 100) {
+            throw new IllegalArgumentException("Tar entry name too long: " + name);
+        }
+        System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+        writeOctal(header, 100, 8, type == '5' ? 0755 : 0644);
+        writeOctal(header, 108, 8, 0);
+        writeOctal(header, 116, 8, 0);
+        writeOctal(header, 124, 12, content.length);
+        writeOctal(header, 136, 12, 0);
+        header[156] = (byte) type;
+        System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 6);
+        header[263] = '0';
+        header[264] = '0';
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        writeOctal(header, 148, 7, checksum);
+        out.write(header);
+        out.write(content);
+        int padding = (512 - content.length % 512) % 512;
+        out.write(new byte[padding]);
+    }
+
+    private static void writeOctal(byte[] header, int offset, int length, long value) {
+        String octal = String.format("%0" + (length - 1) + "o", value);
+        System.arraycopy(octal.getBytes(StandardCharsets.US_ASCII), 0, header, offset, length - 1);
+        header[offset + length - 1] = 0;
+    }
+
+    private static String sha1(byte[]... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            for (byte[] part : parts) {
+                digest.update(part);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package dev.danvega.cg.service;
+
+import dev.danvega.cg.model.OutputFormat;
+import dev.danvega.cg.util.BinaryFiles;
+import dev.danvega.cg.util.PathUtils;
+import dev.danvega.cg.util.TokenCounter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Reads one file at a time, so that every file is checked against the budgets only after the file
+ * before it has been written or left out.
+ */
+class LocalFileServiceTest {
+    private static final long MAX_TOKENS = 300;
+
+    @TempDir
+    Path sourceDir;
+
+    @Test
+    void binaryFileLeavesRoomForLaterFiles() throws IOException {
+        byte[] binary = new byte[fillingSize("A.java")];
+        Arrays.fill(binary, (byte) 'a');
+        binary[0] = 0;
+        Files.write(sourceDir.resolve("A.java"), binary);
+        Files.writeString(sourceDir.resolve("B.java"), "class B {}\n");
+
+        assertThat(generate(new TokenBudget(MAX_TOKENS), SizeBudget.unlimited()))
+                .isEqualTo("File: B.java\n\nclass B {}\n\n\n");
+    }
+
+    @Test
+    void binaryFileLeavesRoomInTheTotalSize() throws IOException {
+        byte[] binary = new byte[1000];
+        binary[0] = 0;
+        Files.write(sourceDir.resolve("A.java"), binary);
+        Files.writeString(sourceDir.resolve("B.java"), "class B {}\n");
+        SizeBudget sizeBudget = new SizeBudget(1000, 1000);
+
+        assertThat(generate(TokenBudget.unlimited(), sizeBudget)).isEqualTo("File: B.java\n\nclass B {}\n\n\n");
+        assertThat(sizeBudget.hasSkippedFiles()).isFalse();
+        assertThat(sizeBudget.toString()).startsWith("11 of 1000 bytes selected");
+    }
+
+    @Test
+    void fileOverBudgetLeavesRoomForLaterFiles() throws IOException {
+        // Every semicolon is a token of its own, so the file is larger than its size suggests
+        Files.writeString(sourceDir.resolve("A.java"), ";".repeat(fillingSize("A.java")));
+        Files.writeString(sourceDir.resolve("B.java"), "class B {}\n");
+        SizeBudget sizeBudget = new SizeBudget(Long.MAX_VALUE, fillingSize("A.java"));
+
+        assertThat(generate(new TokenBudget(MAX_TOKENS), sizeBudget)).isEqualTo("File: B.java\n\nclass B {}\n\n\n");
+        assertThat(sizeBudget.hasSkippedFiles()).isFalse();
+    }
+
+    @Test
+    void onlyTheSniffedBytesDecideWhetherAFileIsBinary() throws IOException {
+        String text = "a".repeat(BinaryFiles.SNIFF_LENGTH - 1) + "\n";
+        Files.writeString(sourceDir.resolve("A.java"), "\0" + text);
+        Files.writeString(sourceDir.resolve("B.java"), text + "\0");
+
+        assertThat(generate(TokenBudget.unlimited(), SizeBudget.unlimited()))
+                .isEqualTo("File: B.java\n\n" + text + "\0\n\n");
+    }
+
+    @Test
+    void structuredFormatsStayWithinTheBudget() throws IOException {
+        for (int i = 0; i < 40; i++) {
+            Files.writeString(sourceDir.resolve("A" + i + ".java"), "class A" + i + " {}");
+        }
+
+        for (OutputFormat format : List.of(OutputFormat.TEXT, OutputFormat.JSONL, OutputFormat.XML)) {
+            String document = generate(new TokenBudget(MAX_TOKENS), SizeBudget.unlimited(), format);
+
+            assertThat(document).as(format.name()).contains("class A0 {}");
+            assertThat(TokenCounter.estimate(document)).as(format.name()).isLessThanOrEqualTo(MAX_TOKENS);
+        }
+    }
+
+    /**
+     * Returns the size of a file whose estimate from its size takes up the whole budget.
+     */
+    private static int fillingSize(String path) {
+        long headerTokens = TokenCounter.estimate("File: " + path + "\n\n") + TokenCounter.estimate("\n\n");
+        return (int) ((MAX_TOKENS - headerTokens) * 4);
+    }
+
+    private String generate(TokenBudget budget, SizeBudget sizeBudget) throws IOException {
+        return generate(budget, sizeBudget, OutputFormat.TEXT);
+    }
+
+    private String generate(TokenBudget budget, SizeBudget sizeBudget, OutputFormat format) throws IOException {
+        LocalFileService service = new LocalFileService(new PathUtils(new SimpleMeterRegistry()), 1,
+                new SimpleMeterRegistry());
+        ByteArrayOutputStream document = new ByteArrayOutputStream();
+        try (ContentWriter writer = new ContentWriter(document)) {
+            writer.setFormat(format, path -> "java");
+            budget.setFrameTokens(writer::frameTokens);
+            service.processLocalDirectoryForLanguage(sourceDir.toString(), List.of("*.java"), List.of(), writer,
+                    budget, sizeBudget, new GenerationProgress(),
+                    sourceDir.resolve("missing.txt"));
+            writer.finish();
+        }
+        return document.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,186 @@
+package dev.danvega.cg.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.danvega.cg.util.TokenCounter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * Shards documents holding a file several times larger than a shard, checking every shard against
+ * the limits and the document written without sharding.
+ */
+class ShardWriterTest {
+    private static final String BIG = "src/Big.java";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    static Stream<Arguments> documents() {
+        List<ShardWriter.Limits> limits = List.of(new ShardWriter.Limits(1024L, null),
+                new ShardWriter.Limits(null, 256L), new ShardWriter.Limits(2048L, 300L));
+        return limits.stream().flatMap(limit -> Stream.of(
+                Arguments.of(limit, lines(400), true),
+                Arguments.of(limit, "é€😀x".repeat(800), false)));
+    }
+
+    /**
+     * Writes a small file, the big one and another small file, and checks the resulting shards.
+     *
+     * @param limits The shard limits
+     * @param content The content of the big file
+     * @param splitAtLines Whether the content has line breaks close enough to split at them
+     */
+    @ParameterizedTest
+    @MethodSource("documents")
+    void splitsFilesLargerThanAShard(ShardWriter.Limits limits, String content, boolean splitAtLines)
+            throws IOException {
+        Map<String, String> files = new LinkedHashMap<>();
+        files.put("src/A.java", "class A {}\n");
+        files.put(BIG, content);
+        files.put("src/C.java", "class C {}\n");
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        ShardWriter shardWriter = new ShardWriter(archive, objectMapper, "repo.txt", limits);
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        try (shardWriter; ContentWriter writer = new ContentWriter(shardWriter);
+             ContentWriter plainWriter = new ContentWriter(plain)) {
+            writer.setFileListener(shardWriter);
+            for (Map.Entry<String, String> file : files.entrySet()) {
+                writer.write(file.getKey(), file.getValue().getBytes(StandardCharsets.UTF_8));
+                plainWriter.write(file.getKey(), file.getValue().getBytes(StandardCharsets.UTF_8));
+            }
+            writer.finish();
+        }
+        byte[] document = plain.toByteArray();
+        Map<String, byte[]> entries = unzip(archive.toByteArray());
+        ShardWriter.Index index = objectMapper.readValue(entries.remove(ShardWriter.INDEX_ENTRY),
+                ShardWriter.Index.class);
+
+        assertThat(index.shards()).extracting(ShardWriter.Shard::name).containsExactlyElementsOf(entries.keySet());
+        assertThat(index.shards().size()).isGreaterThan(3);
+
+        byte[] continued = ("File: " + BIG + " (continued)\n\n").getBytes(StandardCharsets.UTF_8);
+        int bigStart = indexOf(document, ("File: " + BIG + "\n\n").getBytes(StandardCharsets.UTF_8), 0);
+        int bigEnd = indexOf(document, "File: src/C.java".getBytes(StandardCharsets.UTF_8), bigStart);
+        List<String> shardsWithBig = new ArrayList<>();
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (ShardWriter.Shard shard : index.shards()) {
+            byte[] bytes = entries.get(shard.name());
+            assertThat((long) bytes.length).as(shard.name()).isEqualTo(shard.bytes());
+            assertThat(limits.fits(shard.bytes(), shard.tokens())).as("%s fits %s", shard.name(), limits).isTrue();
+            assertThat(TokenCounter.estimate(bytes)).as(shard.name()).isLessThanOrEqualTo(shard.tokens());
+
+            int start = 0;
+            if (joined.size() > bigStart && joined.size() < bigEnd) {
+                assertThat(Arrays.copyOf(bytes, continued.length)).as("%s starts with a continuation header",
+                        shard.name()).isEqualTo(continued);
+                start = continued.length;
+            }
+            int pieceStart = joined.size();
+            joined.write(bytes, start, bytes.length - start);
+            int pieceEnd = joined.size();
+            if (pieceStart < bigEnd && pieceEnd > bigStart) {
+                shardsWithBig.add(shard.name());
+                byte[] piece = Arrays.copyOfRange(document, Math.max(pieceStart, bigStart), Math.min(pieceEnd, bigEnd));
+                assertValidUtf8(piece, shard.name());
+                if (splitAtLines) {
+                    assertThat(piece[piece.length - 1]).as("%s ends at a line break", shard.name())
+                            .isEqualTo((byte) '\n');
+                }
+            }
+        }
+
+        assertThat(joined.toByteArray()).isEqualTo(document);
+        assertThat(index.files().keySet()).containsExactlyElementsOf(files.keySet());
+        assertThat(index.files().get(BIG)).hasSizeGreaterThan(2).containsExactlyElementsOf(shardsWithBig);
+        for (ShardWriter.Shard shard : index.shards()) {
+            assertThat(shard.files().contains(BIG)).isEqualTo(shardsWithBig.contains(shard.name()));
+        }
+    }
+
+    /**
+     * Writes a file of random letters, which compresses poorly, and checks that the shards reach the
+     * archive while the file is still being written instead of once it is complete.
+     */
+    @Test
+    void writesPiecesBeforeTheFileIsComplete() throws IOException {
+        Random random = new Random(42);
+        byte[] chunk = new byte[4096];
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        ShardWriter shardWriter = new ShardWriter(archive, objectMapper, "repo.txt",
+                new ShardWriter.Limits(1024L, null));
+        try (shardWriter) {
+            shardWriter.fileStarted(BIG);
+            shardWriter.write(("File: " + BIG + "\n\n").getBytes(StandardCharsets.UTF_8));
+            for (int written = 0; written < 1 << 20; written += chunk.length) {
+                for (int i = 0; i < chunk.length; i++) {
+                    chunk[i] = (byte) (i % 64 == 63 ? '\n' : 'a' + random.nextInt(26));
+                }
+                shardWriter.write(chunk);
+            }
+            assertThat(archive.size()).isGreaterThan(1 << 19);
+            shardWriter.fileWritten(BIG);
+        }
+
+        Map<String, byte[]> entries = unzip(archive.toByteArray());
+        ShardWriter.Index index = objectMapper.readValue(entries.remove(ShardWriter.INDEX_ENTRY),
+                ShardWriter.Index.class);
+        assertThat(index.files().get(BIG)).hasSize(entries.size()).hasSizeGreaterThan(1000);
+        assertThat(index.shards()).allSatisfy(shard -> assertThat(shard.bytes()).isLessThanOrEqualTo(1024));
+    }
+
+    private static String lines(int count) {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            lines.append("    int field").append(i).append(" = ").append(i * 31).append("; // café €\n");
+        }
+        return lines.toString();
+    }
+
+    private static void assertValidUtf8(byte[] bytes, String description) {
+        try {
+            StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(bytes));
+        } catch (CharacterCodingException e) {
+            fail(description + " is not valid UTF-8", e);
+        }
+    }
+
+    private static int indexOf(byte[] bytes, byte[] value, int from) {
+        for (int i = from; i <= bytes.length - value.length; i++) {
+            if (Arrays.equals(bytes, i, i + value.length, value, 0, value.length)) {
+                return i;
+            }
+        }
+        throw new AssertionError("Not found: " + new String(value, StandardCharsets.UTF_8));
+    }
+
+    private static Map<String, byte[]> unzip(byte[] archive) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                entries.put(entry.getName(), zip.readAllBytes());
+            }
+        }
+        return entries;
+    }
+}
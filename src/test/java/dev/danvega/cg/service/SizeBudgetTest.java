@@ -0,0 +1,28 @@
+package dev.danvega.cg.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SizeBudgetTest {
+
+    @Test
+    void releasedFilesMakeRoomForLaterOnes() {
+        SizeBudget budget = new SizeBudget(1000, 1000);
+
+        assertThat(budget.admit(900)).isTrue();
+        assertThat(budget.admit(200)).isFalse();
+        budget.release(900);
+
+        assertThat(budget.admit(200)).isTrue();
+        assertThat(budget.toString()).startsWith("200 of 1000 bytes selected, 0 files over 1000 bytes and 1 files");
+    }
+
+    @Test
+    void unlimitedBudgetIgnoresRelease() {
+        SizeBudget budget = SizeBudget.unlimited();
+        budget.release(Long.MAX_VALUE);
+
+        assertThat(budget.admit(Long.MAX_VALUE)).isTrue();
+    }
+}
@@ -0,0 +1,40 @@
+package dev.danvega.cg.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenBudgetTest {
+
+    @Test
+    void releasedFilesMakeRoomForLaterOnes() {
+        TokenBudget budget = new TokenBudget(1000);
+
+        assertThat(budget.mayFit("src/Big.bin", 3600)).isTrue();
+        assertThat(budget.mayFit("src/Next.java", 800)).isFalse();
+        budget.release("src/Big.bin", 3600);
+
+        assertThat(budget.mayFit("src/Next.java", 800)).isTrue();
+        assertThat(budget.getSkippedFiles()).isEqualTo(1);
+    }
+
+    @Test
+    void releaseOnlyReturnsTheFileEstimate() {
+        TokenBudget budget = new TokenBudget(1000);
+
+        assertThat(budget.mayFit("src/A.java", 2000)).isTrue();
+        assertThat(budget.mayFit("src/B.java", 1600)).isTrue();
+        budget.release("src/A.java", 2000);
+
+        assertThat(budget.mayFit("src/C.java", 2400)).isFalse();
+        assertThat(budget.mayFit("src/C.java", 1600)).isTrue();
+    }
+
+    @Test
+    void unlimitedBudgetIgnoresRelease() {
+        TokenBudget budget = TokenBudget.unlimited();
+        budget.release("src/A.java", Long.MAX_VALUE);
+
+        assertThat(budget.mayFit("src/A.java", Long.MAX_VALUE)).isTrue();
+    }
+}
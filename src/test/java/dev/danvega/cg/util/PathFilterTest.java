@@ -0,0 +1,156 @@
+package dev.danvega.cg.util;
+
+import dev.danvega.cg.model.processor.JavaLanguageProcessor;
+import dev.danvega.cg.model.processor.KotlinLanguageProcessor;
+import dev.danvega.cg.model.processor.LanguageProcessor;
+import dev.danvega.cg.model.processor.PythonLanguageProcessor;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that the string fast paths of {@link PathFilter} agree with the JDK glob matcher
+ * they replace, for every pattern of the language processors and a few shapes they do not use.
+ */
+class PathFilterTest {
+
+    private static final List<String> EXTRA_PATTERNS = List.of(
+            "**/*.{java,kt}",
+            "src/**/*.{py,pyi}",
+            "**/.*",
+            "**/.git/**",
+            ".github/**",
+            "**/.gitignore",
+            "*.md",
+            "**/*Test.java",
+            "src/main/resources/application.properties");
+
+    private static final List<String> PATHS = List.of(
+            "Root.java",
+            "App.kt",
+            "build.gradle.kts",
+            "pom.xml",
+            "mvnw",
+            "mvnw.cmd",
+            "gradlew",
+            "gradlew.bat",
+            "README.md",
+            ".gitignore",
+            ".env",
+            ".java",
+            "requirements.txt",
+            "setup.py",
+            "src/Plain.java",
+            "src/.java",
+            "src/main/java/dev/danvega/App.java",
+            "src/main/java/dev/danvega/AppTest.java",
+            "src/main/kotlin/App.kt",
+            "src/main/resources/application.properties",
+            "src/main/resources/logback.xml",
+            "src/test/java/AppTest.java",
+            "src/tests/test_app.py",
+            "src/app/app.py",
+            "src/app/app.pyi",
+            "src/app/requirements.txt",
+            "src/app/.gitignore",
+            "module/pom.xml",
+            "module/build.gradle",
+            "module/target/classes/App.java",
+            "target/classes/App.java",
+            "build/generated/App.java",
+            "module/build/App.java",
+            "module/rebuild/App.java",
+            "module/build.java",
+            "module/generated/Model.java",
+            "test/Root.java",
+            "lib/test/Helper.java",
+            "lib/testing/Helper.java",
+            ".mvn/wrapper/maven-wrapper.properties",
+            ".mvn",
+            "gradle/wrapper/gradle-wrapper.jar",
+            "sub/gradle/wrapper/gradle-wrapper.jar",
+            ".github/workflows/build.yml",
+            "docs/.github/notes.md",
+            ".git/config",
+            "module/.git/HEAD",
+            "module/.venv/lib/site.py",
+            ".venv/lib/site.py",
+            "module/venv/lib/site.py",
+            "module/env/settings.py",
+            "module/.env/settings.py",
+            "module/environment/settings.py",
+            "pkg/__pycache__/app.cpython-312.pyc",
+            "pkg/tests/test_app.py",
+            "docs/guide.md",
+            "docs/deep/nested/dir/Deep.java",
+            "src\\windows\\Style.java");
+
+    static Stream<String> patterns() {
+        Stream<LanguageProcessor> processors = Stream.of(
+                new JavaLanguageProcessor(), new KotlinLanguageProcessor(), new PythonLanguageProcessor());
+        return Stream.concat(
+                processors.flatMap(processor -> Stream.concat(
+                        processor.getIncludePatterns().stream(), processor.getExcludePatterns().stream())),
+                EXTRA_PATTERNS.stream()).distinct();
+    }
+
+    @ParameterizedTest
+    @MethodSource("patterns")
+    void matchesFilesLikeTheJdkGlobMatcher(String pattern) {
+        PathMatcher expected = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        PathFilter include = PathFilter.compile(List.of(pattern), null);
+        PathFilter exclude = PathFilter.compile(null, List.of(pattern));
+
+        for (String path : PATHS) {
+            boolean matches = expected.matches(Path.of(path.replace('\\', '/')));
+            assertThat(include.shouldInclude(path)).as("include %s with %s", path, pattern).isEqualTo(matches);
+            assertThat(exclude.isExcluded(path)).as("exclude %s with %s", path, pattern).isEqualTo(matches);
+            assertThat(exclude.shouldInclude(path)).as("include %s without %s", path, pattern).isEqualTo(!matches);
+        }
+    }
+
+    /**
+     * A directory is pruned when the glob matches it, or when it matches every path below it,
+     * as {@code **&#47;build/**} does for any directory named build.
+     */
+    @ParameterizedTest
+    @MethodSource("patterns")
+    void prunesDirectoriesLikeTheJdkGlobMatcher(String pattern) {
+        PathMatcher expected = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        PathFilter exclude = PathFilter.compile(null, List.of(pattern));
+
+        for (String path : PATHS) {
+            String normalized = path.replace('\\', '/');
+            for (int end = normalized.indexOf('/'); end > 0; end = normalized.indexOf('/', end + 1)) {
+                String directory = normalized.substring(0, end);
+                boolean matches = expected.matches(Path.of(directory)) || Stream.of("Any.java", "nested/Any.py",
+                        "deep/nested/.hidden").allMatch(child -> expected.matches(Path.of(directory, child)));
+                assertThat(exclude.isExcludedDirectory(directory)).as("directory %s with %s", directory, pattern)
+                        .isEqualTo(matches);
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("patterns")
+    void pathUtilsAgreesWithTheJdkGlobMatcher(String pattern) {
+        PathUtils pathUtils = new PathUtils(new SimpleMeterRegistry());
+        PathMatcher expected = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+
+        for (String path : PATHS) {
+            boolean matches = expected.matches(Path.of(path.replace('\\', '/')));
+            assertThat(pathUtils.shouldIncludeFile(path, List.of(pattern), List.of()))
+                    .as("include %s with %s", path, pattern).isEqualTo(matches);
+            assertThat(pathUtils.isExcluded(path, List.of(pattern)))
+                    .as("exclude %s with %s", path, pattern).isEqualTo(matches);
+        }
+    }
+}